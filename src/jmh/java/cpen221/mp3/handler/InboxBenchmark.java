@@ -0,0 +1,102 @@
+package cpen221.mp3.handler;
+
+import cpen221.mp3.event.SensorEvent;
+import cpen221.mp3.server.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Control;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Hand-off of messages from three sender threads to one dispatcher thread, through the
+ * LinkedBlockingQueue shards used to take messages in with, and through the MPSC ring.
+ * Throughput mode gives messages per microsecond; run with -bm sample for the latency
+ * percentiles of adding and taking a message.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class InboxBenchmark {
+    private static final int CAPACITY = 1 << 16;
+
+    private LinkedBlockingQueue<ScheduledMessage> linked;
+    private MpscRing<ScheduledMessage> ring;
+    private ScheduledMessage message;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        linked = new LinkedBlockingQueue<>(CAPACITY);
+        ring = new MpscRing<>(CAPACITY, WaitStrategy.BUSY_SPIN);
+        message = new ScheduledMessage(new Message(new SensorEvent(1, 0, 1, "TempSensor", 20), 0), "", "", 0);
+    }
+
+    @Benchmark
+    @Group("linkedBlockingQueue")
+    @GroupThreads(3)
+    public boolean linkedOffer(Control control) {
+        while (!linked.offer(message)) {
+            if (control.stopMeasurement) {
+                return false;
+            }
+            Thread.onSpinWait();
+        }
+        return true;
+    }
+
+    @Benchmark
+    @Group("linkedBlockingQueue")
+    @GroupThreads(1)
+    public ScheduledMessage linkedPoll(Control control) {
+        ScheduledMessage m;
+        while ((m = linked.poll()) == null) {
+            if (control.stopMeasurement) {
+                return null;
+            }
+            Thread.onSpinWait();
+        }
+        return m;
+    }
+
+    @Benchmark
+    @Group("mpscRing")
+    @GroupThreads(3)
+    public boolean ringOffer(Control control) {
+        while (!ring.offer(message)) {
+            if (control.stopMeasurement) {
+                return false;
+            }
+            Thread.onSpinWait();
+        }
+        return true;
+    }
+
+    @Benchmark
+    @Group("mpscRing")
+    @GroupThreads(1)
+    public ScheduledMessage ringPoll(Control control) {
+        ScheduledMessage m;
+        while ((m = ring.poll()) == null) {
+            if (control.stopMeasurement) {
+                return null;
+            }
+            Thread.onSpinWait();
+        }
+        return m;
+    }
+}
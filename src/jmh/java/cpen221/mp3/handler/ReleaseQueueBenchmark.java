@@ -0,0 +1,113 @@
+package cpen221.mp3.handler;
+
+import cpen221.mp3.client.Client;
+import cpen221.mp3.event.SensorEvent;
+import cpen221.mp3.server.Message;
+import cpen221.mp3.server.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Comparator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Enqueue/dequeue throughput of the message release queue with a large number of pending messages.
+ * Every operation adds one message behind all pending ones and releases the earliest,
+ * so the queue stays at the configured size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class ReleaseQueueBenchmark {
+    @Param({"100000"})
+    int pending;
+
+    private PriorityBlockingQueue<Message> byDeadline;
+    private PriorityBlockingQueue<Message> byLegacyKey;
+    private DelayQueue<ScheduledMessage> delayQueue;
+    private long next;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        ConcurrentHashMap<Integer, Server> serverMap = new ConcurrentHashMap<>();
+        serverMap.put(0, new Server(new Client(0, "bench@test.ca", "127.0.0.1", 1)));
+
+        byDeadline = new PriorityBlockingQueue<>(pending, Message.RELEASE_ORDER);
+        byLegacyKey = new PriorityBlockingQueue<>(pending, legacyComparator(serverMap));
+        delayQueue = new DelayQueue<>();
+        // deadlines in the past, so every message is due and poll() always releases the head
+        next = System.nanoTime() - 1_000_000_000_000L;
+        for (int i = 0; i < pending; i++) {
+            fill(byDeadline);
+            fill(byLegacyKey);
+            delayQueue.add(new ScheduledMessage(newMessage(), "", "", next));
+        }
+    }
+
+    @Benchmark
+    public Message releaseDeadlineKey() {
+        byDeadline.add(newMessage());
+        return byDeadline.poll();
+    }
+
+    @Benchmark
+    public Message legacyComparator() {
+        byLegacyKey.add(newMessage());
+        return byLegacyKey.poll();
+    }
+
+    @Benchmark
+    public ScheduledMessage schedulerDelayQueue() {
+        delayQueue.add(new ScheduledMessage(newMessage(), "", "", next));
+        return delayQueue.poll();
+    }
+
+    private void fill(Queue<Message> queue) {
+        queue.add(newMessage());
+    }
+
+    private Message newMessage() {
+        next++;
+        // clients 0 and 1, so the legacy comparator sees both known and unknown clients
+        return new Message(new SensorEvent(next, (int) (next & 1), 1, "TempSensor", 20.0), next);
+    }
+
+    /**
+     * The comparator MessageHandler used before messages carried their release deadline:
+     * it reads the clock and the server map on every comparison.
+     */
+    private static Comparator<Message> legacyComparator(ConcurrentHashMap<Integer, Server> serverMap) {
+        return (o1, o2) -> {
+            double o1time, o2time;
+            double current = System.currentTimeMillis();
+            if (serverMap.containsKey(o1.getClientID())) {
+                o1time = serverMap.get(o1.getClientID()).getMaxWaitTime() * 1000 + o1.getTimeStamp();
+            } else {
+                o1time = 2000 + o1.getTimeStamp() - current;
+            }
+            if (serverMap.containsKey(o2.getClientID())) {
+                o2time = serverMap.get(o2.getClientID()).getMaxWaitTime() * 1000 + o2.getTimeStamp();
+            } else {
+                o2time = 2000 + o2.getTimeStamp() - current;
+            }
+            return Double.compare(o1time, o2time);
+        };
+    }
+}
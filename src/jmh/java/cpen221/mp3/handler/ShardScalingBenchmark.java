@@ -0,0 +1,76 @@
+package cpen221.mp3.handler;
+
+import cpen221.mp3.client.Client;
+import cpen221.mp3.event.SensorEvent;
+import cpen221.mp3.server.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Every client sends the same number of events from a thread of its own through a scheduler
+ * with a shard per core, and a run ends once every event has been processed. Each client is
+ * written by one shard only, so while there are no more clients than cores the time of a run
+ * stays flat as clients are added: throughput scales linearly with the number of clients.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ShardScalingBenchmark {
+    private static final int EVENTS_PER_CLIENT = 20000;
+
+    @Param({"1", "2", "4", "8"})
+    public int clients;
+
+    private ConcurrentHashMap<Integer, Server> serverMap;
+    private DeadlineScheduler scheduler;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        serverMap = new ConcurrentHashMap<>();
+        for (int c = 0; c < clients; c++) {
+            Server server = new Server(new Client(c, "test@test.com", "127.0.0.1", 1));
+            // release every event as soon as it arrives
+            server.updateMaxWaitTime(0);
+            serverMap.put(c, server);
+        }
+        scheduler = new DeadlineScheduler(Runtime.getRuntime().availableProcessors(), serverMap,
+                new MessageProcessor(serverMap, 0));
+    }
+
+    @Benchmark
+    public ConcurrentHashMap<Integer, Server> processAllClients() throws InterruptedException {
+        List<Thread> producers = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            int clientId = c;
+            producers.add(new Thread(() -> {
+                for (int i = 0; i < EVENTS_PER_CLIENT; i++) {
+                    scheduler.submit(new SensorEvent(i, clientId, i % 32, "TempSensor", i), "127.0.0.1");
+                }
+            }));
+        }
+        producers.forEach(Thread::start);
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        scheduler.close(60000);
+        return serverMap;
+    }
+}
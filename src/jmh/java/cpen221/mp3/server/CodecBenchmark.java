@@ -0,0 +1,67 @@
+package cpen221.mp3.server;
+
+import cpen221.mp3.event.Event;
+import cpen221.mp3.event.SensorEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Cost of putting one event on the wire and reading it back, with the toString()-based
+ * text format and with BinaryCodec. Both sides work on bytes, as they do on a socket.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+    private Event sensorEvent;
+    private byte[] sensorText;
+    private ByteBuffer sensorFrame;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setUp() {
+        sensorEvent = new SensorEvent(1700000000123.0, 42, 17, "TempSensor", 21.734);
+        sensorText = sensorEvent.toString().getBytes(StandardCharsets.UTF_8);
+        sensorFrame = ByteBuffer.allocate(BinaryCodec.MAX_FRAME_LENGTH);
+        BinaryCodec.encodeEvent(sensorEvent, sensorFrame);
+        sensorFrame.flip();
+        buffer = ByteBuffer.allocate(BinaryCodec.MAX_FRAME_LENGTH);
+    }
+
+    @Benchmark
+    public byte[] textEncode() {
+        return sensorEvent.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int binaryEncode() {
+        buffer.clear();
+        BinaryCodec.encodeEvent(sensorEvent, buffer);
+        return buffer.position();
+    }
+
+    @Benchmark
+    public Event textDecode() {
+        return Deserializer.deserializeEvent(new String(sensorText, StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public Event binaryDecode() {
+        return BinaryCodec.decodeFrame(sensorFrame.duplicate());
+    }
+}
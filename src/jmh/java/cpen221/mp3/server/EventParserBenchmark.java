@@ -0,0 +1,89 @@
+package cpen221.mp3.server;
+
+import cpen221.mp3.event.ActuatorEvent;
+import cpen221.mp3.event.Event;
+import cpen221.mp3.event.SensorEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Cost of parsing one text event with the StringBuilder-based parser Deserializer used before,
+ * and with EventParser from a String and from the bytes of a line.
+ * Run with -prof gc to see the allocation per event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class EventParserBenchmark {
+    // short: a value with few digits; generated: a value as the sensors generate it
+    @Param({"short", "generated", "actuator"})
+    String shape;
+
+    private String line;
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() {
+        Event event = switch (shape) {
+            case "short" -> new SensorEvent(1700000000123.0, 42, 17, "TempSensor", 21.75);
+            case "generated" -> new SensorEvent(1700000000123.0, 42, 17, "TempSensor", 21.734567890123456);
+            default -> new ActuatorEvent(1700000000123.0, 42, 18, "Switch", true);
+        };
+        line = event.toString();
+        bytes = line.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Event legacy() {
+        return legacyDeserializeEvent(line);
+    }
+
+    @Benchmark
+    public Event parseString() {
+        return EventParser.parse(line);
+    }
+
+    @Benchmark
+    public Event parseBytes() {
+        return EventParser.parse(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Deserializer.deserializeEvent before it used EventParser
+     */
+    private static Event legacyDeserializeEvent(String in) {
+        StringBuilder serializedRequest = new StringBuilder(in);
+        boolean acc = in.contains("ActuatorEvent");
+
+        serializedRequest.delete(0, ("TimeStamp=").length() + serializedRequest.indexOf("TimeStamp="));
+        double timestamp = Double.parseDouble(serializedRequest.substring(0, serializedRequest.indexOf(",ClientId=")));
+        serializedRequest.delete(0, ",ClientId=".length() + serializedRequest.indexOf(",ClientId="));
+        int clientID = Integer.parseInt(serializedRequest.substring(0, serializedRequest.indexOf(",EntityId=")));
+        serializedRequest.delete(0, ",EntityId=".length() + serializedRequest.indexOf(",EntityId="));
+        int entityID = Integer.parseInt(serializedRequest.substring(0, serializedRequest.indexOf(",EntityType=")));
+        serializedRequest.delete(0, ",EntityType=".length() + serializedRequest.indexOf(",EntityType="));
+        String entityType = serializedRequest.substring(0, serializedRequest.indexOf(",Value="));
+        serializedRequest.delete(0, ",Value=".length() + serializedRequest.indexOf(",Value="));
+        if (acc) {
+            boolean value = Boolean.parseBoolean(serializedRequest.substring(0, serializedRequest.indexOf("}")));
+            return new ActuatorEvent(timestamp, clientID, entityID, entityType, value);
+        }
+        double value = Double.parseDouble(serializedRequest.substring(0, serializedRequest.indexOf("}")));
+        return new SensorEvent(timestamp, clientID, entityID, entityType, value);
+    }
+}
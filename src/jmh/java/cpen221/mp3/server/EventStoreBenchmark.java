@@ -0,0 +1,79 @@
+package cpen221.mp3.server;
+
+import cpen221.mp3.event.Event;
+import cpen221.mp3.event.SensorEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Cost of a one second window query and a last 100 events query against a client with
+ * many events, with the HashSet scan Server used before and with each kind of event store
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class EventStoreBenchmark {
+    @Param({"1000000"})
+    int events;
+
+    @Param({"HEAP", "COLUMNAR", "OFF_HEAP"})
+    EventStorage storage;
+
+    private Set<Event> hashSet;
+    private EventStore store;
+    private double windowStart;
+
+    @Setup
+    public void setUp() {
+        hashSet = new HashSet<>();
+        store = EventStore.of(storage);
+        Random random = new Random(221);
+        // one event every millisecond, over events milliseconds
+        for (int i = 0; i < events; i++) {
+            Event e = new SensorEvent(i, 0, random.nextInt(50), "TempSensor", random.nextDouble());
+            hashSet.add(e);
+            store.add(e);
+        }
+        windowStart = events / 2.0;
+    }
+
+    @Benchmark
+    public List<Event> hashSetWindow() {
+        List<Event> inWindow = new ArrayList<>();
+        for (Event e : hashSet) {
+            if (e.getTimeStamp() >= windowStart && e.getTimeStamp() <= windowStart + 1000) {
+                inWindow.add(e);
+            }
+        }
+        return inWindow;
+    }
+
+    @Benchmark
+    public List<Event> storeWindow() {
+        return store.window(windowStart, windowStart + 1000);
+    }
+
+    @Benchmark
+    public List<Event> storeLast() {
+        return store.last(100);
+    }
+}
@@ -3,15 +3,20 @@ package cpen221.mp3.entity;
 import cpen221.mp3.client.Request;
 import cpen221.mp3.event.ActuatorEvent;
 import cpen221.mp3.event.Event;
+import cpen221.mp3.server.CommandChannel;
 import cpen221.mp3.server.Deserializer;
+import cpen221.mp3.server.LatencyStats;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.Executors;
@@ -24,11 +29,17 @@ public class Actuator implements Entity {
     private final String type;
     private boolean state;
     private double eventGenerationFrequency = 0.2; // default value in Hz (1/s)
+    private boolean persistentConnection = false;
+    private boolean binaryProtocol = false;
+    private ServerConnection connection = null;
+    private volatile EventBatcher batcher = new EventBatcher(1, 0, this::sendEvents);
+    private volatile int slowDown = 0;
     private String serverIP = null;
     private int serverPort = 0;
     private final String host = "127.0.0.1";
     private final int port;
     private static final Set<Integer> usedPorts = new HashSet<>();
+    private final LatencyStats commandLatency = new LatencyStats();
 
     /**
      * Creates an actuator instance.
@@ -139,6 +150,46 @@ public class Actuator implements Entity {
         this.serverPort = serverPort;
     }
 
+    /**
+     * Sets how the events the actuator generates are batched before being sent.
+     * A batch is sent as a single frame once it holds maxEvents events, or once its
+     * first event has waited lingerMillis, whichever comes first.
+     * Events passed to sendEvent directly are never batched.
+     * While the server asks the actuator to slow down, both limits are stretched.
+     *
+     * @param maxEvents    the most events sent in one frame, > 0; 1 sends every event on its own
+     *                     unless the server asks the actuator to slow down
+     * @param lingerMillis the longest an event waits for its frame to fill up, in milliseconds, >= 0
+     */
+    public synchronized void setEventBatching(int maxEvents, long lingerMillis) {
+        if (maxEvents <= 0 || lingerMillis < 0) {
+            throw new IllegalArgumentException();
+        }
+        batcher.flush();
+        batcher = new EventBatcher(maxEvents, lingerMillis, this::sendEvents);
+    }
+
+    /**
+     * Sets whether the actuator keeps a single connection open to its endpoint and streams
+     * every event over it, instead of opening a new connection for each event.
+     * Lost connections are re-established with exponential backoff in both modes.
+     *
+     * @param persistent true to keep one long-lived connection, false to connect per event
+     */
+    public void setPersistentConnection(boolean persistent) {
+        this.persistentConnection = persistent;
+    }
+
+    /**
+     * Sets whether the actuator asks its endpoint for the compact binary format when it connects.
+     * The actuator keeps sending text if the endpoint does not support the binary format.
+     *
+     * @param binary true to ask for the binary format, false to always send text
+     */
+    public void setBinaryProtocol(boolean binary) {
+        this.binaryProtocol = binary;
+    }
+
     /**
      * Sets the frequency of event generation
      *
@@ -149,31 +200,64 @@ public class Actuator implements Entity {
     }
 
     public void sendEvent(Event event) {
-        int count = 0;
-        boolean sent = false;
+        sendEvents(List.of(event));
+    }
+
+    /**
+     * Sends a generated event as part of the current batch, batched as far as the server
+     * has asked the actuator to slow down
+     *
+     * @param event the event to send, not null
+     */
+    private void emit(Event event) {
+        EventBatcher current = batcher;
+        current.setSlowDown(slowDown);
+        current.add(event);
+    }
+
+    /**
+     * Records a flow control signal from the server. Only a counter is updated, since the
+     * signal arrives on whichever thread is sending; emit applies it to the batcher.
+     *
+     * @param slow true if the server asked the actuator to slow down, false if it lets it resume
+     */
+    private void flowSignal(boolean slow) {
+        slowDown = slow ? Math.min(slowDown + 1, EventBatcher.MAX_SLOW_DOWN) : 0;
+    }
+
+    /**
+     * Sends an event or batch of events to the endpoint in a single frame
+     *
+     * @param events the events to send, not null or empty
+     */
+    private void sendEvents(List<Event> events) {
         if (!(this.serverIP == null) && !(getClientId() == -1)) {
-            while (!sent) {
-                try (Socket s = new Socket(this.serverIP, this.serverPort)) {
-                    if (count >= 5) {
-                        wait(10000);
-                        count = 0;
-                    }
-                    PrintWriter out = new PrintWriter(s.getOutputStream(), true);
-                    out.println(event.toString());
-                    sent = true;
-                } catch (IOException e) {
-                    System.out.println("Unable to establish connection on IP: " + this.serverIP + ", Port: " + this.serverPort);
-                    count++;
-                } catch (InterruptedException e) {
-                    throw new RuntimeException(e);
-                }
+            connectionToServer().sendEvents(events);
+        }
+    }
+
+    /**
+     * Gets the connection to the current endpoint, replacing the previous one
+     * if the endpoint or connection mode has changed since it was opened
+     *
+     * @return the connection to the current endpoint
+     */
+    private synchronized ServerConnection connectionToServer() {
+        if (connection == null || !connection.isFor(serverIP, serverPort, persistentConnection, binaryProtocol)) {
+            if (connection != null) {
+                connection.close();
             }
+            connection = new ServerConnection(serverIP, serverPort, persistentConnection, binaryProtocol,
+                    this::flowSignal);
         }
+        return connection;
     }
 
-    public void processServerMessage(Request command) {
+    public synchronized void processServerMessage(Request command) {
         System.out.println("Actuator: " + getId() + " received Command: " + command.getRequestCommand().toString());
-        System.out.println("Time taken: " + (System.currentTimeMillis() - command.getTimeStamp()));
+        double taken = System.currentTimeMillis() - command.getTimeStamp();
+        commandLatency.record((long) (taken * 1_000_000));
+        System.out.println("Time taken: " + taken);
         switch (command.getRequestCommand()) {
             case CONTROL_SET_ACTUATOR_STATE -> {
                 System.out.println("Previous State: " + getState());
@@ -188,6 +272,16 @@ public class Actuator implements Entity {
         }
     }
 
+    /**
+     * Gets the latency of the commands this actuator has processed, each measured from when
+     * the server created the command to when processServerMessage ran
+     *
+     * @return the command latencies, in nanoseconds at millisecond precision
+     */
+    public LatencyStats getCommandLatency() {
+        return commandLatency;
+    }
+
     @Override
     public String toString() {
         return "Actuator{" +
@@ -204,22 +298,82 @@ public class Actuator implements Entity {
         ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
         scheduler.scheduleAtFixedRate(this::sendAutoEvent, 0, (long) (1000 / eventGenerationFrequency), TimeUnit.MILLISECONDS);
 
+        // the listener is bound once and kept for the life of the actuator
         while (true) {
             try (ServerSocket serverSocket = new ServerSocket(port)) {
-                System.out.println("Waiting for Request...");
-                try (Socket incomingSocket = serverSocket.accept()) {
-                    System.out.println("Accepted Request");
-                    String message = (new BufferedReader(new InputStreamReader(incomingSocket.getInputStream()))).readLine();
-                    System.out.println("Message: " + message);
-                    if (message.contains("getId=" + getId())) {
+                listen(serverSocket);
+            } catch (IOException e) {
+                System.err.println("Error creating server socket: " + e.getMessage());
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Accepts command connections until the listener is closed, serving each of them
+     * on a thread of its own
+     *
+     * @param serverSocket the socket to accept connections on, not null
+     */
+    void listen(ServerSocket serverSocket) {
+        while (!serverSocket.isClosed()) {
+            System.out.println("Waiting for Request...");
+            Socket incomingSocket;
+            try {
+                incomingSocket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.err.println("Error accepting request: " + e.getMessage());
+                }
+                continue;
+            }
+            System.out.println("Accepted Request");
+            Thread commands = new Thread(() -> serveCommands(incomingSocket), "actuator-" + getId() + "-commands");
+            commands.setDaemon(true);
+            commands.start();
+        }
+    }
+
+    /**
+     * Processes the commands on a connection in order until it closes. Every sequenced command
+     * is acked once it has been processed, or ignored if it is not for this actuator; the acks
+     * are flushed whenever no further command has arrived, so a pipelined burst is acked in
+     * few writes.
+     *
+     * @param incomingSocket the connection, not null; closed once it ends
+     */
+    private void serveCommands(Socket incomingSocket) {
+        try (Socket s = incomingSocket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            s.setTcpNoDelay(true);
+            String line;
+            while ((line = in.readLine()) != null) {
+                System.out.println("Message: " + line);
+                long sequence = CommandChannel.sequenceOf(line);
+                String message = CommandChannel.commandOf(line);
+                if (message.contains("getId=" + getId())) {
+                    try {
                         processServerMessage(Deserializer.deserializeRequest(message));
+                    } catch (RuntimeException e) {
+                        System.err.println("Error processing command: " + e.getMessage());
                     }
-                } catch (IOException e) {
-                    System.err.println("Error processing request: " + e.getMessage());
                 }
-            } catch (IOException e) {
-                System.err.println("Error creating server socket: " + e.getMessage());
+                if (sequence != CommandChannel.UNSEQUENCED) {
+                    out.write(CommandChannel.ack(sequence));
+                    out.newLine();
+                }
+                if (!in.ready()) {
+                    out.flush();
+                }
             }
+        } catch (IOException e) {
+            System.err.println("Error processing request: " + e.getMessage());
         }
     }
 
@@ -230,7 +384,7 @@ public class Actuator implements Entity {
             boolean temp = r.nextBoolean();
             ActuatorEvent ac = new ActuatorEvent(System.currentTimeMillis(), clientId, id, type, temp);
             this.state = temp;
-            sendEvent(ac);
+            emit(ac);
         }
     }
 
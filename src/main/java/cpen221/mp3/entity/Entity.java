@@ -45,6 +45,32 @@ public interface Entity {
 
     void setEventGenerationFrequency(double frequency);
 
+    /**
+     * Sets how the events the entity generates are batched before being sent.
+     * A batch is sent as a single frame once it holds maxEvents events, or once its
+     * first event has waited lingerMillis, whichever comes first.
+     *
+     * @param maxEvents    the most events sent in one frame, > 0; 1 sends every event on its own
+     * @param lingerMillis the longest an event waits for its frame to fill up, in milliseconds, >= 0
+     */
+    void setEventBatching(int maxEvents, long lingerMillis);
+
+    /**
+     * Sets whether the entity keeps a single connection open to its endpoint and streams
+     * every event over it, instead of opening a new connection for each event
+     *
+     * @param persistent true to keep one long-lived connection, false to connect per event
+     */
+    void setPersistentConnection(boolean persistent);
+
+    /**
+     * Sets whether the entity asks its endpoint for the compact binary format when it connects,
+     * falling back to text if the endpoint does not support it
+     *
+     * @param binary true to ask for the binary format, false to always send text
+     */
+    void setBinaryProtocol(boolean binary);
+
     /**
      * Sends an event to the endpoint of a connection
      *
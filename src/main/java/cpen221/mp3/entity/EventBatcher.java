@@ -0,0 +1,199 @@
+package cpen221.mp3.entity;
+
+import cpen221.mp3.event.Event;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/*
+ * Collects the events an entity generates and sends them as a single frame
+ * once maxEvents have been collected or the oldest one has waited lingerMillis.
+ * While the server asks the entity to slow down, every level of slow-down doubles both,
+ * starting from at least MIN_SLOWED_LINGER_MILLIS, so the entity sends fewer, larger frames.
+ * Frames are sent outside the batcher's lock and in the order their batches were closed:
+ * a full batch on the thread that filled it, and a batch whose linger ran out on the
+ * batcher's own sender thread, so a server that is down never holds up the shared timer.
+ */
+class EventBatcher {
+    // one timer thread closes the lingering batches of every entity in this JVM; it never sends
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "event-batcher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static final long MIN_SLOWED_LINGER_MILLIS = 50;
+    static final long MAX_SLOWED_LINGER_MILLIS = 5000;
+    static final int MAX_SLOWED_EVENTS = 4096;
+    static final int MAX_SLOW_DOWN = 16;
+
+    private final int baseMaxEvents;
+    private final long baseLingerMillis;
+    private final Consumer<List<Event>> sink;
+    private final ArrayDeque<List<Event>> outbox = new ArrayDeque<>();
+    private final Object sendLock = new Object();
+    private final ExecutorService sender;
+    private int maxEvents;
+    private long lingerMillis;
+    private int slowDown = 0;
+    private List<Event> pending;
+    private ScheduledFuture<?> lingerTimer;
+    // Abstraction function:
+    //    Represents a batch being filled, where pending are the events collected so far,
+    //    outbox the closed batches not yet sent, oldest first, sink sends a frame of events
+    //    to the server, and lingerTimer closes pending lingerMillis after its first event was
+    //    added and has sender send it. maxEvents and lingerMillis are
+    //    baseMaxEvents and baseLingerMillis stretched by slowDown levels of slow-down.
+
+    // Rep Invariant:
+    //    baseMaxEvents > 0, baseLingerMillis >= 0, slowDown >= 0, sink, pending != null,
+    //    maxEvents == baseMaxEvents and lingerMillis == baseLingerMillis if slowDown == 0,
+    //    pending.size() < maxEvents, lingerTimer == null if pending is empty,
+    //    no batch in outbox is empty, only the holder of sendLock takes batches from outbox
+
+    /**
+     * Creates a new batcher
+     *
+     * @param maxEvents    the most events sent in one frame, > 0
+     * @param lingerMillis the longest an event waits for its frame to fill up, in milliseconds, >= 0
+     * @param sink         sends a frame of events to the server, not null
+     */
+    EventBatcher(int maxEvents, long lingerMillis, Consumer<List<Event>> sink) {
+        this.baseMaxEvents = maxEvents;
+        this.baseLingerMillis = lingerMillis;
+        this.maxEvents = maxEvents;
+        this.lingerMillis = lingerMillis;
+        this.sink = sink;
+        this.pending = new ArrayList<>(maxEvents);
+        // the sender thread only exists while lingering batches are being sent
+        this.sender = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "event-sender");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Sets how far the server has asked the entity to slow down. Each level doubles the
+     * events per frame and the linger, up to MAX_SLOWED_EVENTS and MAX_SLOWED_LINGER_MILLIS;
+     * level 0 goes back to the batching the batcher was created with.
+     * A batch already waiting is sent when its current linger runs out.
+     *
+     * @param level the number of slow-down signals since the server last let the entity resume, >= 0
+     */
+    synchronized void setSlowDown(int level) {
+        if (level == slowDown) {
+            return;
+        }
+        slowDown = level;
+        int events = baseMaxEvents;
+        long linger = baseLingerMillis;
+        for (int i = 0; i < level && (events < MAX_SLOWED_EVENTS || linger < MAX_SLOWED_LINGER_MILLIS); i++) {
+            events = Math.min(events * 2, MAX_SLOWED_EVENTS);
+            linger = Math.min(Math.max(linger * 2, MIN_SLOWED_LINGER_MILLIS), MAX_SLOWED_LINGER_MILLIS);
+        }
+        maxEvents = Math.max(events, baseMaxEvents);
+        lingerMillis = Math.max(linger, baseLingerMillis);
+        if (pending.size() >= maxEvents) {
+            close();
+            sender.execute(this::send);
+        }
+    }
+
+    /**
+     * @return the most events currently sent in one frame
+     */
+    synchronized int maxEvents() {
+        return maxEvents;
+    }
+
+    /**
+     * @return the longest an event currently waits for its frame to fill up, in milliseconds
+     */
+    synchronized long lingerMillis() {
+        return lingerMillis;
+    }
+
+    /**
+     * Adds an event to the current batch, sending the batch on the calling thread if it is full
+     *
+     * @param event the event to add, not null
+     */
+    void add(Event event) {
+        synchronized (this) {
+            pending.add(event);
+            if (pending.size() < maxEvents) {
+                if (lingerTimer == null) {
+                    lingerTimer = timer.schedule(this::linger, lingerMillis, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+            close();
+        }
+        send();
+    }
+
+    /**
+     * Sends every collected event as one frame on the calling thread, if any were collected,
+     * after every batch closed before it
+     */
+    void flush() {
+        synchronized (this) {
+            close();
+        }
+        send();
+    }
+
+    /**
+     * Closes the current batch once its linger has run out and has the sender thread send it
+     */
+    private void linger() {
+        synchronized (this) {
+            close();
+        }
+        sender.execute(this::send);
+    }
+
+    /**
+     * Moves the current batch to the outbox, if any events were collected
+     */
+    private synchronized void close() {
+        if (lingerTimer != null) {
+            lingerTimer.cancel(false);
+            lingerTimer = null;
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        outbox.add(pending);
+        pending = new ArrayList<>(maxEvents);
+    }
+
+    /**
+     * Sends the batches in the outbox in order until it is empty, without holding the
+     * batcher's lock, so events can still be added while a frame is being sent
+     */
+    private void send() {
+        synchronized (sendLock) {
+            while (true) {
+                List<Event> batch;
+                synchronized (this) {
+                    batch = outbox.poll();
+                }
+                if (batch == null) {
+                    return;
+                }
+                sink.accept(batch);
+            }
+        }
+    }
+}
@@ -3,10 +3,7 @@ package cpen221.mp3.entity;
 import cpen221.mp3.event.Event;
 import cpen221.mp3.event.SensorEvent;
 
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -19,7 +16,11 @@ public class Sensor implements Entity {
     private String serverIP = null;
     private int serverPort = 0;
     private double eventGenerationFrequency = 0.2; // default value in Hz (1/s)
-    private ServerSocket socket;
+    private boolean persistentConnection = false;
+    private boolean binaryProtocol = false;
+    private ServerConnection connection = null;
+    private volatile EventBatcher batcher = new EventBatcher(1, 0, this::sendEvents);
+    private volatile int slowDown = 0;
 
     /**
      * Creates a sensor instance.
@@ -32,22 +33,12 @@ public class Sensor implements Entity {
         this.id = id;
         this.clientId = -1;         // remains unregistered
         this.type = type;
-        try {
-            socket = new ServerSocket(serverPort);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
     }
 
     public Sensor(int id, int clientId, String type) {
         this.id = id;
         this.clientId = clientId;   // registered for the client
         this.type = type;
-        try {
-            socket = new ServerSocket(serverPort);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
     }
 
     public Sensor(int id, String type, String serverIP, int serverPort) {
@@ -56,11 +47,6 @@ public class Sensor implements Entity {
         this.type = type;
         this.serverIP = serverIP;
         this.serverPort = serverPort;
-        try {
-            socket = new ServerSocket(serverPort);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
     }
 
     public Sensor(int id, int clientId, String type, String serverIP, int serverPort) {
@@ -69,10 +55,6 @@ public class Sensor implements Entity {
         this.type = type;
         this.serverIP = serverIP;
         this.serverPort = serverPort;
-        try {
-            socket = new ServerSocket(serverPort);
-        } catch (IOException ignored) {
-        }
     }
 
     public int getId() {
@@ -110,6 +92,46 @@ public class Sensor implements Entity {
         this.serverPort = serverPort;
     }
 
+    /**
+     * Sets how the events the sensor generates are batched before being sent.
+     * A batch is sent as a single frame once it holds maxEvents events, or once its
+     * first event has waited lingerMillis, whichever comes first.
+     * Events passed to sendEvent directly are never batched.
+     * While the server asks the sensor to slow down, both limits are stretched.
+     *
+     * @param maxEvents    the most events sent in one frame, > 0; 1 sends every event on its own
+     *                     unless the server asks the sensor to slow down
+     * @param lingerMillis the longest an event waits for its frame to fill up, in milliseconds, >= 0
+     */
+    public synchronized void setEventBatching(int maxEvents, long lingerMillis) {
+        if (maxEvents <= 0 || lingerMillis < 0) {
+            throw new IllegalArgumentException();
+        }
+        batcher.flush();
+        batcher = new EventBatcher(maxEvents, lingerMillis, this::sendEvents);
+    }
+
+    /**
+     * Sets whether the sensor keeps a single connection open to its endpoint and streams
+     * every event over it, instead of opening a new connection for each event.
+     * Lost connections are re-established with exponential backoff in both modes.
+     *
+     * @param persistent true to keep one long-lived connection, false to connect per event
+     */
+    public void setPersistentConnection(boolean persistent) {
+        this.persistentConnection = persistent;
+    }
+
+    /**
+     * Sets whether the sensor asks its endpoint for the compact binary format when it connects.
+     * The sensor keeps sending text if the endpoint does not support the binary format.
+     *
+     * @param binary true to ask for the binary format, false to always send text
+     */
+    public void setBinaryProtocol(boolean binary) {
+        this.binaryProtocol = binary;
+    }
+
     /**
      * Sets the frequency of event generation
      *
@@ -125,28 +147,57 @@ public class Sensor implements Entity {
      * @param event The event being sent.
      */
     public void sendEvent(Event event) {
-        int count = 0;
-        boolean sent = false;
+        sendEvents(List.of(event));
+    }
+
+    /**
+     * Sends a generated event as part of the current batch, batched as far as the server
+     * has asked the sensor to slow down
+     *
+     * @param event the event to send, not null
+     */
+    private void emit(Event event) {
+        EventBatcher current = batcher;
+        current.setSlowDown(slowDown);
+        current.add(event);
+    }
+
+    /**
+     * Records a flow control signal from the server. Only a counter is updated, since the
+     * signal arrives on whichever thread is sending; emit applies it to the batcher.
+     *
+     * @param slow true if the server asked the sensor to slow down, false if it lets it resume
+     */
+    private void flowSignal(boolean slow) {
+        slowDown = slow ? Math.min(slowDown + 1, EventBatcher.MAX_SLOW_DOWN) : 0;
+    }
+
+    /**
+     * Sends an event or batch of events to the endpoint in a single frame
+     *
+     * @param events the events to send, not null or empty
+     */
+    private void sendEvents(List<Event> events) {
         if (!(this.serverIP == null)) {
-            while (!sent) {
-                try {
-                    if (count >= 5) {
-                        wait(10000);
-                        count = 0;
-                    }
-
-                    Socket s = new Socket(this.serverIP, this.serverPort);
-                    PrintWriter out = new PrintWriter(s.getOutputStream(), true);
-                    out.println(event.toString());
-                    sent = true;
-                } catch (IOException e) {
-                    System.out.println("Unable to establish connection on IP: " + this.serverIP + ", Port: " + this.serverPort);
-                    count++;
-                } catch (InterruptedException e) {
-                    throw new RuntimeException(e);
-                }
+            connectionToServer().sendEvents(events);
+        }
+    }
+
+    /**
+     * Gets the connection to the current endpoint, replacing the previous one
+     * if the endpoint or connection mode has changed since it was opened
+     *
+     * @return the connection to the current endpoint
+     */
+    private synchronized ServerConnection connectionToServer() {
+        if (connection == null || !connection.isFor(serverIP, serverPort, persistentConnection, binaryProtocol)) {
+            if (connection != null) {
+                connection.close();
             }
+            connection = new ServerConnection(serverIP, serverPort, persistentConnection, binaryProtocol,
+                    this::flowSignal);
         }
+        return connection;
     }
 
     public void start() {
@@ -159,17 +210,17 @@ public class Sensor implements Entity {
             case "TempSensor" -> {
                 double state = 20 + (new Random()).nextDouble() * 4;
                 SensorEvent se = new SensorEvent(System.currentTimeMillis(), clientId, id, type, state);
-                sendEvent(se);
+                emit(se);
             }
             case "PressureSensor" -> {
                 double state = 1020 + (new Random()).nextDouble() * 4;
                 SensorEvent se = new SensorEvent(System.currentTimeMillis(), clientId, id, type, state);
-                sendEvent(se);
+                emit(se);
             }
             case "CO2Sensor" -> {
                 double state = 400 + (new Random()).nextDouble() * 50;
                 SensorEvent se = new SensorEvent(System.currentTimeMillis(), clientId, id, type, state);
-                sendEvent(se);
+                emit(se);
             }
             default -> {
             }
@@ -0,0 +1,280 @@
+package cpen221.mp3.entity;
+
+import cpen221.mp3.event.Event;
+import cpen221.mp3.event.EventBatch;
+import cpen221.mp3.server.BinaryCodec;
+import cpen221.mp3.server.FlowControl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Consumer;
+
+/*
+ * The connection an entity sends its events to the server over.
+ * A persistent connection keeps one socket open and streams messages over it;
+ * otherwise a new socket is opened and closed for every message.
+ * Failed sends are retried with exponential backoff.
+ * A binary connection asks the server for the BinaryCodec format when it connects, and keeps
+ * using newline-delimited text if the server does not agree to it.
+ * A persistent connection reads the FlowControl signals the server has written back after every
+ * send, without waiting for any, and passes them on to the entity.
+ */
+class ServerConnection {
+    private static final long INITIAL_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 10000;
+    private static final int HELLO_TIMEOUT_MILLIS = 2000;
+
+    private final String serverIP;
+    private final int serverPort;
+    private final boolean persistent;
+    private final boolean binary;
+    private final Consumer<Boolean> flowListener;
+    private boolean binaryRefused = false;
+    private Socket socket;
+    private OutputStream out;
+    private boolean negotiated;
+    private ByteBuffer frames;
+    // Abstraction function:
+    //    Represents a connection to the server at serverIP:serverPort, where socket is the
+    //    currently open connection (null if none is open), and out writes to socket.
+    //    If persistent, socket stays open between messages. Events are written as binary frames
+    //    built in frames if negotiated, and as text otherwise. binaryRefused records that the
+    //    server did not answer a binary hello, so later sockets do not ask again.
+    //    flowListener is told of every flow control signal read from a persistent socket.
+
+    // Rep Invariant:
+    //    serverIP, flowListener != null, 0 <= serverPort <= 65535,
+    //    socket == null iff out == null, socket == null if !persistent between calls to send,
+    //    negotiated implies binary && socket != null
+
+    /**
+     * Creates a connection to a server. No socket is opened until the first message is sent.
+     *
+     * @param serverIP   the IP address of the server, not null
+     * @param serverPort the port number of the server
+     * @param persistent whether one socket is kept open for every message
+     * @param binary     whether to ask the server for the binary format
+     */
+    ServerConnection(String serverIP, int serverPort, boolean persistent, boolean binary) {
+        this(serverIP, serverPort, persistent, binary, slowDown -> {
+        });
+    }
+
+    /**
+     * Creates a connection to a server. No socket is opened until the first message is sent.
+     *
+     * @param serverIP     the IP address of the server, not null
+     * @param serverPort   the port number of the server
+     * @param persistent   whether one socket is kept open for every message
+     * @param binary       whether to ask the server for the binary format
+     * @param flowListener called with true when the server asks the entity to slow down,
+     *                     and with false when it lets the entity resume, not null
+     */
+    ServerConnection(String serverIP, int serverPort, boolean persistent, boolean binary,
+                     Consumer<Boolean> flowListener) {
+        this.serverIP = serverIP;
+        this.serverPort = serverPort;
+        this.persistent = persistent;
+        this.binary = binary;
+        this.flowListener = flowListener;
+    }
+
+    /**
+     * Checks whether this connection goes to the given endpoint in the given mode
+     *
+     * @param serverIP   the IP address of the server
+     * @param serverPort the port number of the server
+     * @param persistent whether one socket is kept open for every message
+     * @param binary     whether the binary format is asked for
+     * @return true if this connection matches all four, false otherwise
+     */
+    boolean isFor(String serverIP, int serverPort, boolean persistent, boolean binary) {
+        return this.serverIP.equals(serverIP) && this.serverPort == serverPort
+                && this.persistent == persistent && this.binary == binary;
+    }
+
+    /**
+     * Sends a single line to the server, reconnecting with exponential backoff
+     * until it has been written. The line is sent as text even on a binary connection.
+     *
+     * @param line the message to send, without a trailing newline, not null
+     * @return true if the line was written, false if the calling thread was interrupted first
+     */
+    synchronized boolean send(String line) {
+        return sendWithRetry(() -> writeText(line));
+    }
+
+    /**
+     * Sends events to the server as binary frames if the server agreed to the binary format,
+     * otherwise as a single text event or batch, reconnecting with exponential backoff
+     * until they have been written
+     *
+     * @param events the events to send, not null or empty
+     * @return true if the events were written, false if the calling thread was interrupted first
+     */
+    synchronized boolean sendEvents(List<Event> events) {
+        return sendWithRetry(() -> {
+            if (negotiated) {
+                writeBinary(events);
+            } else if (events.size() == 1) {
+                writeText(events.get(0).toString());
+            } else {
+                writeText(new EventBatch(events).toString());
+            }
+        });
+    }
+
+    /**
+     * Closes the socket of this connection, if one is open
+     */
+    synchronized void close() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+        socket = null;
+        out = null;
+        negotiated = false;
+    }
+
+    private boolean sendWithRetry(Write write) {
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        while (true) {
+            if (out == null) {
+                try {
+                    connect();
+                } catch (IOException e) {
+                    System.out.println("Unable to establish connection on IP: " + serverIP + ", Port: " + serverPort);
+                }
+            }
+            if (out != null) {
+                try {
+                    write.run();
+                    out.flush();
+                    if (persistent) {
+                        readSignals();
+                    } else {
+                        close();
+                    }
+                    return true;
+                } catch (IOException e) {
+                    System.out.println("Lost connection on IP: " + serverIP + ", Port: " + serverPort);
+                }
+            }
+            close();
+
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    /**
+     * Passes on every flow control signal the server has written back so far, without blocking.
+     * The message was already written, so a failing socket is left for the next send to find.
+     */
+    private void readSignals() {
+        try {
+            InputStream in = socket.getInputStream();
+            while (in.available() > 0) {
+                int signal = in.read();
+                if (signal == FlowControl.SLOW_DOWN) {
+                    flowListener.accept(true);
+                } else if (signal == FlowControl.RESUME) {
+                    flowListener.accept(false);
+                }
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void writeText(String line) throws IOException {
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeBinary(List<Event> events) throws IOException {
+        if (frames == null) {
+            frames = ByteBuffer.allocate(2 * BinaryCodec.MAX_FRAME_LENGTH);
+        }
+        for (Event event : events) {
+            if (frames.remaining() < BinaryCodec.MAX_FRAME_LENGTH) {
+                out.write(frames.array(), 0, frames.position());
+                frames.clear();
+            }
+            BinaryCodec.encodeEvent(event, frames);
+        }
+        out.write(frames.array(), 0, frames.position());
+        frames.clear();
+    }
+
+    private void connect() throws IOException {
+        Socket s = new Socket(serverIP, serverPort);
+        try {
+            s.setTcpNoDelay(true);
+            OutputStream o = new BufferedOutputStream(s.getOutputStream());
+            if (binary && !binaryRefused) {
+                negotiated = negotiate(s, o);
+                if (!negotiated && binaryRefused) {
+                    // the server may have read the hello as the start of a text message
+                    s.close();
+                    connect();
+                    return;
+                }
+            }
+            out = o;
+        } catch (IOException e) {
+            s.close();
+            throw e;
+        }
+        socket = s;
+    }
+
+    /**
+     * Sends the binary hello on a new socket and waits for the answer of the server
+     *
+     * @return true if the server agreed to the binary format, false if the socket
+     * has to keep using text
+     * @throws IOException if the socket fails
+     */
+    private boolean negotiate(Socket s, OutputStream o) throws IOException {
+        o.write(BinaryCodec.hello());
+        o.flush();
+        byte[] answer = new byte[BinaryCodec.HELLO_LENGTH];
+        s.setSoTimeout(HELLO_TIMEOUT_MILLIS);
+        try {
+            new DataInputStream(s.getInputStream()).readFully(answer);
+        } catch (SocketTimeoutException e) {
+            System.out.println("Server on IP: " + serverIP + ", Port: " + serverPort + " does not speak the binary format");
+            binaryRefused = true;
+            return false;
+        } finally {
+            s.setSoTimeout(0);
+        }
+        if (answer[0] != BinaryCodec.MAGIC) {
+            binaryRefused = true;
+            return false;
+        }
+        return answer[1] != BinaryCodec.TEXT_FALLBACK;
+    }
+
+    /*
+     * A write to the open socket
+     */
+    private interface Write {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,61 @@
+package cpen221.mp3.event;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * A group of events sent to the server together as a single frame
+ */
+public class EventBatch {
+    public static final String SEPARATOR = ";";
+
+    private final List<Event> events;
+    // Abstraction function:
+    //    Represents a frame containing events.get(0) ... events.get(events.size() - 1),
+    //    in the order they were generated
+
+    // Rep Invariant:
+    //    events != null, no event in events is null
+
+    /**
+     * Creates a batch of events
+     *
+     * @param events the events in the batch, in the order they were generated, not null
+     */
+    public EventBatch(List<Event> events) {
+        this.events = new ArrayList<>(events);
+    }
+
+    /**
+     * Gets the events in this batch
+     *
+     * @return the events in this batch, in the order they were generated
+     */
+    public List<Event> getEvents() {
+        return new ArrayList<>(events);
+    }
+
+    /**
+     * Gets the number of events in this batch
+     *
+     * @return the number of events in this batch
+     */
+    public int size() {
+        return events.size();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder("EventBatch{" +
+                "Count=" + events.size() +
+                ",Events=");
+        for (int i = 0; i < events.size(); i++) {
+            if (i > 0) {
+                s.append(SEPARATOR);
+            }
+            s.append(events.get(i));
+        }
+        s.append('}');
+        return s.toString();
+    }
+}
@@ -0,0 +1,652 @@
+package cpen221.mp3.handler;
+
+import cpen221.mp3.client.Request;
+import cpen221.mp3.event.Event;
+import cpen221.mp3.server.Deserializer;
+import cpen221.mp3.server.Message;
+import cpen221.mp3.server.Server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Holds every received message until it can be processed, then hands it to the MessageProcessor.
+ * Requests are processed once the max wait time of their client has passed since they were received.
+ * Events go through a reorder buffer per client and are processed in timestamp order, as soon as
+ * the event-time watermark of the client passes them, and at the latest at the same deadline as requests.
+ * Clients are spread over a fixed number of shards, each released by its own dispatcher thread,
+ * so every message of a client is processed on the same thread. A shard holds the release queue,
+ * the reorder buffers and the servers of its clients, so clients of different shards share nothing.
+ * A client that takes most of the traffic of a shard shared with other clients can be moved
+ * to a dedicated shard of its own. Messages are routed under a lock per client, which only
+ * senders of the same client share, so the shard it leaves hands over its state after taking in
+ * every message routed to it before the move, and no message of the client is processed out of order.
+ * Every message counts against the ingress budget from when it is submitted until it is processed
+ * or dropped, so that readers can stop reading while a client or the scheduler is over budget.
+ */
+class DeadlineScheduler {
+    // entities stamp their events with System.currentTimeMillis()
+    static final double TIMESTAMP_UNITS_PER_SECOND = 1000;
+    static final int DEFAULT_INBOX_CAPACITY = 1 << 16;
+    // the client returned by submit when a batch held no events
+    static final int NO_CLIENT = Integer.MIN_VALUE;
+
+    private final Shard[] shards;
+    private final List<Shard> dedicated = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<Integer, Route> routes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, Server> serverMap;
+    private final MessageProcessor processor;
+    private final LatePolicy latePolicy;
+    private final int inboxCapacity;
+    private final WaitStrategy waitStrategy;
+    private final IngressBudget budget;
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile boolean closed = false;
+    // Abstraction function:
+    //    Represents a scheduler where the messages of client c wait in routes.get(c).shard
+    //    until they are released, dedicated holds the shards of clients moved to a shard of their own,
+    //    serverMap maps client IDs to their servers,
+    //    released messages are handed to processor, and events that arrive after later events
+    //    of their client were released are handled as latePolicy says. Every shard takes in
+    //    messages through a ring of inboxCapacity slots, waited on as waitStrategy says.
+    //    budget counts the messages submitted and not yet processed or dropped.
+
+    // Rep Invariant:
+    //    shards, serverMap, processor, latePolicy, waitStrategy, budget all != null, shards.length > 0, inboxCapacity > 0,
+    //    routes.get(c).shard is shards[c mod shards.length] or a shard of dedicated,
+    //    and no two clients are routed to the same shard of dedicated
+
+    /**
+     * Creates a new scheduler that processes late events like any other, and starts its dispatcher threads
+     *
+     * @param shardCount the number of shards, > 0
+     * @param serverMap  the map of client IDs to servers, not null
+     * @param processor  the processor that released messages are handed to, not null
+     */
+    DeadlineScheduler(int shardCount, ConcurrentMap<Integer, Server> serverMap, MessageProcessor processor) {
+        this(shardCount, serverMap, processor, LatePolicy.APPLY);
+    }
+
+    /**
+     * Creates a new scheduler and starts its dispatcher threads
+     *
+     * @param shardCount the number of shards, > 0
+     * @param serverMap  the map of client IDs to servers, not null
+     * @param processor  the processor that released messages are handed to, not null
+     * @param latePolicy what to do with late events, not null
+     */
+    DeadlineScheduler(int shardCount, ConcurrentMap<Integer, Server> serverMap, MessageProcessor processor,
+                      LatePolicy latePolicy) {
+        this(shardCount, serverMap, processor, latePolicy, DEFAULT_INBOX_CAPACITY, WaitStrategy.PARK);
+    }
+
+    /**
+     * Creates a new scheduler and starts its dispatcher threads
+     *
+     * @param shardCount    the number of shards, > 0
+     * @param serverMap     the map of client IDs to servers, not null
+     * @param processor     the processor that released messages are handed to, not null
+     * @param latePolicy    what to do with late events, not null
+     * @param inboxCapacity the most messages waiting to be taken in by a shard, > 0;
+     *                      senders wait for room beyond it
+     * @param waitStrategy  how dispatchers wait for messages and senders for room, not null
+     */
+    DeadlineScheduler(int shardCount, ConcurrentMap<Integer, Server> serverMap, MessageProcessor processor,
+                      LatePolicy latePolicy, int inboxCapacity, WaitStrategy waitStrategy) {
+        this(shardCount, serverMap, processor, latePolicy, inboxCapacity, waitStrategy,
+                new IngressBudget(IngressBudget.DEFAULT_PER_CLIENT, IngressBudget.DEFAULT_GLOBAL));
+    }
+
+    /**
+     * Creates a new scheduler and starts its dispatcher threads
+     *
+     * @param shardCount    the number of shards, > 0
+     * @param serverMap     the map of client IDs to servers, not null
+     * @param processor     the processor that released messages are handed to, not null
+     * @param latePolicy    what to do with late events, not null
+     * @param inboxCapacity the most messages waiting to be taken in by a shard, > 0;
+     *                      senders wait for room beyond it
+     * @param waitStrategy  how dispatchers wait for messages and senders for room, not null
+     * @param budget        the ingress budget messages count against until they are processed, not null
+     */
+    DeadlineScheduler(int shardCount, ConcurrentMap<Integer, Server> serverMap, MessageProcessor processor,
+                      LatePolicy latePolicy, int inboxCapacity, WaitStrategy waitStrategy, IngressBudget budget) {
+        this.budget = budget;
+        this.serverMap = serverMap;
+        this.processor = processor;
+        this.latePolicy = latePolicy;
+        this.inboxCapacity = inboxCapacity;
+        this.waitStrategy = waitStrategy;
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard("dispatcher-" + i, null);
+        }
+    }
+
+    /**
+     * Deserializes a line received from a client or entity and schedules it.
+     * Every event in a batch frame is scheduled on its own.
+     *
+     * @param input the serialized event, batch of events or request, not null
+     * @param host  the address of the sender, not null
+     * @return the ID of the client of the last message scheduled, or NO_CLIENT if the batch was empty
+     */
+    int submit(String input, String host) {
+        int clientId = NO_CLIENT;
+        for (Message message : parse(input)) {
+            clientId = submit(message, input, host);
+        }
+        return clientId;
+    }
+
+    /**
+     * Deserializes a line received from a client or entity into the messages it holds,
+     * each with its release deadline counted from now
+     *
+     * @param input the serialized event, batch of events or request, not null
+     * @return the messages of the line, one for every event of a batch frame
+     */
+    List<Message> parse(String input) {
+        long received = System.nanoTime();
+        if (input.startsWith("EventBatch{")) {
+            List<Message> messages = new ArrayList<>();
+            for (Event e : Deserializer.deserializeEventBatch(input)) {
+                messages.add(new Message(e, releaseDeadline(e.getClientId(), received)));
+            }
+            return messages;
+        } else if (input.contains("Request{")) {
+            System.out.println("Processing: " + input);
+            Request r = Deserializer.deserializeRequest(input);
+            return List.of(new Message(r, releaseDeadline(r.getClientID(), received)));
+        } else {
+            Event e = Deserializer.deserializeEvent(input);
+            return List.of(new Message(e, releaseDeadline(e.getClientId(), received)));
+        }
+    }
+
+    /**
+     * Wraps an event that was received already deserialized, with its release deadline
+     * counted from now
+     *
+     * @param event the received event, not null
+     * @return the message of the event
+     */
+    Message messageOf(Event event) {
+        return new Message(event, releaseDeadline(event.getClientId(), System.nanoTime()));
+    }
+
+    /**
+     * Schedules an event that was received already deserialized
+     *
+     * @param event the received event, not null
+     * @param host  the address of the sender, not null
+     * @return the ID of the client of the event
+     */
+    int submit(Event event, String host) {
+        return submit(messageOf(event), "", host);
+    }
+
+    /**
+     * Schedules a message to be processed by its release deadline
+     *
+     * @param message the received message, not null
+     * @param input   the message as it was received, not null
+     * @param host    the address of the sender, not null
+     * @return the ID of the client of the message
+     */
+    int submit(Message message, String input, String host) {
+        int clientId = message.getClientID();
+        budget.admit(clientId);
+        Route route = routeOf(clientId);
+        synchronized (route) {
+            route.shard.add(clientId, new ScheduledMessage(message, input, host, sequence.getAndIncrement()));
+        }
+        return clientId;
+    }
+
+    /**
+     * Schedules a message to be processed by its release deadline if the inbox of its shard
+     * has room, without waiting for room otherwise. For threads that must never block, such
+     * as a reactor serving many connections.
+     *
+     * @param message the received message, not null
+     * @param input   the message as it was received, not null
+     * @param host    the address of the sender, not null
+     * @return true if the message was scheduled, false if the inbox of its shard is full
+     */
+    boolean offer(Message message, String input, String host) {
+        int clientId = message.getClientID();
+        budget.admit(clientId);
+        Route route = routeOf(clientId);
+        boolean added;
+        synchronized (route) {
+            added = route.shard.offer(clientId, new ScheduledMessage(message, input, host, sequence.getAndIncrement()));
+        }
+        if (!added) {
+            budget.release(clientId);
+        }
+        return added;
+    }
+
+    /**
+     * Checks whether a sender should stop sending messages of a client for now
+     *
+     * @param clientId the ID of the client
+     * @return true if the client or the scheduler as a whole is over its ingress budget, false otherwise
+     */
+    boolean isOverBudget(int clientId) {
+        return budget.isExceeded(clientId);
+    }
+
+    /**
+     * Waits until a client and the scheduler are back within their ingress budget
+     *
+     * @param clientId the ID of the client
+     * @return true if the budget has room, false if the scheduler closed or the thread
+     * was interrupted first
+     */
+    boolean awaitBudget(int clientId) {
+        return budget.awaitRoom(clientId, () -> closed);
+    }
+
+    /**
+     * @return the ingress budget of this scheduler
+     */
+    IngressBudget budget() {
+        return budget;
+    }
+
+    /**
+     * Moves every client that takes at least a share of the messages of its shard since the
+     * last call to a dedicated shard of its own, as long as the shard has other clients
+     * and the most dedicated shards are not in use
+     *
+     * @param hotShare     the share of the messages of a shard that makes a client hot, in (0, 1]
+     * @param minMessages  the fewest messages a shard has to have received to be rebalanced, >= 0
+     * @param maxDedicated the most dedicated shards, >= 0
+     * @return the IDs of the clients moved
+     */
+    synchronized List<Integer> rebalance(double hotShare, long minMessages, int maxDedicated) {
+        List<Integer> moved = new ArrayList<>();
+        for (Shard shard : shards) {
+            int hottest = 0;
+            long hottestCount = -1;
+            long total = 0;
+            int active = 0;
+            for (Map.Entry<Integer, LongAdder> entry : shard.traffic.entrySet()) {
+                long count = entry.getValue().sumThenReset();
+                if (count == 0) {
+                    continue;
+                }
+                active++;
+                total += count;
+                if (count > hottestCount) {
+                    hottest = entry.getKey();
+                    hottestCount = count;
+                }
+            }
+            if (active > 1 && total >= minMessages && hottestCount >= hotShare * total
+                    && dedicated.size() < maxDedicated) {
+                dedicate(hottest);
+                moved.add(hottest);
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Moves a client to a new shard of its own. Does nothing if the client already has one.
+     * Messages submitted from now on go to the new shard, which holds them until the shard
+     * the client leaves has handed over the messages, reorder buffer and server of the client.
+     *
+     * @param clientId the ID of the client
+     */
+    synchronized void dedicate(int clientId) {
+        Route route = routeOf(clientId);
+        synchronized (route) {
+            Shard from = route.shard;
+            if (from.owner != null) {
+                return;
+            }
+            Shard to = new Shard("dispatcher-client-" + clientId, clientId);
+            dedicated.add(to);
+            route.shard = to;
+            System.out.println("Moving client " + clientId + " to a dedicated dispatcher");
+            from.control(shard -> shard.handOver(clientId, to));
+        }
+    }
+
+    /**
+     * @return the number of clients with a dedicated shard
+     */
+    int dedicatedCount() {
+        return dedicated.size();
+    }
+
+    /**
+     * Processes every message still waiting, without waiting for its deadline,
+     * and stops the dispatcher threads. The dedicated shards stop last, after taking over
+     * any client still being handed to them.
+     *
+     * @param timeoutMillis how long to wait for each dispatcher thread to finish, in milliseconds
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void close(long timeoutMillis) throws InterruptedException {
+        closed = true;
+        for (Shard shard : shards) {
+            shard.close();
+        }
+        for (Shard shard : shards) {
+            shard.thread.join(timeoutMillis);
+        }
+        List<Shard> stopping;
+        synchronized (this) {
+            stopping = new ArrayList<>(dedicated);
+        }
+        for (Shard shard : stopping) {
+            shard.close();
+        }
+        for (Shard shard : stopping) {
+            shard.thread.join(timeoutMillis);
+        }
+    }
+
+    private Route routeOf(int clientId) {
+        Route route = routes.get(clientId);
+        if (route == null) {
+            route = routes.computeIfAbsent(clientId,
+                    id -> new Route(shards[Math.floorMod(Integer.hashCode(id), shards.length)]));
+        }
+        return route;
+    }
+
+    /*
+     * The shard the messages of a client go to, changed only while holding the route
+     */
+    private static final class Route {
+        private Shard shard;
+
+        Route(Shard shard) {
+            this.shard = shard;
+        }
+    }
+
+    /**
+     * Computes when a message has to be processed: the max wait time of its client after it was received
+     *
+     * @param clientId the ID of the client the message belongs to
+     * @param received the System.nanoTime() at which the message was received
+     * @return the System.nanoTime() at which the message has to be processed
+     */
+    private long releaseDeadline(int clientId, long received) {
+        return received + (long) (maxWaitTime(clientId) * 1_000_000_000L);
+    }
+
+    /**
+     * Computes how far behind the latest event of a client an event can arrive and still be
+     * processed in timestamp order: the max wait time of the client, in timestamp units
+     *
+     * @param clientId the ID of the client
+     * @return the allowed lateness, >= 0
+     */
+    private double allowedLateness(int clientId) {
+        return maxWaitTime(clientId) * TIMESTAMP_UNITS_PER_SECOND;
+    }
+
+    private double maxWaitTime(int clientId) {
+        Server server = serverMap.get(clientId);
+        return server == null ? Server.DEFAULT_MAX_WAIT_TIME : server.getMaxWaitTime();
+    }
+
+    /*
+     * The state of a client a shard hands over to the dedicated shard the client moves to
+     */
+    private static final class Handover {
+        private final ReorderBuffer buffer;
+        private final List<ScheduledMessage> waiting;
+        private final Server server;
+
+        Handover(ReorderBuffer buffer, List<ScheduledMessage> waiting, Server server) {
+            this.buffer = buffer;
+            this.waiting = waiting;
+            this.server = server;
+        }
+    }
+
+    private interface ShardTask {
+        void run(Shard shard);
+    }
+
+    /*
+     * The messages of a subset of clients, their servers, and the thread that releases them.
+     * Only the dispatcher thread touches anything but the inbox, the tasks and the traffic counts,
+     * and it waits on the inbox until the next message arrives or the earliest deadline passes.
+     * Tasks from other threads are run on the dispatcher thread, woken up by an empty message.
+     */
+    private class Shard implements Runnable {
+        private final ScheduledMessage wakeUp = new ScheduledMessage(null, "", "", -1);
+        private final MpscRing<ScheduledMessage> inbox = new MpscRing<>(inboxCapacity, waitStrategy);
+        private final ConcurrentLinkedQueue<ShardTask> tasks = new ConcurrentLinkedQueue<>();
+        private final ConcurrentMap<Integer, LongAdder> traffic = new ConcurrentHashMap<>();
+        private final PriorityQueue<ScheduledMessage> deadlines = new PriorityQueue<>();
+        private final Map<Integer, ReorderBuffer> buffers = new HashMap<>();
+        private final Map<Integer, Server> servers = new HashMap<>();
+        private final List<ScheduledMessage> arrived = new ArrayList<>();
+        private final List<ScheduledMessage> parked = new ArrayList<>();
+        private final Integer owner;
+        private Integer awaiting;
+        private volatile boolean closing = false;
+        private final Thread thread;
+
+        /**
+         * Creates a shard and starts its dispatcher thread
+         *
+         * @param name  the name of the dispatcher thread, not null
+         * @param owner the ID of the client the shard is dedicated to, whose messages are held
+         *              until it is handed over, or null if the shard is shared from the start
+         */
+        Shard(String name, Integer owner) {
+            this.owner = owner;
+            this.awaiting = owner;
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void add(int clientId, ScheduledMessage scheduled) {
+            traffic.computeIfAbsent(clientId, id -> new LongAdder()).increment();
+            inbox.put(scheduled);
+        }
+
+        boolean offer(int clientId, ScheduledMessage scheduled) {
+            if (!inbox.offer(scheduled)) {
+                return false;
+            }
+            traffic.computeIfAbsent(clientId, id -> new LongAdder()).increment();
+            return true;
+        }
+
+        void control(ShardTask task) {
+            tasks.add(task);
+            inbox.put(wakeUp);
+        }
+
+        void close() {
+            closing = true;
+            inbox.put(wakeUp);
+        }
+
+        @Override
+        public void run() {
+            while (!closing) {
+                releaseDue(false);
+                long wait = deadlines.isEmpty() ? Long.MAX_VALUE : deadlines.peek().getDelay(TimeUnit.NANOSECONDS);
+                ScheduledMessage next = inbox.poll(wait, TimeUnit.NANOSECONDS);
+                if (next != null) {
+                    accept(next);
+                    acceptArrived();
+                }
+            }
+            acceptArrived();
+            runTasks();
+            if (awaiting != null) {
+                unpark();
+            }
+            releaseDue(true);
+        }
+
+        private void acceptArrived() {
+            inbox.drainTo(arrived);
+            for (ScheduledMessage scheduled : arrived) {
+                accept(scheduled);
+            }
+            arrived.clear();
+        }
+
+        private void runTasks() {
+            ShardTask task;
+            while ((task = tasks.poll()) != null) {
+                task.run(this);
+            }
+        }
+
+        /**
+         * Takes in a received message. A request waits for its deadline; an event goes into the
+         * reorder buffer of its client, and waits there for the watermark or its deadline.
+         * Messages of the client this shard awaits are held until it is handed over.
+         */
+        private void accept(ScheduledMessage scheduled) {
+            if (scheduled == wakeUp) {
+                runTasks();
+                return;
+            }
+            Message m = scheduled.getMessage();
+            int clientId = m.getClientID();
+            if (awaiting != null && awaiting == clientId) {
+                parked.add(scheduled);
+                return;
+            }
+            if (m.hasRequest()) {
+                deadlines.add(scheduled);
+                return;
+            }
+            Event e = m.getEvent();
+            ReorderBuffer buffer = buffers.computeIfAbsent(clientId, id -> new ReorderBuffer());
+            if (buffer.isLate(e)) {
+                late(scheduled);
+                return;
+            }
+            buffer.add(scheduled, allowedLateness(clientId), this::dispatch);
+            deadlines.add(scheduled);
+        }
+
+        /**
+         * Hands over the state of a client to the shard it moves to. Runs after every message
+         * routed to this shard before the move was taken in.
+         */
+        private void handOver(int clientId, Shard to) {
+            List<ScheduledMessage> waiting = new ArrayList<>();
+            deadlines.removeIf(scheduled -> {
+                if (scheduled.getMessage().getClientID() == clientId) {
+                    waiting.add(scheduled);
+                    return true;
+                }
+                return false;
+            });
+            Handover handover = new Handover(buffers.remove(clientId), waiting, servers.remove(clientId));
+            traffic.remove(clientId);
+            to.control(shard -> shard.takeOver(clientId, handover));
+        }
+
+        /**
+         * Takes over the state of the client this shard awaits, then takes in its held messages
+         */
+        private void takeOver(int clientId, Handover handover) {
+            if (handover.buffer != null) {
+                buffers.put(clientId, handover.buffer);
+            }
+            if (handover.server != null) {
+                servers.put(clientId, handover.server);
+            }
+            deadlines.addAll(handover.waiting);
+            unpark();
+        }
+
+        private void unpark() {
+            awaiting = null;
+            for (ScheduledMessage scheduled : parked) {
+                accept(scheduled);
+            }
+            parked.clear();
+        }
+
+        private void late(ScheduledMessage scheduled) {
+            Event e = scheduled.getMessage().getEvent();
+            switch (latePolicy) {
+                case DROP -> {
+                    System.out.println("Dropping late event: " + e);
+                    budget.release(e.getClientId());
+                }
+                case SIDE_OUTPUT -> {
+                    try {
+                        processor.processLateEvent(e, scheduled.getHost());
+                    } catch (RuntimeException ex) {
+                        System.err.println("Error processing message: " + ex.getMessage());
+                    } finally {
+                        budget.release(e.getClientId());
+                    }
+                }
+                default -> dispatch(scheduled);
+            }
+        }
+
+        /**
+         * Releases every message whose deadline has passed, or every message if all is true,
+         * in deadline order. An event that reaches its deadline releases every event of its
+         * client up to its timestamp, in timestamp order.
+         */
+        private void releaseDue(boolean all) {
+            while (!deadlines.isEmpty() && (all || deadlines.peek().getDelay(TimeUnit.NANOSECONDS) <= 0)) {
+                ScheduledMessage scheduled = deadlines.poll();
+                Message m = scheduled.getMessage();
+                if (m.hasRequest()) {
+                    dispatch(scheduled);
+                } else {
+                    buffers.get(m.getClientID()).releaseThrough(m.getEvent().getTimeStamp(), this::dispatch);
+                }
+            }
+        }
+
+        private void dispatch(ScheduledMessage scheduled) {
+            Message m = scheduled.getMessage();
+            try {
+                if (m.hasRequest()) {
+                    Request r = m.getRequest();
+                    processor.processRequest(r, scheduled.getInput(), scheduled.getHost());
+                } else {
+                    Event e = m.getEvent();
+                    Server server = servers.get(e.getClientId());
+                    if (server == null) {
+                        server = processor.serverFor(e.getClientId(), scheduled.getHost());
+                        servers.put(e.getClientId(), server);
+                    }
+                    processor.processEvent(server, e);
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Error processing message: " + e.getMessage());
+            } finally {
+                budget.release(m.getClientID());
+            }
+        }
+    }
+}
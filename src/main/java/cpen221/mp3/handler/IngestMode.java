@@ -0,0 +1,13 @@
+package cpen221.mp3.handler;
+
+/*
+ * The strategy a MessageHandler uses to read messages off accepted connections
+ */
+public enum IngestMode {
+    // one platform thread per accepted socket, reading with blocking I/O
+    BLOCKING,
+    // a small fixed set of reactor threads multiplexing non-blocking channels
+    NIO,
+    // one virtual thread per accepted socket, with a bounded number of open connections
+    VIRTUAL_THREAD
+}
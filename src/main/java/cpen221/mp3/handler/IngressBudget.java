@@ -0,0 +1,122 @@
+package cpen221.mp3.handler;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/*
+ * Bounds how many received messages wait to be processed, for every client and in total.
+ * A message that has been read is always admitted, since dropping it would lose it; instead,
+ * a reader checks the budget after every message and stops reading from a connection while
+ * the client it last read from, or the handler as a whole, is over budget. The messages held
+ * are then bounded by the budgets plus what each paused connection had already read.
+ */
+class IngressBudget {
+    static final int DEFAULT_PER_CLIENT = 1 << 16;
+    static final long DEFAULT_GLOBAL = 1 << 20;
+    private static final long RECHECK_MILLIS = 1;
+
+    private final int perClient;
+    private final long global;
+    private final ConcurrentMap<Integer, AtomicInteger> waiting = new ConcurrentHashMap<>();
+    private final LongAdder total = new LongAdder();
+    // Abstraction function:
+    //    Represents waiting.get(c) messages of client c, and total messages in all, that were
+    //    admitted and not processed yet, where a client is over budget once it has perClient
+    //    of them or the handler has global of them
+
+    // Rep Invariant:
+    //    perClient > 0, global > 0, every value of waiting >= 0,
+    //    total is the sum of the values of waiting
+
+    /**
+     * Creates a new budget
+     *
+     * @param perClient the most messages of one client that can wait before its connections pause, > 0
+     * @param global    the most messages that can wait before every connection pauses, > 0
+     */
+    IngressBudget(int perClient, long global) {
+        if (perClient <= 0 || global <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.perClient = perClient;
+        this.global = global;
+    }
+
+    /**
+     * Counts a message that was received and waits to be processed
+     *
+     * @param clientId the ID of the client the message belongs to
+     */
+    void admit(int clientId) {
+        counter(clientId).incrementAndGet();
+        total.increment();
+    }
+
+    /**
+     * Counts a message that was processed or dropped, after it was admitted
+     *
+     * @param clientId the ID of the client the message belongs to
+     */
+    void release(int clientId) {
+        counter(clientId).decrementAndGet();
+        total.decrement();
+    }
+
+    /**
+     * @param clientId the ID of the client
+     * @return true if the client or the handler as a whole has used up its budget, false otherwise
+     */
+    boolean isExceeded(int clientId) {
+        AtomicInteger counter = waiting.get(clientId);
+        return (counter != null && counter.get() >= perClient) || total.sum() >= global;
+    }
+
+    /**
+     * Waits until a client and the handler are back within budget
+     *
+     * @param clientId the ID of the client
+     * @param stop     checked while waiting; waiting ends early once it is true, not null
+     * @return true if the budget has room, false if waiting ended early or the thread was interrupted
+     */
+    boolean awaitRoom(int clientId, BooleanSupplier stop) {
+        while (isExceeded(clientId)) {
+            if (stop.getAsBoolean()) {
+                return false;
+            }
+            try {
+                Thread.sleep(RECHECK_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param clientId the ID of the client
+     * @return the number of messages of the client waiting to be processed
+     */
+    int waiting(int clientId) {
+        AtomicInteger counter = waiting.get(clientId);
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * @return the number of messages of every client waiting to be processed
+     */
+    long total() {
+        return total.sum();
+    }
+
+    private AtomicInteger counter(int clientId) {
+        AtomicInteger counter = waiting.get(clientId);
+        if (counter == null) {
+            counter = waiting.computeIfAbsent(clientId, id -> new AtomicInteger());
+        }
+        return counter;
+    }
+}
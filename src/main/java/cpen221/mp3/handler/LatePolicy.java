@@ -0,0 +1,14 @@
+package cpen221.mp3.handler;
+
+/*
+ * What a MessageHandler does with an event that arrives after events with later timestamps
+ * of the same client were already handed to its server
+ */
+public enum LatePolicy {
+    // discard the event
+    DROP,
+    // hand the event to the server as a late event, kept apart from its in-order events
+    SIDE_OUTPUT,
+    // process the event like any other, out of timestamp order
+    APPLY
+}
@@ -1,81 +1,501 @@
 package cpen221.mp3.handler;
 
-import cpen221.mp3.server.Message;
+import cpen221.mp3.server.ActuatorDispatcher;
+import cpen221.mp3.server.EventStorage;
+import cpen221.mp3.server.RetentionPolicy;
 import cpen221.mp3.server.Server;
 
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.Comparator;
-import java.util.concurrent.BlockingQueue;
+import java.nio.file.Path;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 public class MessageHandler {
-    private ServerSocket serverSocket;
+    // stack size of the platform threads used when virtual threads are not available
+    private static final long FALLBACK_STACK_SIZE = 256 * 1024;
+    // how often retention policies are applied, and the most events evicted from a server at once
+    private static final long RETENTION_PERIOD_MILLIS = 1000;
+    private static final int RETENTION_BATCH = 4096;
+    // how often shards are rebalanced, and the traffic that makes a client hot enough to get a shard of its own
+    private static final long REBALANCE_PERIOD_MILLIS = 1000;
+    private static final double HOT_CLIENT_SHARE = 0.5;
+    private static final long HOT_SHARD_MESSAGES = 10000;
+
+    private volatile ServerSocket serverSocket;
+    private volatile ServerSocketChannel acceptor;
+    private volatile ExecutorService handlerExecutor;
+    private volatile boolean running;
     private final int port;
-    private final BlockingQueue<Message> queue;
+    private volatile DeadlineScheduler scheduler;
+    private volatile ScheduledExecutorService maintenanceExecutor;
     private final ConcurrentHashMap<Integer, Server> serverMap;
+    private final IngestMode mode;
+    private final MessageProcessor processor;
+    private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+    private int reactorCount = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private int shardCount = Runtime.getRuntime().availableProcessors();
+    private int dedicatedShardLimit = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+    private int acceptBacklog = 50;
+    private int connectionLimit = 10000;
+    private LatePolicy latePolicy = LatePolicy.APPLY;
+    private int inboxCapacity = DeadlineScheduler.DEFAULT_INBOX_CAPACITY;
+    private WaitStrategy waitStrategy = WaitStrategy.PARK;
+    private int clientIngressBudget = IngressBudget.DEFAULT_PER_CLIENT;
+    private long globalIngressBudget = IngressBudget.DEFAULT_GLOBAL;
     // Abstraction function:
-    //    Represents a message handler, where queue contains message to be sent,
-    //    queue.poll corresponds with the message that was received the latest,
+    //    Represents a message handler, where scheduler holds every received message
+    //    until it can be processed, at most the max wait time of its client, spread over shardCount shards,
     //    serverMap contains the server instance, and a client ID to represent the current servers,
-    //    port is the port of connection, and serverSocket listens for connections with port
+    //    port is the port of connection, and serverSocket listens for connections with port,
+    //    mode is how accepted connections are read, and reactorCount is the number of
+    //    reactor threads used when mode == NIO. When mode == VIRTUAL_THREAD, at most
+    //    connectionLimit connections in openSockets are read at once by handlerExecutor,
+    //    and at most acceptBacklog further connections wait to be accepted.
+    //    maintenanceExecutor applies the retention policies of the servers and moves hot clients
+    //    to at most dedicatedShardLimit shards of their own in the background,
+    //    latePolicy is what scheduler does with events that arrive too late to be processed in timestamp order,
+    //    and every shard takes in messages through a ring of inboxCapacity slots waited on as waitStrategy says.
+    //    A connection stops being read while the messages of its client waiting to be processed
+    //    reach clientIngressBudget, or the messages of every client reach globalIngressBudget
 
     // Rep Invariant:
-    //    0 <= port <= 65535, serverSocket, queue, serverMap all != null,
-    //    if unique client id, unique server in serverMap
+    //    0 <= port <= 65535, serverMap, mode, processor all != null,
+    //    if unique client id, unique server in serverMap, reactorCount > 0, shardCount > 0,
+    //    acceptBacklog > 0, connectionLimit > 0, dedicatedShardLimit >= 0, inboxCapacity > 0, openSockets.size() <= connectionLimit, latePolicy, waitStrategy != null,
+    //    clientIngressBudget > 0, globalIngressBudget > 0
 
     /**
-     * Creates a new instance of MessageHandler
+     * Creates a new instance of MessageHandler that reads every connection on its own thread
      *
      * @param port the port of connection
      */
     public MessageHandler(int port) {
+        this(port, IngestMode.BLOCKING);
+    }
+
+    /**
+     * Creates a new instance of MessageHandler
+     *
+     * @param port the port of connection
+     * @param mode how accepted connections are read, not null
+     */
+    public MessageHandler(int port, IngestMode mode) {
         this.port = port;
+        this.mode = mode;
         serverMap = new ConcurrentHashMap<>();
-        queue = new PriorityBlockingQueue<>(1, new Comparator<Message>() {
-            @Override
-            public int compare(Message o1, Message o2) {
-                double o1time, o2time;
-                double current = System.currentTimeMillis();
-                if (serverMap.containsKey(o1.getClientID())) {
-                    o1time = serverMap.get(o1.getClientID()).getMaxWaitTime() * 1000 + o1.getTimeStamp();
-                } else {
-                    o1time = 2000 + o1.getTimeStamp() - current;
-                }
-                if (serverMap.containsKey(o2.getClientID())) {
-                    o2time = serverMap.get(o2.getClientID()).getMaxWaitTime() * 1000 + o2.getTimeStamp();
-                } else {
-                    o2time = 2000 + o2.getTimeStamp() - current;
-                }
-                double diff = o1time - o2time;
-                if (diff > 0) {
-                    return 1;
-                }
-                if (diff < 0) {
-                    return -1;
+        processor = new MessageProcessor(serverMap, port);
+    }
+
+    /**
+     * Sets the number of reactor threads used in NIO mode.
+     * Has no effect once the handler has started.
+     *
+     * @param reactorCount the number of reactor threads, > 0
+     */
+    public void setReactorCount(int reactorCount) {
+        if (reactorCount <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.reactorCount = reactorCount;
+    }
+
+    /**
+     * Sets the number of shards received messages are spread over. The messages of a client
+     * always go to the same shard, and each shard is released by its own thread.
+     * Has no effect once the handler has started.
+     *
+     * @param shardCount the number of shards, > 0
+     */
+    public void setShardCount(int shardCount) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.shardCount = shardCount;
+    }
+
+    /**
+     * Sets the number of messages that can wait to be taken in by each shard. Once the inbox of
+     * a shard is full, the connections sending to it wait for room instead of reading further.
+     * Has no effect once the handler has started.
+     *
+     * @param inboxCapacity the capacity of the inbox of a shard, rounded up to a power of 2, > 0
+     */
+    public void setInboxCapacity(int inboxCapacity) {
+        if (inboxCapacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.inboxCapacity = inboxCapacity;
+    }
+
+    /**
+     * Sets how many received messages can wait to be processed before the handler stops
+     * reading from connections. Once a client has clientBudget messages waiting, its connections
+     * are not read until some have been processed; once globalBudget messages are waiting,
+     * no connection is. Persistent entity connections are told to slow down while they are
+     * not read, and sensors and actuators answer by batching their events further.
+     * Has no effect once the handler has started.
+     *
+     * @param clientBudget the most messages of one client waiting to be processed, > 0
+     * @param globalBudget the most messages of every client waiting to be processed, > 0
+     */
+    public void setIngressBudget(int clientBudget, long globalBudget) {
+        if (clientBudget <= 0 || globalBudget <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.clientIngressBudget = clientBudget;
+        this.globalIngressBudget = globalBudget;
+    }
+
+    /**
+     * Sets how dispatcher threads wait for messages, and connections for room in a full inbox.
+     * PARK, the default, uses no CPU while idle; BUSY_SPIN and YIELD trade CPU for latency.
+     * Has no effect once the handler has started.
+     *
+     * @param waitStrategy the wait strategy, not null
+     */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        if (waitStrategy == null) {
+            throw new IllegalArgumentException();
+        }
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * Sets the most clients moved to a shard of their own. Once a second, a client that sent
+     * at least half of the messages of its shard, shared with other clients, is moved to a new
+     * shard, as long as the shard was busy. 0 keeps every client on the shard it hashes to.
+     * Has no effect once the handler has started.
+     *
+     * @param dedicatedShardLimit the most dedicated shards, >= 0
+     */
+    public void setDedicatedShardLimit(int dedicatedShardLimit) {
+        if (dedicatedShardLimit < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.dedicatedShardLimit = dedicatedShardLimit;
+    }
+
+    /**
+     * Sets the number of connections the operating system queues for this handler
+     * while they wait to be accepted. Has no effect once the handler has started.
+     *
+     * @param acceptBacklog the maximum length of the accept queue, > 0
+     */
+    public void setAcceptBacklog(int acceptBacklog) {
+        if (acceptBacklog <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.acceptBacklog = acceptBacklog;
+    }
+
+    /**
+     * Sets the maximum number of connections read at the same time in VIRTUAL_THREAD mode.
+     * Once the limit is reached no further connections are accepted until one closes.
+     * Has no effect once the handler has started.
+     *
+     * @param connectionLimit the maximum number of concurrent connections, > 0
+     */
+    public void setConnectionLimit(int connectionLimit) {
+        if (connectionLimit <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.connectionLimit = connectionLimit;
+    }
+
+    /**
+     * Sets what happens to an event that arrives after events of its client with later timestamps
+     * were already processed, that is, later than the max wait time of the client behind them.
+     * Late events are processed like any other by default.
+     * Has no effect once the handler has started.
+     *
+     * @param latePolicy what to do with late events, not null
+     */
+    public void setLatePolicy(LatePolicy latePolicy) {
+        if (latePolicy == null) {
+            throw new IllegalArgumentException();
+        }
+        this.latePolicy = latePolicy;
+    }
+
+    /**
+     * Sets how the servers of clients seen from now on keep their events.
+     * Servers that already exist keep their storage.
+     *
+     * @param storage the kind of event storage, not null
+     */
+    public void setEventStorage(EventStorage storage) {
+        if (storage == null) {
+            throw new IllegalArgumentException();
+        }
+        processor.setEventStorage(storage);
+    }
+
+    /**
+     * Makes the servers of clients seen from now on record every event, notify-if and
+     * log read they process in an event log under a directory, so that they can be recovered.
+     * When the handler starts, the server of every client with a log in the directory
+     * is recreated from its log before any connection is accepted.
+     * Has no effect on recovery once the handler has started.
+     *
+     * @param logDirectory the directory of the event logs, not null
+     * @param syncEvery    the number of records appended between forcing a log to disk, > 0;
+     *                     1 makes every record durable before it is processed
+     */
+    public void setEventLog(Path logDirectory, int syncEvery) {
+        if (logDirectory == null || syncEvery <= 0) {
+            throw new IllegalArgumentException();
+        }
+        processor.setEventLog(logDirectory, syncEvery);
+    }
+
+    /**
+     * Sets how long every server keeps raw events, including servers that already exist.
+     * Older events are rolled up in the background, once a second.
+     *
+     * @param policy the retention policy, not null
+     */
+    public void setRetention(RetentionPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException();
+        }
+        processor.setRetention(policy);
+    }
+
+    /**
+     * Sets how long the server of one client keeps the raw events of one entity type,
+     * overriding the policy set for every server
+     *
+     * @param clientId   the ID of the client
+     * @param entityType the entity type, not null
+     * @param policy     the retention policy, not null
+     */
+    public void setRetention(int clientId, String entityType, RetentionPolicy policy) {
+        if (entityType == null || policy == null) {
+            throw new IllegalArgumentException();
+        }
+        processor.setRetention(clientId, entityType, policy);
+    }
+
+    /**
+     * Starts accepting connections on the port of this handler, blocking the calling thread
+     * until the handler is shut down
+     */
+    public void start() {
+        running = true;
+        try {
+            processor.recover();
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+        scheduler = new DeadlineScheduler(shardCount, serverMap, processor, latePolicy, inboxCapacity, waitStrategy,
+                new IngressBudget(clientIngressBudget, globalIngressBudget));
+        maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        maintenanceExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                processor.applyRetention(RETENTION_BATCH);
+            } catch (RuntimeException e) {
+                System.err.println("Error: " + e.getMessage());
+            }
+        }, RETENTION_PERIOD_MILLIS, RETENTION_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        DeadlineScheduler started = scheduler;
+        int limit = dedicatedShardLimit;
+        if (limit > 0) {
+            maintenanceExecutor.scheduleWithFixedDelay(
+                    () -> started.rebalance(HOT_CLIENT_SHARE, HOT_SHARD_MESSAGES, limit),
+                    REBALANCE_PERIOD_MILLIS, REBALANCE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        switch (mode) {
+            case NIO -> startNio();
+            case VIRTUAL_THREAD -> startVirtualThreads();
+            default -> startBlocking();
+        }
+    }
+
+    /**
+     * Stops accepting connections and waits for the connections that are being read to finish.
+     * Connections still open after drainMillis are closed. Messages that were received but are
+     * still waiting for their max wait time are then processed immediately.
+     *
+     * @param drainMillis how long to wait for in-flight connections, in milliseconds
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void shutdown(long drainMillis) throws InterruptedException {
+        running = false;
+        closeQuietly(serverSocket);
+        closeQuietly(acceptor);
+
+        ExecutorService executor = handlerExecutor;
+        if (executor != null) {
+            executor.shutdown();
+            if (!executor.awaitTermination(drainMillis, TimeUnit.MILLISECONDS)) {
+                for (Socket s : openSockets) {
+                    closeQuietly(s);
                 }
-                return 0;
+                executor.awaitTermination(drainMillis, TimeUnit.MILLISECONDS);
             }
-        });
+        }
+        if (scheduler != null) {
+            scheduler.close(drainMillis);
+        }
+        if (maintenanceExecutor != null) {
+            maintenanceExecutor.shutdownNow();
+        }
+        processor.getActuatorDispatcher().close();
+        for (Server server : serverMap.values()) {
+            server.closeEventLog();
+        }
     }
 
-    public void start() {
+    private void startBlocking() {
         try {
-            serverSocket = new ServerSocket(port);
+            serverSocket = new ServerSocket(port, acceptBacklog);
             System.out.println("Server started on port " + port);
-            while (true) {
+            while (running) {
                 System.out.println("Waiting for Request or Event");
                 Socket incomingSocket = serverSocket.accept();
                 System.out.println("Client/Entity connected: " + incomingSocket.getInetAddress().getHostAddress() + " " + incomingSocket.getPort());
                 // create a new thread to handle the client request or entity event
-                Thread handlerThread = new Thread(new MessageHandlerThread(incomingSocket, serverMap, queue));
+                Thread handlerThread = new Thread(new MessageHandlerThread(incomingSocket, scheduler));
 //                System.out.println("Started Thread");
                 handlerThread.start();
             }
         } catch (Exception e) {
-            System.err.println("Error: " + e.getMessage());
+            if (running) {
+                System.err.println("Error: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Accepts connections on the calling thread and reads each one on its own virtual thread.
+     * At most connectionLimit connections are read at once; further connections wait in the
+     * accept backlog.
+     */
+    private void startVirtualThreads() {
+        Semaphore permits = new Semaphore(connectionLimit);
+        handlerExecutor = newHandlerExecutor();
+        try {
+            serverSocket = new ServerSocket(port, acceptBacklog);
+            System.out.println("Server started on port " + port);
+            while (running) {
+                permits.acquire();
+                Socket incomingSocket;
+                try {
+                    incomingSocket = serverSocket.accept();
+                } catch (IOException e) {
+                    permits.release();
+                    throw e;
+                }
+                openSockets.add(incomingSocket);
+                MessageHandlerThread handler = new MessageHandlerThread(incomingSocket, scheduler);
+                handlerExecutor.execute(() -> {
+                    try {
+                        handler.run();
+                    } catch (RuntimeException e) {
+                        if (running) {
+                            System.err.println("Error: " + e.getMessage());
+                        }
+                    } finally {
+                        openSockets.remove(incomingSocket);
+                        closeQuietly(incomingSocket);
+                        permits.release();
+                    }
+                });
+            }
+        } catch (IOException | InterruptedException e) {
+            if (running) {
+                System.err.println("Error: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Creates the executor that runs one handler per connection: virtual threads when the
+     * runtime supports them, and platform threads with a small stack otherwise
+     *
+     * @return an executor that starts a new thread for every task
+     */
+    private static ExecutorService newHandlerExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(null, r, "message-handler", FALLBACK_STACK_SIZE);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        if (closeable == null) {
+            return;
         }
+        try {
+            closeable.close();
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * Accepts connections on the calling thread and spreads them over a fixed set of
+     * reactor threads, each of which reads its connections without blocking.
+     */
+    private void startNio() {
+        ReactorThread[] reactors = new ReactorThread[reactorCount];
+        try (ServerSocketChannel acceptor = ServerSocketChannel.open()) {
+            this.acceptor = acceptor;
+            acceptor.bind(new InetSocketAddress(port), acceptBacklog);
+            for (int i = 0; i < reactors.length; i++) {
+                reactors[i] = new ReactorThread(scheduler);
+                Thread reactorThread = new Thread(reactors[i], "reactor-" + i);
+                reactorThread.setDaemon(true);
+                reactorThread.start();
+            }
+            System.out.println("Server started on port " + port + " with " + reactorCount + " reactors");
+            int next = 0;
+            while (running) {
+                SocketChannel channel = acceptor.accept();
+                reactors[next].register(channel);
+                next = (next + 1) % reactors.length;
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("Error: " + e.getMessage());
+            }
+        } finally {
+            for (ReactorThread reactor : reactors) {
+                if (reactor != null) {
+                    reactor.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the dispatcher that sends the actuator commands of every server of this handler,
+     * which counts the commands sent and records how long each took to send
+     *
+     * @return the actuator dispatcher
+     */
+    public ActuatorDispatcher getActuatorDispatcher() {
+        return processor.getActuatorDispatcher();
     }
 
     // testing only
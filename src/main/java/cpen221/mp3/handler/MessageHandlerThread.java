@@ -1,154 +1,141 @@
 package cpen221.mp3.handler;
 
-import cpen221.mp3.client.Client;
-import cpen221.mp3.client.Request;
-import cpen221.mp3.entity.Actuator;
 import cpen221.mp3.event.Event;
-import cpen221.mp3.server.Deserializer;
-import cpen221.mp3.server.Message;
-import cpen221.mp3.server.Server;
-import cpen221.mp3.server.SeverCommandToActuator;
+import cpen221.mp3.server.BinaryCodec;
+import cpen221.mp3.server.FlowControl;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.Socket;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentMap;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 class MessageHandlerThread implements Runnable {
     private final Socket incomingSocket;
-    private final ConcurrentMap<Integer, Server> serverMap;
-    private final BlockingQueue<Message> queue;
+    private final DeadlineScheduler scheduler;
+    private int messagesRead = 0;
     // Abstraction function:
     //    Represents a thread of MessageHandler with incomingSocket being the
-    //    server-client connection, serverMap being the map of servers, and all
-    //    serverMap.key == a client ID, and queue contains message to be sent,
-    //    queue.poll corresponds with the message that was received the latest
+    //    server-client connection, and every message read from incomingSocket
+    //    being handed to scheduler to wait until it can be processed.
+    //    Reading pauses after a message while its client or scheduler is over the ingress budget,
+    //    and messagesRead is the number of messages read from incomingSocket so far
 
     // Rep Invariant:
-    //    incomingSocket, serverMap, queue all != null, unique serverMap.key == unique server
+    //    incomingSocket, scheduler all != null, messagesRead >= 0
 
     /**
-     * @param incomingSocket
-     * @param serverMap
-     * @param queue
+     * @param incomingSocket the connection to read, not null
+     * @param scheduler      the scheduler that received messages are handed to, not null
      */
-    public MessageHandlerThread(Socket incomingSocket, ConcurrentMap<Integer, Server> serverMap, BlockingQueue queue) {
+    public MessageHandlerThread(Socket incomingSocket, DeadlineScheduler scheduler) {
         this.incomingSocket = incomingSocket;
-        this.serverMap = serverMap;
-        this.queue = queue;
+        this.scheduler = scheduler;
     }
 
     @Override
     public void run() {
         try {
-            BufferedReader in = new BufferedReader(new InputStreamReader(incomingSocket.getInputStream()));
-            String input;
-            while ((input = in.readLine()) != null) {
-                if (input.contains("Request{")) {
-                    System.out.println("Processing: " + input);
-                    Request r = Deserializer.deserializeRequest(input);
-                    String data = r.getRequestData();
-                    queue.add(new Message(r));
-                    waitTillReady(new Message(r));
-                    queue.poll();
-                    if (input.contains(SeverCommandToActuator.SET_STATE.toString()) || input.contains(SeverCommandToActuator.TOGGLE_STATE.toString())) {
-                        Actuator a = Deserializer.deserializeActuator(data.substring(0, data.indexOf("}")));
-                        System.out.println("Started Socket on IP: " + a.getIP() + " and Port: " + a.getPort());
-
-                        try (Socket s = new Socket(a.getIP(), a.getPort())) {
-                            PrintWriter out = new PrintWriter(s.getOutputStream(), true);
-                            System.out.println(input);
-                            System.out.println("Sending Request to Actuator...");
-                            out.println(input);
-                        } catch (IOException e) {
-                            System.out.println("Unable to establish connection on IP: " + a.getIP() + ", Port: " + a.getPort());
-                        }
-                    } else {
-                        int clientId = Integer.parseInt(data.substring(0, data.indexOf(",")));
-                        System.out.println("Client ID: " + clientId);
-
-                        if (serverMap.containsKey(clientId)) {
-                            System.out.println("Existing Server on ID: " + clientId);
-                            serverMap.get(clientId).processIncomingRequest(r);
-                        } else {
-                            Client client = new Client(
-                                    clientId, "temp@temp.ca",
-                                    incomingSocket.getInetAddress().toString(),
-                                    incomingSocket.getLocalPort()
-                            );
-
-                            System.out.println("Creating new Server on ID: " + clientId);
-
-                            Server server = new Server(client);
-
-                            server.processIncomingRequest(r);
-                            serverMap.put(clientId, server);
-                        }
-                    }
-                } else {
-                    Event e = Deserializer.deserializeEvent(input);
-                    queue.add(new Message(e));
-                    int clientId = e.getClientId();
-                    waitTillReady(new Message(e));
-                    queue.poll();
-                    System.out.println("Processing: " + input);
-
-                    if (serverMap.containsKey(clientId)) {
-//                        System.out.println("Existing Server on ID: " + clientId);
-                        serverMap.get(clientId).processIncomingEvent(e);
-                    } else {
-                        Client client = new Client(
-                                clientId, "temp@temp.ca",
-                                incomingSocket.getInetAddress().toString(),
-                                incomingSocket.getLocalPort()
-                        );
-
-//                        System.out.println("Creating new Server on ID: " + clientId);
-                        Server server = new Server(client);
-                        server.processIncomingEvent(e);
-                        serverMap.put(clientId, server);
-                    }
-                }
+            BufferedInputStream in = new BufferedInputStream(incomingSocket.getInputStream());
+            String host = incomingSocket.getInetAddress().toString();
+            in.mark(1);
+            int first = in.read();
+            in.reset();
+            if (first != -1 && (byte) first == BinaryCodec.MAGIC) {
+                readBinary(in, host);
+            } else if (first != -1) {
+                readText(in, host);
             }
             incomingSocket.close();
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private void waitTillReady(Message message) {
-        boolean ready = false;
-        while (!ready) {
-            if (!queue.isEmpty()) {
-                Message m = queue.peek();
-                String s1, s2;
-                boolean same = false;
-                if (m.hasEvent() && message.hasEvent()) {
-                    s1 = m.getEvent().toString();
-                    s2 = message.getEvent().toString();
-                    same = s1.equals(s2);
-                } else if (m.hasRequest() && message.hasRequest()) {
-                    s1 = m.getRequest().toString();
-                    s2 = message.getRequest().toString();
-                    same = s1.equals(s2);
-                }
-                if (same) {
-                    double time;
-                    if (serverMap.containsKey(m.getClientID())) {
-                        time = serverMap.get(m.getClientID()).getMaxWaitTime() * 1000 + m.getTimeStamp() - System.currentTimeMillis();
-                    } else {
-                        time = 2000 + m.getTimeStamp() - System.currentTimeMillis();
-                    }
-                    if (time <= 100) {
-                        ready = true;
-                    }
-                }
+    /**
+     * Reads newline-delimited text messages until the connection closes
+     */
+    private void readText(InputStream stream, String host) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+        String input;
+        while ((input = in.readLine()) != null) {
+            throttle(scheduler.submit(input, host));
+        }
+    }
+
+    /**
+     * Answers the binary hello of the connection, then reads binary frames until it closes,
+     * or text messages if no common version was found
+     */
+    private void readBinary(InputStream stream, String host) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        byte[] hello = new byte[BinaryCodec.HELLO_LENGTH];
+        in.readFully(hello);
+        byte version = BinaryCodec.negotiate(hello[1]);
+        incomingSocket.getOutputStream().write(new byte[]{BinaryCodec.MAGIC, version});
+        incomingSocket.getOutputStream().flush();
+        if (version == BinaryCodec.TEXT_FALLBACK) {
+            readText(stream, host);
+            return;
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + BinaryCodec.MAX_FRAME_LENGTH);
+        while (true) {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                return;
+            }
+            if (length <= 0 || length > BinaryCodec.MAX_FRAME_LENGTH) {
+                System.err.println("Invalid frame length from " + host + ": " + length);
+                return;
+            }
+            frame.clear();
+            frame.putInt(length);
+            in.readFully(frame.array(), Integer.BYTES, length);
+            frame.position(0).limit(Integer.BYTES + length);
+            Event event = BinaryCodec.decodeFrame(frame);
+            if (event != null) {
+                throttle(scheduler.submit(event, host));
             }
         }
+    }
 
+    /**
+     * Stops reading while the client of the last message read, or the scheduler, is over
+     * its ingress budget. A connection that has sent more than one message is persistent,
+     * and is told to slow down while reading is paused and to resume afterwards; a connection
+     * per message is closed by its entity once the message is written, so it is never signalled.
+     *
+     * @param clientId the ID of the client of the last message read
+     */
+    private void throttle(int clientId) {
+        messagesRead++;
+        if (!scheduler.isOverBudget(clientId)) {
+            return;
+        }
+        boolean persistent = messagesRead > 1;
+        if (persistent) {
+            signal(FlowControl.SLOW_DOWN);
+        }
+        scheduler.awaitBudget(clientId);
+        if (persistent) {
+            signal(FlowControl.RESUME);
+        }
     }
 
-}
\ No newline at end of file
+    private void signal(byte signal) {
+        try {
+            incomingSocket.getOutputStream().write(signal);
+            incomingSocket.getOutputStream().flush();
+        } catch (IOException e) {
+            // the entity has gone away; reading the connection finds out
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package cpen221.mp3.handler;
+
+import cpen221.mp3.client.Client;
+import cpen221.mp3.client.Request;
+import cpen221.mp3.entity.Actuator;
+import cpen221.mp3.server.ActuatorDispatcher;
+import cpen221.mp3.event.Event;
+import cpen221.mp3.server.Deserializer;
+import cpen221.mp3.server.EventLog;
+import cpen221.mp3.server.EventStorage;
+import cpen221.mp3.server.RetentionPolicy;
+import cpen221.mp3.server.Server;
+import cpen221.mp3.server.SeverCommandToActuator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+
+/*
+ * Hands deserialized events and requests to the Server of the client they belong to,
+ * independently of how the message was read off the network
+ */
+class MessageProcessor {
+    private static final String CLIENT_LOG_PREFIX = "client-";
+    static final String QUARANTINE_PREFIX = "unrecoverable-";
+
+    private final ConcurrentMap<Integer, Server> serverMap;
+    private final int port;
+    private final ActuatorDispatcher actuatorDispatcher = new ActuatorDispatcher();
+    private volatile EventStorage storage = EventStorage.HEAP;
+    private volatile Path logDirectory = null;
+    private volatile int syncEvery = 1;
+    private volatile RetentionPolicy retention = RetentionPolicy.KEEP_ALL;
+    private final ConcurrentMap<Integer, Map<String, RetentionPolicy>> typeRetention = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, Object> creating = new ConcurrentHashMap<>();
+    // Abstraction function:
+    //    Represents the routing from a message to the server of its client, where
+    //    serverMap.key == a client ID, serverMap.value == the server of that client,
+    //    port is the port the message handler accepts connections on,
+    //    storage is how new servers keep their events, and logDirectory, if not null,
+    //    holds the event log of every client in a directory named "client-" + its ID,
+    //    forced to disk every syncEvery records, retention is the retention policy of every
+    //    server and typeRetention.get(id).get(t) the policy of entity type t in the server of client id,
+    //    actuatorDispatcher sends every actuator command, of the servers and forwarded alike,
+    //    and creating.get(id) is held while the server of client id is being created
+
+    // Rep Invariant:
+    //    serverMap, actuatorDispatcher, storage, retention, typeRetention, creating != null,
+    //    0 <= port <= 65535, syncEvery > 0
+
+    /**
+     * Creates a new message processor
+     *
+     * @param serverMap the map of client IDs to servers, not null
+     * @param port      the port the message handler listens on
+     */
+    MessageProcessor(ConcurrentMap<Integer, Server> serverMap, int port) {
+        this.serverMap = serverMap;
+        this.port = port;
+    }
+
+    /**
+     * Sets how the servers created from now on keep their events
+     *
+     * @param storage the kind of event storage, not null
+     */
+    void setEventStorage(EventStorage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Sets the directory the servers created from now on keep their event logs in
+     *
+     * @param logDirectory the directory of the logs, not null
+     * @param syncEvery    the number of records appended between forcing a log to disk, > 0
+     */
+    void setEventLog(Path logDirectory, int syncEvery) {
+        this.syncEvery = syncEvery;
+        this.logDirectory = logDirectory;
+    }
+
+    /**
+     * Sets the retention policy of every server
+     *
+     * @param policy the retention policy, not null
+     */
+    void setRetention(RetentionPolicy policy) {
+        retention = policy;
+        for (Server server : serverMap.values()) {
+            server.setRetention(policy);
+        }
+    }
+
+    /**
+     * Sets the retention policy of one entity type in the server of one client
+     *
+     * @param clientId   the ID of the client
+     * @param entityType the entity type, not null
+     * @param policy     the retention policy, not null
+     */
+    void setRetention(int clientId, String entityType, RetentionPolicy policy) {
+        typeRetention.computeIfAbsent(clientId, id -> new ConcurrentHashMap<>()).put(entityType, policy);
+        Server server = serverMap.get(clientId);
+        if (server != null) {
+            server.setRetention(entityType, policy);
+        }
+    }
+
+    /**
+     * Evicts the raw events that are past their retention policy from every server,
+     * a batch at a time so that no server is held up for long
+     *
+     * @param batch the most events evicted from a server at once, > 0
+     */
+    void applyRetention(int batch) {
+        for (Server server : serverMap.values()) {
+            while (server.applyRetention(batch) == batch) {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Recreates the server of every client that has an event log in the log directory,
+     * replaying the log. Does nothing if there is no log directory. A directory that is not
+     * named for a client is skipped with a warning, and a log that cannot be replayed is
+     * quarantined, so that neither keeps the other clients from being recovered.
+     *
+     * @throws IOException if the log directory cannot be read
+     */
+    void recover() throws IOException {
+        Path directory = logDirectory;
+        if (directory == null || !Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> clients = Files.list(directory)) {
+            for (Path clientLog : (Iterable<Path>) clients::iterator) {
+                String name = clientLog.getFileName().toString();
+                if (!Files.isDirectory(clientLog) || !name.startsWith(CLIENT_LOG_PREFIX)) {
+                    continue;
+                }
+                int clientId;
+                try {
+                    clientId = Integer.parseInt(name.substring(CLIENT_LOG_PREFIX.length()));
+                } catch (NumberFormatException e) {
+                    System.err.println("Warning: skipping " + clientLog + ", which is not the log of a client");
+                    continue;
+                }
+                try {
+                    serverFor(clientId, "127.0.0.1");
+                } catch (RuntimeException e) {
+                    System.err.println("Warning: could not recover client " + clientId + " from " + clientLog + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Processes a request, forwarding actuator commands to the actuator in the background and
+     * every other request to the server of its client
+     *
+     * @param r     the request, not null
+     * @param input the serialized request as it was received, not null
+     * @param host  the address of the sender, not null
+     */
+    void processRequest(Request r, String input, String host) {
+        String data = r.getRequestData();
+        if (data.contains(SeverCommandToActuator.SET_STATE.toString()) || data.contains(SeverCommandToActuator.TOGGLE_STATE.toString())) {
+            Actuator a = Deserializer.deserializeActuator(data.substring(0, data.indexOf("}")));
+            System.out.println("Sending Request to Actuator on IP: " + a.getIP() + " and Port: " + a.getPort());
+            actuatorDispatcher.dispatch(a.getIP(), a.getPort(), r, input);
+        } else {
+            int clientId = Integer.parseInt(data.substring(0, data.indexOf(",")));
+            System.out.println("Client ID: " + clientId);
+            try {
+                serverFor(clientId, host).processIncomingRequest(r);
+            } catch (IOException | ClassNotFoundException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * @return the dispatcher that sends actuator commands
+     */
+    ActuatorDispatcher getActuatorDispatcher() {
+        return actuatorDispatcher;
+    }
+
+    /**
+     * Processes an event on the server of its client
+     *
+     * @param e    the event, not null
+     * @param host the address of the sender, not null
+     */
+    void processEvent(Event e, String host) {
+        processEvent(serverFor(e.getClientId(), host), e);
+    }
+
+    /**
+     * Processes an event on the server of its client
+     *
+     * @param server the server of the client of the event, not null
+     * @param e      the event, not null
+     */
+    void processEvent(Server server, Event e) {
+        server.processIncomingEvent(e);
+    }
+
+    /**
+     * Hands an event that arrived too late to be processed in timestamp order to the server of its client,
+     * which keeps it apart from its other events
+     *
+     * @param e    the late event, not null
+     * @param host the address of the sender, not null
+     */
+    void processLateEvent(Event e, String host) {
+        serverFor(e.getClientId(), host).processLateEvent(e);
+    }
+
+    /**
+     * Gets the server of a client, creating it if this is the first message of the client.
+     * A server with an event log is recovered from it before it is installed, outside of
+     * serverMap, so that a long replay holds up no other client. A log that cannot be opened
+     * or replayed is closed and moved aside as QUARANTINE_PREFIX + its directory name, so that
+     * the next message of the client starts it over with an empty log instead of failing again.
+     *
+     * @param clientId the ID of the client
+     * @param host     the address of the sender, not null
+     * @return the server of the client
+     * @throws RuntimeException if the log of the client could not be recovered
+     */
+    Server serverFor(int clientId, String host) {
+        Server server = serverMap.get(clientId);
+        if (server != null) {
+            return server;
+        }
+        Object lock = creating.computeIfAbsent(clientId, id -> new Object());
+        try {
+            synchronized (lock) {
+                server = serverMap.get(clientId);
+                if (server == null) {
+                    server = newServer(clientId, host);
+                    serverMap.putIfAbsent(clientId, server);
+                }
+                return server;
+            }
+        } finally {
+            creating.remove(clientId, lock);
+        }
+    }
+
+    private Server newServer(int id, String host) {
+        System.out.println("Creating new Server on ID: " + id);
+        Client client = new Client(id, "temp@temp.ca", host, port);
+        Path directory = logDirectory;
+        Server server;
+        if (directory == null) {
+            server = new Server(client, storage);
+        } else {
+            Path clientLog = directory.resolve(CLIENT_LOG_PREFIX + id);
+            EventLog log = null;
+            try {
+                log = EventLog.open(clientLog, syncEvery);
+                server = new Server(client, storage, log);
+            } catch (IOException e) {
+                discard(log, clientLog);
+                throw new UncheckedIOException(e);
+            } catch (RuntimeException e) {
+                discard(log, clientLog);
+                throw e;
+            }
+        }
+        server.setRetention(retention);
+        server.setActuatorDispatcher(actuatorDispatcher);
+        typeRetention.getOrDefault(id, Map.of()).forEach(server::setRetention);
+        return server;
+    }
+
+    /**
+     * Closes an event log that could not be replayed, if it was opened, and quarantines it
+     *
+     * @param log       the log, or null if it could not be opened
+     * @param clientLog the directory of the log, not null
+     */
+    private static void discard(EventLog log, Path clientLog) {
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                System.err.println("Error closing event log " + clientLog + ": " + e.getMessage());
+            }
+        }
+        quarantine(clientLog);
+    }
+
+    /**
+     * Moves an event log that cannot be recovered out of the way, keeping it for inspection
+     *
+     * @param clientLog the directory of the log, not null
+     */
+    private static void quarantine(Path clientLog) {
+        Path aside = clientLog.resolveSibling(QUARANTINE_PREFIX + clientLog.getFileName() + "-" + System.currentTimeMillis());
+        try {
+            Files.move(clientLog, aside);
+            System.err.println("Warning: moved unrecoverable event log " + clientLog + " to " + aside);
+        } catch (IOException e) {
+            System.err.println("Error: could not move unrecoverable event log " + clientLog + ": " + e.getMessage());
+        }
+    }
+}
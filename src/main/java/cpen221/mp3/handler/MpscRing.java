@@ -0,0 +1,207 @@
+package cpen221.mp3.handler;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * A bounded queue with any number of producers and a single consumer, over a preallocated
+ * array of slots, so that adding an element neither allocates nor takes a lock.
+ * A producer claims the next position with a compare-and-set and publishes its element by
+ * advancing the sequence of the slot; the consumer takes elements in position order and frees
+ * each slot for the producer one lap ahead. Producers wait for room when the ring is full,
+ * which holds back senders when their dispatcher falls behind.
+ */
+class MpscRing<E> {
+    // how long a parked producer sleeps before checking for room again
+    private static final long PRODUCER_PARK_NANOS = 50_000;
+
+    private final Object[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head = 0;
+    private volatile Thread sleepingConsumer = null;
+    // Abstraction function:
+    //    Represents the elements slots[p & mask] for every position p from head up to tail
+    //    whose sequence is p + 1, in position order, where a thread waits as waitStrategy says,
+    //    and sleepingConsumer, if not null, is the consumer parked until an element is published
+
+    // Rep Invariant:
+    //    slots.length == sequences.length == mask + 1 is a power of 2, head <= tail <= head + slots.length,
+    //    sequences[i] == p for the position p a producer may claim slot i at next, or p + 1 once it is published,
+    //    slots[i] == null for every free slot
+
+    /**
+     * Creates an empty ring
+     *
+     * @param capacity     the most elements held, rounded up to a power of 2, > 0
+     * @param waitStrategy how producers wait for room and the consumer for elements, not null
+     */
+    MpscRing(int capacity, WaitStrategy waitStrategy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        slots = new Object[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * Adds an element if there is room
+     *
+     * @param e the element, not null
+     * @return true if the element was added, false if the ring is full
+     */
+    boolean offer(E e) {
+        while (true) {
+            long position = tail.get();
+            int slot = (int) position & mask;
+            long sequence = sequences.get(slot);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[slot] = e;
+                    // a full fence, so that the consumer either sees the element or is seen sleeping
+                    sequences.set(slot, position + 1);
+                    wakeConsumer();
+                    return true;
+                }
+            } else if (sequence < position) {
+                // the consumer has not freed the slot of the previous lap
+                return false;
+            }
+            // another producer claimed the position first
+        }
+    }
+
+    /**
+     * Adds an element, waiting for room as long as the ring is full
+     *
+     * @param e the element, not null
+     */
+    void put(E e) {
+        while (!offer(e)) {
+            switch (waitStrategy) {
+                case BUSY_SPIN -> Thread.onSpinWait();
+                case YIELD -> Thread.yield();
+                default -> LockSupport.parkNanos(PRODUCER_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Takes the next element. Called by the consumer only.
+     *
+     * @return the element, or null if the ring is empty
+     */
+    @SuppressWarnings("unchecked")
+    E poll() {
+        long position = head;
+        int slot = (int) position & mask;
+        if (sequences.get(slot) != position + 1) {
+            return null;
+        }
+        E e = (E) slots[slot];
+        slots[slot] = null;
+        sequences.lazySet(slot, position + slots.length);
+        head = position + 1;
+        return e;
+    }
+
+    /**
+     * Takes the next element, waiting for one as the wait strategy says. Called by the consumer only.
+     *
+     * @param timeout how long to wait
+     * @param unit    the unit of timeout, not null
+     * @return the element, or null if none was added in time
+     */
+    E poll(long timeout, TimeUnit unit) {
+        E e = poll();
+        if (e != null || timeout <= 0) {
+            return e;
+        }
+        // nanoTime is only meaningful as a difference, and may be negative
+        long start = System.nanoTime();
+        long wait = unit.toNanos(timeout);
+        while ((e = poll()) == null) {
+            long remaining = wait - (System.nanoTime() - start);
+            if (remaining <= 0) {
+                return null;
+            }
+            switch (waitStrategy) {
+                case BUSY_SPIN -> Thread.onSpinWait();
+                case YIELD -> Thread.yield();
+                default -> park(remaining);
+            }
+        }
+        return e;
+    }
+
+    /**
+     * Parks the consumer until a producer publishes an element or the time runs out.
+     * The consumer checks again after announcing itself, so an element published in between is not missed.
+     */
+    private void park(long nanos) {
+        sleepingConsumer = Thread.currentThread();
+        if (isEmpty()) {
+            LockSupport.parkNanos(this, nanos);
+        }
+        sleepingConsumer = null;
+    }
+
+    private void wakeConsumer() {
+        Thread consumer = sleepingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Takes every element published, in order. Called by the consumer only.
+     *
+     * @param into the list the elements are added to, not null
+     * @return the number of elements taken
+     */
+    int drainTo(List<? super E> into) {
+        int taken = 0;
+        E e;
+        while ((e = poll()) != null) {
+            into.add(e);
+            taken++;
+        }
+        return taken;
+    }
+
+    /**
+     * @return true if no element is published at the head of the ring
+     */
+    boolean isEmpty() {
+        return sequences.get((int) head & mask) != head + 1;
+    }
+
+    /**
+     * @return the number of positions claimed and not yet taken, which may include elements
+     * that are still being published
+     */
+    int size() {
+        return (int) (tail.get() - head);
+    }
+
+    /**
+     * @return the most elements held
+     */
+    int capacity() {
+        return slots.length;
+    }
+}
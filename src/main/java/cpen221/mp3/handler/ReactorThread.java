@@ -0,0 +1,414 @@
+package cpen221.mp3.handler;
+
+import cpen221.mp3.event.Event;
+import cpen221.mp3.server.BinaryCodec;
+import cpen221.mp3.server.EventParser;
+import cpen221.mp3.server.FlowControl;
+import cpen221.mp3.server.Message;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*
+ * An event loop that multiplexes many non-blocking connections on one thread,
+ * framing newline-delimited messages directly out of each connection's buffer.
+ * A connection whose first byte is BinaryCodec.MAGIC negotiates the binary format instead.
+ * A connection stops being read while the client it last sent a message of, or the scheduler,
+ * is over its ingress budget, and the reactor checks every few milliseconds whether it can resume.
+ * Messages are offered to the scheduler without waiting, so a full shard inbox never blocks
+ * the reactor: a message that does not fit is kept, with every message read after it, and its
+ * connection stops being read the same way until the messages kept have been taken.
+ */
+class ReactorThread implements Runnable {
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+    private static final long PAUSE_CHECK_MILLIS = 5;
+
+    private static final int FORMAT_UNKNOWN = 0;
+    private static final int FORMAT_TEXT = 1;
+    private static final int FORMAT_BINARY = 2;
+
+    private final Selector selector;
+    private final Queue<SocketChannel> pending;
+    private final DeadlineScheduler scheduler;
+    private final List<SelectionKey> paused = new ArrayList<>();
+    // Abstraction function:
+    //    Represents a reactor where every channel registered with selector is a
+    //    connection being read by this thread, pending contains the accepted
+    //    connections that have not been registered with selector yet, every
+    //    complete line read from a connection is handed to scheduler, and paused holds
+    //    the connections not being read until the messages they kept are taken and their
+    //    client is back within budget
+
+    // Rep Invariant:
+    //    selector, pending, scheduler, paused all != null,
+    //    every key of selector has a Connection attachment whose buffer is in write mode,
+    //    a valid key of paused has no interest in reading,
+    //    every key whose Connection has kept messages is in paused
+
+    /**
+     * Creates a new reactor with its own selector
+     *
+     * @param scheduler the scheduler that complete messages are handed to, not null
+     * @throws IOException if the selector cannot be opened
+     */
+    ReactorThread(DeadlineScheduler scheduler) throws IOException {
+        this.selector = Selector.open();
+        this.pending = new ConcurrentLinkedQueue<>();
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Hands an accepted connection to this reactor. Can be called from any thread.
+     *
+     * @param channel the accepted connection, not null
+     */
+    void register(SocketChannel channel) {
+        pending.add(channel);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (selector.isOpen()) {
+                selector.select(paused.isEmpty() ? 0 : PAUSE_CHECK_MILLIS);
+                registerPending();
+                resumePaused();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isReadable()) {
+                        read(key);
+                        pauseIfBackedUp(key);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops this reactor and closes every connection registered with it
+     */
+    void close() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        } catch (IOException | ClosedSelectorException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
+
+    private void registerPending() {
+        SocketChannel channel;
+        while ((channel = pending.poll()) != null) {
+            try {
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, new Connection(hostOf(channel)));
+            } catch (IOException e) {
+                System.err.println("Error registering connection: " + e.getMessage());
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    /**
+     * Stops reading a connection that kept messages the scheduler had no room for, or whose
+     * last client, or the scheduler, is over its ingress budget, telling the entity to slow down
+     * if the connection is persistent. A closed connection that kept messages is paused too,
+     * so that they are still handed over.
+     */
+    private void pauseIfBackedUp(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        if (connection.kept.isEmpty()) {
+            if (!key.isValid() || connection.messagesRead == 0 || !scheduler.isOverBudget(connection.lastClient)) {
+                return;
+            }
+        }
+        paused.add(key);
+        if (!key.isValid()) {
+            return;
+        }
+        key.interestOps(0);
+        if (connection.messagesRead > 1) {
+            signal(key, FlowControl.SLOW_DOWN);
+        }
+    }
+
+    /**
+     * Hands the scheduler the messages every paused connection kept, and starts reading
+     * again every paused connection that has none left and whose last client is back within budget
+     */
+    private void resumePaused() {
+        Iterator<SelectionKey> keys = paused.iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            Connection connection = (Connection) key.attachment();
+            if (!offerKept(connection)) {
+                continue;
+            }
+            if (!key.isValid()) {
+                keys.remove();
+            } else if (!scheduler.isOverBudget(connection.lastClient)) {
+                keys.remove();
+                key.interestOps(SelectionKey.OP_READ);
+                if (connection.messagesRead > 1) {
+                    signal(key, FlowControl.RESUME);
+                }
+            }
+        }
+    }
+
+    private static void signal(SelectionKey key, byte signal) {
+        try {
+            // a single byte is dropped rather than waited for if the send buffer is full
+            ((SocketChannel) key.channel()).write(ByteBuffer.wrap(new byte[]{signal}));
+        } catch (IOException e) {
+            // the entity has gone away; the next read finds out
+        }
+    }
+
+    /**
+     * Reads whatever is available on a connection and processes every complete line in it
+     *
+     * @param key the readable key of the connection
+     */
+    private void read(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer buffer = connection.buffer;
+        int read;
+        try {
+            read = channel.read(buffer);
+        } catch (IOException e) {
+            read = -1;
+        }
+        try {
+            if (connection.format == FORMAT_UNKNOWN) {
+                connection.format = detectFormat(channel, buffer);
+            }
+            if (connection.format == FORMAT_TEXT) {
+                buffer = frame(buffer, connection);
+            } else if (connection.format == FORMAT_BINARY) {
+                buffer = frameBinary(buffer, connection);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Closing connection from " + connection.host + ": " + e.getMessage());
+            key.cancel();
+            closeQuietly(channel);
+            return;
+        }
+        if (!buffer.hasRemaining()) {
+            // a single message longer than the buffer, grow it so the message fits
+            ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+        connection.buffer = buffer;
+
+        if (read == -1) {
+            if (connection.format == FORMAT_TEXT && buffer.position() > 0) {
+                // the connection closed on a line without a trailing newline
+                dispatch(buffer.array(), 0, buffer.position(), connection);
+            }
+            key.cancel();
+            closeQuietly(channel);
+        }
+    }
+
+    /**
+     * Processes every complete line in a buffer and compacts the buffer down to the
+     * unterminated remainder
+     *
+     * @param buffer     a buffer in write mode, not null
+     * @param connection the connection the buffer was read from, not null
+     * @return the buffer, in write mode, holding only bytes after the last newline
+     */
+    private ByteBuffer frame(ByteBuffer buffer, Connection connection) {
+        byte[] bytes = buffer.array();
+        int end = buffer.position();
+        int lineStart = 0;
+        for (int i = 0; i < end; i++) {
+            if (bytes[i] == '\n') {
+                int lineEnd = (i > lineStart && bytes[i - 1] == '\r') ? i - 1 : i;
+                dispatch(bytes, lineStart, lineEnd, connection);
+                lineStart = i + 1;
+            }
+        }
+        buffer.flip();
+        buffer.position(lineStart);
+        buffer.compact();
+        return buffer;
+    }
+
+    /**
+     * Works out the format of a connection from the first bytes it sent, answering
+     * the binary hello if there is one
+     *
+     * @param channel the connection, not null
+     * @param buffer  the bytes read from the connection so far, in write mode, not null
+     * @return FORMAT_UNKNOWN if not enough bytes have arrived yet, otherwise the format
+     * the rest of buffer is in
+     * @throws IOException if the answer to the hello cannot be written
+     */
+    private int detectFormat(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        if (buffer.position() == 0) {
+            return FORMAT_UNKNOWN;
+        }
+        if (buffer.get(0) != BinaryCodec.MAGIC) {
+            return FORMAT_TEXT;
+        }
+        if (buffer.position() < BinaryCodec.HELLO_LENGTH) {
+            return FORMAT_UNKNOWN;
+        }
+        byte version = BinaryCodec.negotiate(buffer.get(1));
+        // two bytes always fit in the send buffer of a fresh connection
+        channel.write(ByteBuffer.wrap(new byte[]{BinaryCodec.MAGIC, version}));
+        buffer.flip();
+        buffer.position(BinaryCodec.HELLO_LENGTH);
+        buffer.compact();
+        return version == BinaryCodec.TEXT_FALLBACK ? FORMAT_TEXT : FORMAT_BINARY;
+    }
+
+    /**
+     * Processes every complete binary frame in a buffer and compacts the buffer down to
+     * the incomplete remainder
+     *
+     * @param buffer     a buffer in write mode, not null
+     * @param connection the connection the buffer was read from, not null
+     * @return the buffer, in write mode, holding only bytes after the last complete frame
+     * @throws IllegalArgumentException if the connection sent an invalid frame
+     */
+    private ByteBuffer frameBinary(ByteBuffer buffer, Connection connection) {
+        buffer.flip();
+        try {
+            while (BinaryCodec.hasFrame(buffer)) {
+                Event event = BinaryCodec.decodeFrame(buffer);
+                if (event != null) {
+                    offer(scheduler.messageOf(event), "", connection);
+                }
+            }
+        } finally {
+            buffer.compact();
+        }
+        return buffer;
+    }
+
+    private void dispatch(byte[] bytes, int from, int to, Connection connection) {
+        if (to <= from) {
+            return;
+        }
+        String host = connection.host;
+        if (EventParser.isEvent(bytes, from, to)) {
+            // events are parsed straight out of the buffer, without a String for the line
+            try {
+                offer(scheduler.messageOf(EventParser.parse(bytes, from, to)), "", connection);
+            } catch (RuntimeException e) {
+                System.err.println("Error processing message: " + e.getMessage());
+            }
+            return;
+        }
+        String line = new String(bytes, from, to - from, StandardCharsets.UTF_8);
+        try {
+            for (Message message : scheduler.parse(line)) {
+                offer(message, line, connection);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error processing message: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Hands a message read from a connection to the scheduler without waiting, or keeps it
+     * if the connection already kept messages or the inbox of its shard is full
+     */
+    private void offer(Message message, String input, Connection connection) {
+        connection.received(message.getClientID());
+        if (!connection.kept.isEmpty() || !scheduler.offer(message, input, connection.host)) {
+            connection.kept.add(new Kept(message, input));
+        }
+    }
+
+    /**
+     * Hands the scheduler the messages a connection kept, in order, as long as it has room
+     *
+     * @return true if the connection has no messages kept any more
+     */
+    private boolean offerKept(Connection connection) {
+        Kept next;
+        while ((next = connection.kept.peek()) != null) {
+            if (!scheduler.offer(next.message, next.input, connection.host)) {
+                return false;
+            }
+            connection.kept.poll();
+        }
+        return true;
+    }
+
+    private static String hostOf(SocketChannel channel) {
+        try {
+            return ((InetSocketAddress) channel.getRemoteAddress()).getAddress().toString();
+        } catch (IOException | NullPointerException e) {
+            return "unknown";
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /*
+     * The read state of a single connection
+     */
+    private static class Connection {
+        private final String host;
+        private ByteBuffer buffer;
+        private int format = FORMAT_UNKNOWN;
+        private int lastClient;
+        private int messagesRead = 0;
+        private final ArrayDeque<Kept> kept = new ArrayDeque<>();
+
+        Connection(String host) {
+            this.host = host;
+            this.buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        }
+
+        void received(int clientId) {
+            lastClient = clientId;
+            messagesRead++;
+        }
+    }
+
+    /*
+     * A message read from a connection that the scheduler had no room for yet
+     */
+    private static class Kept {
+        private final Message message;
+        private final String input;
+
+        Kept(Message message, String input) {
+            this.message = message;
+            this.input = input;
+        }
+    }
+}
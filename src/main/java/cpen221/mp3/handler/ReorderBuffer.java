@@ -0,0 +1,107 @@
+package cpen221.mp3.handler;
+
+import cpen221.mp3.event.Event;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/*
+ * The received events of one client that have not been processed yet, released in
+ * timestamp order once the event-time watermark of the client has passed them.
+ * The watermark is the latest timestamp seen minus the allowed lateness, so an event is held
+ * until no event arriving within the lateness could still come before it.
+ */
+class ReorderBuffer {
+    // timestamp order, with the same tie-break as the event stores of the servers
+    private static final Comparator<Pending> EVENT_TIME_ORDER = (a, b) -> {
+        int byTime = Double.compare(a.event().getTimeStamp(), b.event().getTimeStamp());
+        if (byTime != 0) {
+            return byTime;
+        }
+        int byEntity = Integer.compare(b.event().getEntityId(), a.event().getEntityId());
+        return byEntity != 0 ? byEntity : Long.compare(a.sequence, b.sequence);
+    };
+
+    private final PriorityQueue<Pending> pending = new PriorityQueue<>(EVENT_TIME_ORDER);
+    private double maxTimestamp = Double.NEGATIVE_INFINITY;
+    private double released = Double.NEGATIVE_INFINITY;
+    private long sequence = 0;
+    // Abstraction function:
+    //    Represents the held events of a client in pending, ordered by timestamp,
+    //    where maxTimestamp is the latest timestamp added and released is the timestamp
+    //    of the latest event released
+
+    // Rep Invariant:
+    //    every event in pending has a timestamp >= released, released <= maxTimestamp
+
+    /**
+     * Checks whether an event comes too late to be released in timestamp order
+     *
+     * @param event the event, not null
+     * @return true if an event with a later timestamp was already released
+     */
+    boolean isLate(Event event) {
+        return event.getTimeStamp() < released;
+    }
+
+    /**
+     * Holds a received event that is not late, then releases every event the watermark has passed
+     *
+     * @param scheduled the received event, not null and not late
+     * @param lateness  the allowed lateness, in timestamp units, >= 0
+     * @param release   called with every released event in timestamp order, not null
+     */
+    void add(ScheduledMessage scheduled, double lateness, Consumer<ScheduledMessage> release) {
+        pending.add(new Pending(scheduled, sequence++));
+        maxTimestamp = Math.max(maxTimestamp, scheduled.getMessage().getEvent().getTimeStamp());
+        releaseThrough(maxTimestamp - lateness, release);
+    }
+
+    /**
+     * Releases every held event with a timestamp up to a time, whatever the watermark
+     *
+     * @param timeStamp the latest timestamp to release
+     * @param release   called with every released event in timestamp order, not null
+     */
+    void releaseThrough(double timeStamp, Consumer<ScheduledMessage> release) {
+        while (!pending.isEmpty() && pending.peek().event().getTimeStamp() <= timeStamp) {
+            ScheduledMessage scheduled = pending.poll().scheduled;
+            released = scheduled.getMessage().getEvent().getTimeStamp();
+            release.accept(scheduled);
+        }
+    }
+
+    /**
+     * Releases every held event
+     *
+     * @param release called with every released event in timestamp order, not null
+     */
+    void releaseAll(Consumer<ScheduledMessage> release) {
+        releaseThrough(Double.POSITIVE_INFINITY, release);
+    }
+
+    /**
+     * @return the number of events held
+     */
+    int size() {
+        return pending.size();
+    }
+
+    /*
+     * A held event, with the order in which it was added to break ties
+     */
+    private static final class Pending {
+        private final ScheduledMessage scheduled;
+        private final long sequence;
+
+        Pending(ScheduledMessage scheduled, long sequence) {
+            this.scheduled = scheduled;
+            this.sequence = sequence;
+        }
+
+        Event event() {
+            return scheduled.getMessage().getEvent();
+        }
+    }
+}
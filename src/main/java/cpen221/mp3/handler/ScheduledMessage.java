@@ -0,0 +1,65 @@
+package cpen221.mp3.handler;
+
+import cpen221.mp3.server.Message;
+
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * A received message waiting in a DeadlineScheduler until it has to be processed
+ */
+class ScheduledMessage implements Delayed {
+    private final Message message;
+    private final String input;
+    private final String host;
+    private final long sequence;
+    // Abstraction function:
+    //    Represents message, received as the line input from host, waiting for the release
+    //    deadline of message. sequence is the order in which messages were scheduled,
+    //    and breaks ties between equal deadlines.
+
+    // Rep Invariant:
+    //    input, host all != null, message != null unless this only wakes up a dispatcher thread
+
+    /**
+     * Creates a new scheduled message
+     *
+     * @param message  the received message, not null
+     * @param input    the message as it was received, not null
+     * @param host     the address of the sender, not null
+     * @param sequence the order in which the message was scheduled
+     */
+    ScheduledMessage(Message message, String input, String host, long sequence) {
+        this.message = message;
+        this.input = input;
+        this.host = host;
+        this.sequence = sequence;
+    }
+
+    Message getMessage() {
+        return message;
+    }
+
+    String getInput() {
+        return input;
+    }
+
+    String getHost() {
+        return host;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+        return unit.convert(message.getReleaseDeadline() - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed o) {
+        ScheduledMessage other = (ScheduledMessage) o;
+        int byDeadline = Message.RELEASE_ORDER.compare(message, other.message);
+        if (byDeadline != 0) {
+            return byDeadline;
+        }
+        return Long.compare(sequence, other.sequence);
+    }
+}
@@ -0,0 +1,14 @@
+package cpen221.mp3.handler;
+
+/*
+ * How a thread waits on the inbox of a dispatcher shard: the dispatcher for a message to arrive,
+ * and a sender for room when the inbox is full
+ */
+public enum WaitStrategy {
+    // spin on the CPU; the lowest latency, at the cost of a core per waiting thread
+    BUSY_SPIN,
+    // spin, giving up the CPU to other threads between checks
+    YIELD,
+    // sleep until woken up by the other side; no CPU while idle
+    PARK
+}
@@ -0,0 +1,549 @@
+package cpen221.mp3.server;
+
+import cpen221.mp3.client.Request;
+import cpen221.mp3.client.RequestCommand;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Sends commands to actuators in the background, so that no thread processing requests waits
+ * on an actuator. Every actuator endpoint has a queue of its commands, sent in order by one
+ * sender thread at a time over a single warm channel that stays open until it fails, framed
+ * as CommandChannel says. Commands are pipelined: up to WINDOW of them are sent before the
+ * oldest is acked, and a thread per channel completes them as their acks arrive. If a channel
+ * is lost, the commands in flight on it fail rather than being sent again, since the actuator
+ * may have applied them; the next command opens a new channel.
+ * A SET command queued behind another SET that has not been sent yet changes nothing, so it is
+ * coalesced into it and completes when it does. A command that is not acked before its timeout
+ * completes its future exceptionally. The latency from dispatching a command to its ack, which
+ * the actuator sends once it has processed the command, is recorded for every command.
+ */
+public class ActuatorDispatcher {
+    public static final int DEFAULT_SENDERS = 4;
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 1000;
+    public static final long DEFAULT_COMMAND_TIMEOUT_MILLIS = 5000;
+    // the most commands sent to an actuator before the oldest of them is acked
+    static final int WINDOW = 256;
+    private static ActuatorDispatcher shared = null;
+
+    private final ExecutorService senders;
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final int connectTimeoutMillis;
+    private final long commandTimeoutMillis;
+    private final LatencyStats latency = new LatencyStats();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile boolean closed = false;
+    // Abstraction function:
+    //    Represents a dispatcher where endpoints.get(ip + ":" + port) holds the queue and channel
+    //    of the actuator listening on ip:port, and senders send the queued commands. Commands give up
+    //    connecting after connectTimeoutMillis and waiting for their ack after commandTimeoutMillis.
+    //    latency holds the time from dispatch to ack of every command acked, sent and failed count
+    //    the commands acked and given up on, and coalesced the commands merged into an earlier one.
+
+    // Rep Invariant:
+    //    senders, endpoints, latency != null, connectTimeoutMillis > 0, commandTimeoutMillis > 0,
+    //    at most one sender drains an endpoint at a time
+
+    /**
+     * Creates a new dispatcher with DEFAULT_SENDERS sender threads and the default timeouts
+     */
+    public ActuatorDispatcher() {
+        this(DEFAULT_SENDERS, DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_COMMAND_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Creates a new dispatcher
+     *
+     * @param senderCount          the number of threads sending commands, > 0; an unreachable
+     *                             actuator holds up one of them for at most connectTimeoutMillis
+     *                             for every command
+     * @param connectTimeoutMillis how long to wait for an actuator to accept a connection, in milliseconds, > 0
+     * @param commandTimeoutMillis how long a command can wait to be acked, in milliseconds, > 0
+     */
+    public ActuatorDispatcher(int senderCount, int connectTimeoutMillis, long commandTimeoutMillis) {
+        this(newSenders(senderCount), connectTimeoutMillis, commandTimeoutMillis);
+    }
+
+    /**
+     * Creates a new dispatcher that sends commands on the given threads
+     *
+     * @param senders              runs the senders of the endpoints, not null
+     * @param connectTimeoutMillis how long to wait for an actuator to accept a connection, in milliseconds, > 0
+     * @param commandTimeoutMillis how long a command can wait to be acked, in milliseconds, > 0
+     */
+    ActuatorDispatcher(ExecutorService senders, int connectTimeoutMillis, long commandTimeoutMillis) {
+        if (connectTimeoutMillis <= 0 || commandTimeoutMillis <= 0) {
+            senders.shutdown();
+            throw new IllegalArgumentException();
+        }
+        this.senders = senders;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.commandTimeoutMillis = commandTimeoutMillis;
+    }
+
+    private static ExecutorService newSenders(int senderCount) {
+        if (senderCount <= 0) {
+            throw new IllegalArgumentException();
+        }
+        AtomicInteger threads = new AtomicInteger();
+        return Executors.newFixedThreadPool(senderCount, r -> {
+            Thread t = new Thread(r, "actuator-dispatcher-" + threads.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * @return the dispatcher servers use unless they are given one of their own
+     */
+    public static synchronized ActuatorDispatcher shared() {
+        if (shared == null) {
+            shared = new ActuatorDispatcher();
+        }
+        return shared;
+    }
+
+    /**
+     * Queues a command for the actuator listening on an endpoint, without waiting for it to be sent
+     *
+     * @param ip      the IP address of the actuator, not null
+     * @param port    the port the actuator listens for commands on
+     * @param command the command, not null
+     * @param line    the command as it is sent, without a trailing newline, not null
+     * @return a future completed once the actuator has acked the command, or the command it was
+     * coalesced into, or completed exceptionally if it was not acked before its timeout
+     */
+    public CompletableFuture<Void> dispatch(String ip, int port, Request command, String line) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (closed) {
+            future.completeExceptionally(new IllegalStateException("dispatcher is closed"));
+            return future;
+        }
+        endpoints.computeIfAbsent(ip + ":" + port, key -> new Endpoint(ip, port)).enqueue(command, line, future);
+        return future;
+    }
+
+    /**
+     * @return the time from dispatch to ack of every command acked so far
+     */
+    public LatencyStats getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return the number of commands acked so far
+     */
+    public long sentCount() {
+        return sent.sum();
+    }
+
+    /**
+     * @return the number of commands coalesced into an earlier command so far
+     */
+    public long coalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return the number of commands that failed or were not acked in time so far
+     */
+    public long failedCount() {
+        return failed.sum();
+    }
+
+    /**
+     * Stops sending, fails every command still queued or in flight and closes every channel
+     */
+    public void close() {
+        closed = true;
+        senders.shutdownNow();
+        for (Endpoint endpoint : endpoints.values()) {
+            endpoint.close();
+        }
+    }
+
+    private static boolean isSet(Request command) {
+        return command.getRequestCommand() == RequestCommand.CONTROL_SET_ACTUATOR_STATE;
+    }
+
+    /*
+     * A queued command and the futures of every command coalesced into it
+     */
+    private static final class Command {
+        private final Request command;
+        private final String line;
+        private final long deadline;
+        private final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        private final List<Long> dispatched = new ArrayList<>();
+        private long sequence = CommandChannel.UNSEQUENCED;
+
+        Command(Request command, String line, long deadline) {
+            this.command = command;
+            this.line = line;
+            this.deadline = deadline;
+        }
+
+        void add(CompletableFuture<Void> future, long dispatchedAt) {
+            futures.add(future);
+            dispatched.add(dispatchedAt);
+        }
+    }
+
+    /*
+     * The queue and command channel of one actuator. The queue, the commands in flight and the
+     * current channel are guarded by the endpoint. Only the sender draining the endpoint opens
+     * channels and writes to them, and the reader thread of a channel completes its commands
+     * as their acks come back.
+     */
+    private final class Endpoint {
+        private final String ip;
+        private final int port;
+        private final ArrayDeque<Command> queue = new ArrayDeque<>();
+        private final ArrayDeque<Command> inFlight = new ArrayDeque<>();
+        private boolean draining = false;
+        private Channel channel = null;
+        private long nextSequence = 0;
+
+        Endpoint(String ip, int port) {
+            this.ip = ip;
+            this.port = port;
+        }
+
+        void enqueue(Request command, String line, CompletableFuture<Void> future) {
+            long now = System.nanoTime();
+            synchronized (this) {
+                Command last = queue.peekLast();
+                if (last != null && isSet(command) && isSet(last.command)) {
+                    last.add(future, now);
+                    coalesced.increment();
+                } else {
+                    Command queued = new Command(command, line, now + commandTimeoutMillis * 1_000_000);
+                    queued.add(future, now);
+                    queue.add(queued);
+                }
+                if (!draining) {
+                    draining = true;
+                    senders.execute(this::drain);
+                }
+            }
+        }
+
+        /**
+         * Sends queued commands until the queue is empty, without waiting for their acks
+         * unless WINDOW commands are already in flight. The channel is flushed whenever no
+         * further command is queued, so a burst of commands goes out in few writes.
+         */
+        private void drain() {
+            Channel unflushed = null;
+            while (true) {
+                Command next;
+                boolean more;
+                synchronized (this) {
+                    next = queue.poll();
+                    if (next == null && unflushed == null) {
+                        draining = false;
+                        return;
+                    }
+                    more = !queue.isEmpty();
+                }
+                if (next == null) {
+                    flush(unflushed);
+                    unflushed = null;
+                    continue;
+                }
+                if (System.nanoTime() - next.deadline > 0) {
+                    fail(next, new TimeoutException("command waited longer than " + commandTimeoutMillis + " ms"));
+                    continue;
+                }
+                Channel current;
+                try {
+                    current = putInFlight(next);
+                } catch (IOException e) {
+                    System.out.println("Unable to send to Actuator on IP: " + ip + ", Port: " + port);
+                    fail(next, e);
+                    unflushed = null;
+                    continue;
+                }
+                try {
+                    current.write(CommandChannel.frame(next.sequence, next.line));
+                    if (more) {
+                        unflushed = current;
+                    } else {
+                        current.flush();
+                        unflushed = null;
+                    }
+                } catch (IOException e) {
+                    lost(current, e);
+                    unflushed = null;
+                }
+            }
+        }
+
+        /**
+         * Numbers a command and adds it to the commands in flight on the open channel, as long
+         * as that channel is still open once there is room in its window. If the channel is lost
+         * before the command joins it, the command has not been sent, so it is tried once more
+         * on a new channel.
+         *
+         * @return the channel the command is in flight on, which it is to be written to
+         * @throws IOException if no channel could take the command
+         */
+        private Channel putInFlight(Command command) throws IOException {
+            for (int attempt = 0; ; attempt++) {
+                Channel current = openChannel();
+                awaitWindow(current);
+                synchronized (this) {
+                    if (channel == current) {
+                        command.sequence = nextSequence++;
+                        inFlight.add(command);
+                        return current;
+                    }
+                }
+                if (attempt > 0) {
+                    throw new IOException("lost the channel to the actuator before sending");
+                }
+            }
+        }
+
+        private void flush(Channel current) {
+            try {
+                current.flush();
+            } catch (IOException e) {
+                lost(current, e);
+            }
+        }
+
+        /**
+         * @return the open channel of this endpoint, after opening one if there is none
+         * @throws IOException if no channel can be opened
+         */
+        private Channel openChannel() throws IOException {
+            synchronized (this) {
+                if (channel != null) {
+                    return channel;
+                }
+            }
+            Channel opened = new Channel(this);
+            synchronized (this) {
+                channel = opened;
+            }
+            opened.startReading();
+            return opened;
+        }
+
+        /**
+         * Waits until fewer than WINDOW commands are in flight on a channel
+         *
+         * @throws IOException if the channel is lost, or its oldest command is not acked in time
+         */
+        private void awaitWindow(Channel current) throws IOException {
+            synchronized (this) {
+                if (inFlight.size() < WINDOW) {
+                    return;
+                }
+            }
+            current.flush();
+            synchronized (this) {
+                while (channel == current && inFlight.size() >= WINDOW) {
+                    long waitMillis = (inFlight.peek().deadline - System.nanoTime()) / 1_000_000;
+                    if (waitMillis <= 0) {
+                        break;
+                    }
+                    try {
+                        wait(waitMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("interrupted while waiting for acks");
+                    }
+                }
+                if (channel == current && inFlight.size() < WINDOW) {
+                    return;
+                }
+            }
+            IOException timeout = new IOException("no ack from actuator within " + commandTimeoutMillis + " ms");
+            lost(current, timeout);
+            throw timeout;
+        }
+
+        /**
+         * Completes every command in flight on a channel up to an acknowledged sequence number
+         */
+        private void acked(Channel from, long sequence) {
+            List<Command> done = new ArrayList<>();
+            synchronized (this) {
+                if (channel != from) {
+                    return;
+                }
+                while (!inFlight.isEmpty() && inFlight.peek().sequence <= sequence) {
+                    done.add(inFlight.poll());
+                }
+                notifyAll();
+            }
+            long now = System.nanoTime();
+            for (Command command : done) {
+                for (int i = 0; i < command.futures.size(); i++) {
+                    latency.record(now - command.dispatched.get(i));
+                    sent.increment();
+                    command.futures.get(i).complete(null);
+                }
+            }
+        }
+
+        /**
+         * @return true if a command in flight on a channel has waited past its deadline
+         */
+        private synchronized boolean isOverdue(Channel on) {
+            return channel == on && !inFlight.isEmpty() && System.nanoTime() - inFlight.peek().deadline > 0;
+        }
+
+        /**
+         * Closes a channel and fails every command in flight on it, unless it was already replaced
+         */
+        private void lost(Channel lostChannel, Exception cause) {
+            List<Command> unacked;
+            synchronized (this) {
+                if (channel != lostChannel) {
+                    lostChannel.close();
+                    return;
+                }
+                channel = null;
+                unacked = new ArrayList<>(inFlight);
+                inFlight.clear();
+                notifyAll();
+            }
+            lostChannel.close();
+            for (Command command : unacked) {
+                fail(command, cause);
+            }
+        }
+
+        private void fail(Command command, Exception cause) {
+            for (CompletableFuture<Void> future : command.futures) {
+                failed.increment();
+                future.completeExceptionally(cause);
+            }
+        }
+
+        void close() {
+            List<Command> left;
+            Channel open;
+            synchronized (this) {
+                left = new ArrayList<>(queue);
+                queue.clear();
+                open = channel;
+            }
+            IllegalStateException closed = new IllegalStateException("dispatcher is closed");
+            for (Command command : left) {
+                fail(command, closed);
+            }
+            if (open != null) {
+                lost(open, closed);
+            }
+        }
+    }
+
+    /*
+     * One connection to an actuator, with the thread that reads its acks
+     */
+    private final class Channel {
+        private final Endpoint endpoint;
+        private final Socket socket;
+        private final OutputStream out;
+
+        /**
+         * Connects to the actuator of an endpoint
+         *
+         * @throws IOException if the actuator does not accept the connection in time
+         */
+        Channel(Endpoint endpoint) throws IOException {
+            this.endpoint = endpoint;
+            Socket s = new Socket();
+            try {
+                s.connect(new InetSocketAddress(endpoint.ip, endpoint.port), connectTimeoutMillis);
+                s.setTcpNoDelay(true);
+                s.setSoTimeout((int) Math.min(commandTimeoutMillis, Integer.MAX_VALUE));
+                this.out = new BufferedOutputStream(s.getOutputStream());
+            } catch (IOException e) {
+                s.close();
+                throw e;
+            }
+            this.socket = s;
+        }
+
+        void startReading() {
+            Thread reader = new Thread(this::readAcks, "actuator-channel-" + endpoint.ip + ":" + endpoint.port);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        void write(String line) throws IOException {
+            out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        /**
+         * Completes commands as their acks arrive until the channel closes, giving up on the
+         * channel if its oldest command in flight is not acked by its deadline
+         */
+        private void readAcks() {
+            Exception cause;
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                while (true) {
+                    String line;
+                    try {
+                        line = in.readLine();
+                    } catch (SocketTimeoutException e) {
+                        if (endpoint.isOverdue(this)) {
+                            cause = new IOException("no ack from actuator within " + commandTimeoutMillis + " ms");
+                            break;
+                        }
+                        continue;
+                    }
+                    if (line == null) {
+                        cause = new IOException("actuator closed the connection");
+                        break;
+                    }
+                    long sequence = CommandChannel.ackOf(line);
+                    if (sequence != CommandChannel.UNSEQUENCED) {
+                        endpoint.acked(this, sequence);
+                    }
+                }
+            } catch (IOException e) {
+                cause = e;
+            }
+            endpoint.lost(this, cause);
+        }
+    }
+}
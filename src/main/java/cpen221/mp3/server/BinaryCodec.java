@@ -0,0 +1,164 @@
+package cpen221.mp3.server;
+
+import cpen221.mp3.event.ActuatorEvent;
+import cpen221.mp3.event.Event;
+import cpen221.mp3.event.SensorEvent;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * A compact binary wire format for events, used instead of the toString()-based text format
+ * on connections that negotiate it.
+ *
+ * A connection opts in by sending HELLO_LENGTH bytes: MAGIC followed by the highest version it
+ * speaks. The server answers with MAGIC followed by the version both sides will use, or 0 if
+ * the connection has to keep using the text format. MAGIC is not valid UTF-8 on its own,
+ * so it can never be the first byte of a text message.
+ *
+ * Every frame afterwards is laid out as:
+ *   int    length of the rest of the frame
+ *   byte   frame kind (KIND_EVENT)
+ *   double timestamp
+ *   int    client ID
+ *   int    entity ID
+ *   byte   entity type code, 0 for a type outside the known set
+ *   [short length, UTF-8 bytes of the entity type, only if the code is 0]
+ *   byte   value type (VALUE_DOUBLE or VALUE_BOOLEAN)
+ *   double value, or a single byte 0/1 for booleans
+ * All numbers are big-endian.
+ */
+public class BinaryCodec {
+    public static final byte MAGIC = (byte) 0xCB;
+    public static final byte VERSION = 1;
+    public static final byte TEXT_FALLBACK = 0;
+    public static final int HELLO_LENGTH = 2;
+
+    public static final byte KIND_EVENT = 1;
+    public static final byte VALUE_DOUBLE = 0;
+    public static final byte VALUE_BOOLEAN = 1;
+
+    // the longest a frame can be, enough for an entity type of Short.MAX_VALUE bytes
+    public static final int MAX_FRAME_LENGTH = 64 * 1024;
+
+    // entity types with a one byte code; the code of a type is its index + 1
+    private static final String[] KNOWN_TYPES = {"TempSensor", "PressureSensor", "CO2Sensor", "Switch"};
+
+    /**
+     * Creates the bytes a connection sends to ask for the binary format
+     *
+     * @return the hello bytes for the current version
+     */
+    public static byte[] hello() {
+        return new byte[]{MAGIC, VERSION};
+    }
+
+    /**
+     * Picks the version to use on a connection whose peer speaks up to the requested version
+     *
+     * @param requested the highest version the peer speaks
+     * @return the version both sides speak, or TEXT_FALLBACK if there is none
+     */
+    public static byte negotiate(byte requested) {
+        if (requested < 1) {
+            return TEXT_FALLBACK;
+        }
+        return (byte) Math.min(requested, VERSION);
+    }
+
+    /**
+     * Writes one event frame into a buffer
+     *
+     * @param event the event to encode, not null
+     * @param out   the buffer to write to, with at least MAX_FRAME_LENGTH bytes remaining
+     */
+    public static void encodeEvent(Event event, ByteBuffer out) {
+        int lengthAt = out.position();
+        out.putInt(0);
+        out.put(KIND_EVENT);
+        out.putDouble(event.getTimeStamp());
+        out.putInt(event.getClientId());
+        out.putInt(event.getEntityId());
+        String type = event.getEntityType();
+        byte code = typeCode(type);
+        out.put(code);
+        if (code == 0) {
+            byte[] typeBytes = type.getBytes(StandardCharsets.UTF_8);
+            out.putShort((short) typeBytes.length);
+            out.put(typeBytes);
+        }
+        if (event instanceof ActuatorEvent) {
+            out.put(VALUE_BOOLEAN);
+            out.put((byte) (event.getValueBoolean() ? 1 : 0));
+        } else {
+            out.put(VALUE_DOUBLE);
+            out.putDouble(event.getValueDouble());
+        }
+        out.putInt(lengthAt, out.position() - lengthAt - Integer.BYTES);
+    }
+
+    /**
+     * Checks whether a buffer starts with a complete frame
+     *
+     * @param in a buffer in read mode, not null
+     * @return true if a whole frame can be decoded from the position of in
+     * @throws IllegalArgumentException if the next frame is longer than MAX_FRAME_LENGTH
+     */
+    public static boolean hasFrame(ByteBuffer in) {
+        if (in.remaining() < Integer.BYTES) {
+            return false;
+        }
+        int length = in.getInt(in.position());
+        if (length <= 0 || length > MAX_FRAME_LENGTH) {
+            throw new IllegalArgumentException("Invalid frame length: " + length);
+        }
+        return in.remaining() >= Integer.BYTES + length;
+    }
+
+    /**
+     * Reads one frame from a buffer
+     *
+     * @param in a buffer in read mode that starts with a complete frame, not null
+     * @return the event in the frame, or null if the frame is not an event frame;
+     * the position of in is moved past the frame in both cases
+     */
+    public static Event decodeFrame(ByteBuffer in) {
+        int length = in.getInt();
+        int end = in.position() + length;
+        if (in.get() != KIND_EVENT) {
+            in.position(end);
+            return null;
+        }
+        double timestamp = in.getDouble();
+        int clientId = in.getInt();
+        int entityId = in.getInt();
+        byte code = in.get();
+        String type;
+        if (code < 0 || code > KNOWN_TYPES.length) {
+            throw new IllegalArgumentException("Unknown entity type code: " + code);
+        } else if (code == 0) {
+            byte[] typeBytes = new byte[in.getShort()];
+            in.get(typeBytes);
+            type = new String(typeBytes, StandardCharsets.UTF_8);
+        } else {
+            type = KNOWN_TYPES[code - 1];
+        }
+        Event event;
+        if (in.get() == VALUE_BOOLEAN) {
+            event = new ActuatorEvent(timestamp, clientId, entityId, type, in.get() != 0);
+        } else {
+            event = new SensorEvent(timestamp, clientId, entityId, type, in.getDouble());
+        }
+        in.position(end);
+        return event;
+    }
+
+    private static byte typeCode(String type) {
+        for (int i = 0; i < KNOWN_TYPES.length; i++) {
+            if (KNOWN_TYPES[i].equals(type)) {
+                return (byte) (i + 1);
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,396 @@
+package cpen221.mp3.server;
+
+import cpen221.mp3.event.ActuatorEvent;
+import cpen221.mp3.event.Event;
+import cpen221.mp3.event.SensorEvent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+/*
+ * An EventStore that keeps the events of every entity in primitive columns instead of as objects.
+ * A column holds the timestamps, values and arrival numbers of one entity in time order,
+ * with actuator states packed into a BitSet, and entity types are kept once per column
+ * as a code into a dictionary shared by the store.
+ * Events are rebuilt from the columns only when a query returns them, so the events returned
+ * are equal in content, but not identical, to the events that were added.
+ */
+class ColumnarEventStore implements EventStore {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Map<Integer, List<Column>> columnsByEntity = new HashMap<>();
+    private final List<Column> columns = new ArrayList<>();
+    private final List<String> types = new ArrayList<>();
+    private final Map<String, Integer> typeCodes = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private int sequence = 0;
+    private int size = 0;
+    // Abstraction function:
+    //    Represents the events in every column of columns, where row i of a column is the
+    //    event with the column's client ID, entity ID and type types.get(typeCode),
+    //    timestamps[i], and values[i] or states.get(i); sequence is the number of events added
+
+    // Rep Invariant:
+    //    columnsByEntity holds exactly the columns of columns, under their entity IDs,
+    //    no two columns have the same client ID, entity ID, type and kind,
+    //    the timestamps of every column are in increasing order, with equal timestamps in
+    //    increasing arrival order, size == sum of the sizes of columns,
+    //    typeCodes.get(types.get(i)) == i for every i
+
+    @Override
+    public EventKey add(Event event) {
+        lock.writeLock().lock();
+        try {
+            int seq = sequence++;
+            columnFor(event).insert(event, seq);
+            size++;
+            return new EventKey(event, Integer.toUnsignedLong(seq));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Event> window(double startTime, double endTime) {
+        List<Event> inWindow = new ArrayList<>();
+        forEachInWindow(startTime, endTime, (key, event) -> inWindow.add(event));
+        return inWindow;
+    }
+
+    @Override
+    public void forEachInWindow(double startTime, double endTime, BiConsumer<EventKey, Event> action) {
+        if (startTime > endTime) {
+            return;
+        }
+        List<EventKey> keys = new ArrayList<>();
+        List<Event> events = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            // merge the ranges of every column into time order
+            PriorityQueue<Cursor> merge = new PriorityQueue<>();
+            for (Column column : columns) {
+                int from = column.firstAtOrAfter(startTime);
+                int to = column.firstAfter(endTime);
+                if (from < to) {
+                    merge.add(new Cursor(column, from, to));
+                }
+            }
+            while (!merge.isEmpty()) {
+                Cursor cursor = merge.poll();
+                keys.add(cursor.column.key(cursor.row));
+                events.add(cursor.column.event(cursor.row, types));
+                if (++cursor.row < cursor.end) {
+                    merge.add(cursor);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            action.accept(keys.get(i), events.get(i));
+        }
+    }
+
+    @Override
+    public void forEachOldest(int n, BiConsumer<EventKey, Event> action) {
+        List<EventKey> keys = new ArrayList<>();
+        List<Event> events = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            // merge the heads of every column, earliest first
+            PriorityQueue<Cursor> merge = new PriorityQueue<>();
+            for (Column column : columns) {
+                if (column.size > 0) {
+                    merge.add(new Cursor(column, 0, column.size));
+                }
+            }
+            while (keys.size() < n && !merge.isEmpty()) {
+                Cursor cursor = merge.poll();
+                keys.add(cursor.column.key(cursor.row));
+                events.add(cursor.column.event(cursor.row, types));
+                if (++cursor.row < cursor.end) {
+                    merge.add(cursor);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            action.accept(keys.get(i), events.get(i));
+        }
+    }
+
+    @Override
+    public int removeAll(Collection<EventKey> keys) {
+        Map<Integer, Set<Integer>> sequencesByEntity = new HashMap<>();
+        for (EventKey key : keys) {
+            sequencesByEntity.computeIfAbsent(key.getEntityId(), id -> new HashSet<>())
+                    .add((int) key.getSequence());
+        }
+        int removed = 0;
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<Integer, Set<Integer>> entity : sequencesByEntity.entrySet()) {
+                for (Column column : columnsByEntity.getOrDefault(entity.getKey(), List.of())) {
+                    removed += column.removeAll(entity.getValue());
+                }
+            }
+            size -= removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return removed;
+    }
+
+    @Override
+    public List<Event> last(int n) {
+        List<Event> latest = new ArrayList<>(Math.min(n, 1024));
+        lock.readLock().lock();
+        try {
+            // merge the tails of every column backwards, latest first
+            PriorityQueue<Cursor> merge = new PriorityQueue<>(Collections.reverseOrder());
+            for (Column column : columns) {
+                if (column.size > 0) {
+                    merge.add(new Cursor(column, column.size - 1, -1));
+                }
+            }
+            while (latest.size() < n && !merge.isEmpty()) {
+                Cursor cursor = merge.poll();
+                latest.add(cursor.column.event(cursor.row, types));
+                if (--cursor.row > cursor.end) {
+                    merge.add(cursor);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Collections.reverse(latest);
+        return latest;
+    }
+
+    @Override
+    public Event latest() {
+        List<Event> last = last(1);
+        return last.isEmpty() ? null : last.get(0);
+    }
+
+    @Override
+    public Map<Integer, Integer> countByEntity() {
+        Map<Integer, Integer> counts = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            for (Column column : columns) {
+                counts.merge(column.entityId, column.size, Integer::sum);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return counts;
+    }
+
+    /**
+     * Gets the column an event belongs in, creating it if the event is the first of its kind
+     */
+    private Column columnFor(Event event) {
+        boolean actuator = event instanceof ActuatorEvent;
+        int typeCode = typeCodes.computeIfAbsent(event.getEntityType(), type -> {
+            types.add(type);
+            return types.size() - 1;
+        });
+        List<Column> ofEntity = columnsByEntity.computeIfAbsent(event.getEntityId(), id -> new ArrayList<>(1));
+        for (Column column : ofEntity) {
+            if (column.clientId == event.getClientId() && column.typeCode == typeCode && column.actuator == actuator) {
+                return column;
+            }
+        }
+        Column column = new Column(event.getClientId(), event.getEntityId(), typeCode, actuator);
+        ofEntity.add(column);
+        columns.add(column);
+        return column;
+    }
+
+    /*
+     * The events of one entity with one client ID, type and kind, in time order
+     */
+    private static final class Column {
+        private final int clientId;
+        private final int entityId;
+        private final int typeCode;
+        private final boolean actuator;
+        private double[] timestamps = new double[INITIAL_CAPACITY];
+        private int[] sequences = new int[INITIAL_CAPACITY];
+        private double[] values;
+        private final BitSet states;
+        private int size = 0;
+
+        Column(int clientId, int entityId, int typeCode, boolean actuator) {
+            this.clientId = clientId;
+            this.entityId = entityId;
+            this.typeCode = typeCode;
+            this.actuator = actuator;
+            this.values = actuator ? null : new double[INITIAL_CAPACITY];
+            this.states = actuator ? new BitSet() : null;
+        }
+
+        /**
+         * Inserts an event after every row with a timestamp at or before it. Events mostly
+         * arrive in time order, so this is nearly always an append.
+         */
+        void insert(Event event, int seq) {
+            if (size == timestamps.length) {
+                int capacity = size + (size >> 1);
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                sequences = Arrays.copyOf(sequences, capacity);
+                if (values != null) {
+                    values = Arrays.copyOf(values, capacity);
+                }
+            }
+            int row = firstAfter(event.getTimeStamp());
+            int moved = size - row;
+            if (moved > 0) {
+                System.arraycopy(timestamps, row, timestamps, row + 1, moved);
+                System.arraycopy(sequences, row, sequences, row + 1, moved);
+                if (values != null) {
+                    System.arraycopy(values, row, values, row + 1, moved);
+                } else {
+                    for (int i = size; i > row; i--) {
+                        states.set(i, states.get(i - 1));
+                    }
+                }
+            }
+            timestamps[row] = event.getTimeStamp();
+            sequences[row] = seq;
+            if (actuator) {
+                states.set(row, event.getValueBoolean());
+            } else {
+                values[row] = event.getValueDouble();
+            }
+            size++;
+        }
+
+        /**
+         * Removes the rows with the given arrival numbers, keeping the other rows in order
+         *
+         * @param removed the arrival numbers of the rows to remove, not null
+         * @return the number of rows removed
+         */
+        int removeAll(Set<Integer> removed) {
+            int kept = 0;
+            for (int row = 0; row < size; row++) {
+                if (removed.contains(sequences[row])) {
+                    continue;
+                }
+                timestamps[kept] = timestamps[row];
+                sequences[kept] = sequences[row];
+                if (actuator) {
+                    states.set(kept, states.get(row));
+                } else {
+                    values[kept] = values[row];
+                }
+                kept++;
+            }
+            int count = size - kept;
+            if (actuator) {
+                states.clear(kept, size);
+            }
+            size = kept;
+            return count;
+        }
+
+        /**
+         * @return the first row with a timestamp >= time, or size if there is none
+         */
+        int firstAtOrAfter(double time) {
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (timestamps[mid] < time) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        /**
+         * @return the first row with a timestamp > time, or size if there is none
+         */
+        int firstAfter(double time) {
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (timestamps[mid] <= time) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        EventKey key(int row) {
+            return new EventKey(timestamps[row], entityId, Integer.toUnsignedLong(sequences[row]));
+        }
+
+        Event event(int row, List<String> types) {
+            String type = types.get(typeCode);
+            if (actuator) {
+                return new ActuatorEvent(timestamps[row], clientId, entityId, type, states.get(row));
+            }
+            return new SensorEvent(timestamps[row], clientId, entityId, type, values[row]);
+        }
+    }
+
+    /*
+     * A row of a column being merged with the rows of other columns, ordered like EventKey
+     */
+    private static final class Cursor implements Comparable<Cursor> {
+        private final Column column;
+        private final int end;
+        private int row;
+
+        Cursor(Column column, int row, int end) {
+            this.column = column;
+            this.row = row;
+            this.end = end;
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            int byTime = Double.compare(column.timestamps[row], other.column.timestamps[other.row]);
+            if (byTime != 0) {
+                return byTime;
+            }
+            int byEntity = Integer.compare(other.column.entityId, column.entityId);
+            if (byEntity != 0) {
+                return byEntity;
+            }
+            return Integer.compareUnsigned(column.sequences[row], other.column.sequences[other.row]);
+        }
+    }
+}
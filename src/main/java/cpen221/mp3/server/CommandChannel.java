@@ -0,0 +1,74 @@
+package cpen221.mp3.server;
+
+/*
+ * The framing of the persistent command channel from an actuator dispatcher to an actuator.
+ * Every command goes on its own line as SEQUENCE_PREFIX, its sequence number, SEPARATOR and then
+ * the command, with sequence numbers increasing along the channel. The actuator answers every
+ * command it has processed, in order, with a line of ACK_PREFIX and the sequence number.
+ * Commands are pipelined: any number of them can be sent before their acks come back.
+ * A line without the prefix is a command from a sender that does not wait for acks.
+ */
+public class CommandChannel {
+    public static final String SEQUENCE_PREFIX = "Seq=";
+    public static final char SEPARATOR = '|';
+    public static final String ACK_PREFIX = "Ack=";
+    public static final long UNSEQUENCED = -1;
+
+    /**
+     * Frames a command with its sequence number
+     *
+     * @param sequence the sequence number of the command, >= 0
+     * @param command  the command, without a trailing newline, not null
+     * @return the line to send
+     */
+    public static String frame(long sequence, String command) {
+        return SEQUENCE_PREFIX + sequence + SEPARATOR + command;
+    }
+
+    /**
+     * @param line a line received on the channel, not null
+     * @return the sequence number of the command on the line, or UNSEQUENCED if it has none
+     */
+    public static long sequenceOf(String line) {
+        int separator = line.indexOf(SEPARATOR);
+        if (!line.startsWith(SEQUENCE_PREFIX) || separator < 0) {
+            return UNSEQUENCED;
+        }
+        try {
+            return Long.parseLong(line.substring(SEQUENCE_PREFIX.length(), separator));
+        } catch (NumberFormatException e) {
+            return UNSEQUENCED;
+        }
+    }
+
+    /**
+     * @param line a line received on the channel, not null
+     * @return the command on the line, without its sequence number if it has one
+     */
+    public static String commandOf(String line) {
+        return sequenceOf(line) == UNSEQUENCED ? line : line.substring(line.indexOf(SEPARATOR) + 1);
+    }
+
+    /**
+     * @param sequence the sequence number of a processed command, >= 0
+     * @return the line that acknowledges the command
+     */
+    public static String ack(long sequence) {
+        return ACK_PREFIX + sequence;
+    }
+
+    /**
+     * @param line a line sent back by the actuator, not null
+     * @return the sequence number the line acknowledges, or UNSEQUENCED if it is not an ack
+     */
+    public static long ackOf(String line) {
+        if (!line.startsWith(ACK_PREFIX)) {
+            return UNSEQUENCED;
+        }
+        try {
+            return Long.parseLong(line.substring(ACK_PREFIX.length()).trim());
+        } catch (NumberFormatException e) {
+            return UNSEQUENCED;
+        }
+    }
+}
@@ -4,42 +4,42 @@ import cpen221.mp3.client.Request;
 import cpen221.mp3.client.RequestCommand;
 import cpen221.mp3.client.RequestType;
 import cpen221.mp3.entity.Actuator;
-import cpen221.mp3.event.ActuatorEvent;
 import cpen221.mp3.event.Event;
-import cpen221.mp3.event.SensorEvent;
+import cpen221.mp3.event.EventBatch;
 
 import java.util.ArrayList;
+import java.util.List;
 
 public class Deserializer {
     /**
-     * @param in
-     * @return
+     * Deserializes an event produced by SensorEvent.toString() or ActuatorEvent.toString()
+     *
+     * @param in the serialized event, not null
+     * @return the event
      */
     public static Event deserializeEvent(String in) {
-        StringBuilder serializedRequest = new StringBuilder(in);
-        boolean acc;
-        acc = in.contains("ActuatorEvent");
-
-        double timestamp;
-        int clientID;
-        int entityID;
-        String EntityType;
+        return EventParser.parse(in);
+    }
 
-        serializedRequest.delete(0, ("TimeStamp=").length() + serializedRequest.indexOf("TimeStamp="));
-        timestamp = Double.parseDouble(serializedRequest.substring(0, serializedRequest.indexOf(",ClientId=")));
-        serializedRequest.delete(0, ",ClientId=".length() + serializedRequest.indexOf(",ClientId="));
-        clientID = Integer.parseInt(serializedRequest.substring(0, serializedRequest.indexOf(",EntityId=")));
-        serializedRequest.delete(0, ",EntityId=".length() + serializedRequest.indexOf(",EntityId="));
-        entityID = Integer.parseInt(serializedRequest.substring(0, serializedRequest.indexOf(",EntityType=")));
-        serializedRequest.delete(0, ",EntityType=".length() + serializedRequest.indexOf(",EntityType="));
-        EntityType = serializedRequest.substring(0, serializedRequest.indexOf(",Value="));
-        serializedRequest.delete(0, ",Value=".length() + serializedRequest.indexOf(",Value="));
-        if (acc) {
-            boolean value = Boolean.parseBoolean(serializedRequest.substring(0, serializedRequest.indexOf("}")));
-            return new ActuatorEvent(timestamp, clientID, entityID, EntityType, value);
+    /**
+     * Deserializes a frame of events produced by EventBatch.toString()
+     *
+     * @param in the serialized batch, not null
+     * @return the events in the batch, in the order they were generated
+     */
+    public static List<Event> deserializeEventBatch(String in) {
+        List<Event> events = new ArrayList<>();
+        int start = in.indexOf(",Events=") + ",Events=".length();
+        int end = in.lastIndexOf('}');
+        while (start < end) {
+            int next = in.indexOf(EventBatch.SEPARATOR, start);
+            if (next == -1 || next > end) {
+                next = end;
+            }
+            events.add(EventParser.parse(in, start, next));
+            start = next + EventBatch.SEPARATOR.length();
         }
-        double value = Double.parseDouble(serializedRequest.substring(0, serializedRequest.indexOf("}")));
-        return new SensorEvent(timestamp, clientID, entityID, EntityType, value);
+        return events;
     }
 
     /**
@@ -0,0 +1,209 @@
+package cpen221.mp3.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/*
+ * The number of events every entity of a client has generated, kept up to date as events
+ * are processed, together with the current most active entity.
+ * Counts only ever grow, so the leader only changes to the entity that was just counted.
+ * The top entities are found from the exact counts with a bounded heap, or, in sketch mode,
+ * from a space-saving summary of a fixed number of counters that is kept up to date with
+ * every event, for clients with too many entities to rank on every query.
+ */
+class EntityCounts {
+    private final IntIntMap counts = new IntIntMap();
+    private int leader = 0;
+    private int leaderCount = 0;
+    private SpaceSaving sketch = null;
+    // Abstraction function:
+    //    Represents counts.get(id) events counted for every entity id, where leader is the
+    //    entity with the most events, the largest ID among ties, with leaderCount events,
+    //    and sketch, if not null, approximates the most active entities
+
+    // Rep Invariant:
+    //    leaderCount == 0 if counts is empty, otherwise leaderCount == counts.get(leader) and
+    //    no entity has more events than leader, or as many with a larger ID
+
+    /**
+     * Counts one event of an entity
+     *
+     * @param entityId the ID of the entity
+     */
+    synchronized void increment(int entityId) {
+        int count = counts.increment(entityId);
+        if (count > leaderCount || (count == leaderCount && entityId > leader)) {
+            leader = entityId;
+            leaderCount = count;
+        }
+        if (sketch != null) {
+            sketch.increment(entityId);
+        }
+    }
+
+    /**
+     * @return the ID of the entity with the most events, the largest ID among ties,
+     * or 0 if no events were counted
+     */
+    synchronized int leader() {
+        return leader;
+    }
+
+    /**
+     * Switches the top entities to be found from a space-saving summary of a number of counters.
+     * The summary starts from the entities with the most events so far.
+     *
+     * @param capacity the number of counters, > 0; the top k entities are exact while
+     *                 k is well below capacity and activity is skewed
+     */
+    synchronized void useSketch(int capacity) {
+        SpaceSaving summary = new SpaceSaving(capacity);
+        for (int[] entry : exactTop(capacity)) {
+            summary.insert(entry[0], entry[1]);
+        }
+        sketch = summary;
+    }
+
+    /**
+     * Lists the entities with the most events
+     *
+     * @param k the most entities to list, >= 0
+     * @return up to k entity IDs, by decreasing number of events, larger IDs first among ties
+     */
+    synchronized List<Integer> top(int k) {
+        List<Integer> ids = new ArrayList<>();
+        for (int[] entry : sketch == null ? exactTop(k) : sketch.top(k)) {
+            ids.add(entry[0]);
+        }
+        return ids;
+    }
+
+    /**
+     * Finds the k entities with the most events with a heap of size k over every count
+     *
+     * @return pairs of entity ID and count, most events first, larger IDs first among ties
+     */
+    private List<int[]> exactTop(int k) {
+        List<int[]> top = new ArrayList<>();
+        if (k <= 0) {
+            return top;
+        }
+        PriorityQueue<int[]> heap = new PriorityQueue<>(EntityCounts::compareActivity);
+        counts.forEach((id, count) -> {
+            if (heap.size() < k) {
+                heap.add(new int[]{id, count});
+            } else if (compareActivity(new int[]{id, count}, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(new int[]{id, count});
+            }
+        });
+        while (!heap.isEmpty()) {
+            top.add(heap.poll());
+        }
+        Collections.reverse(top);
+        return top;
+    }
+
+    /**
+     * Orders pairs of entity ID and count from least to most active
+     */
+    private static int compareActivity(int[] a, int[] b) {
+        return a[1] != b[1] ? Integer.compare(a[1], b[1]) : Integer.compare(a[0], b[0]);
+    }
+
+    /*
+     * The space-saving summary: a fixed number of counters kept in a min-heap by count.
+     * An entity without a counter takes over the smallest one, inheriting its count.
+     */
+    private static final class SpaceSaving {
+        private final int[] ids;
+        private final int[] counts;
+        private final IntIntMap positions = new IntIntMap();
+        private int size = 0;
+
+        SpaceSaving(int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException();
+            }
+            ids = new int[capacity];
+            counts = new int[capacity];
+        }
+
+        void increment(int id) {
+            int at = positions.get(id);
+            if (at != IntIntMap.ABSENT) {
+                counts[at]++;
+                siftDown(at);
+            } else if (size < ids.length) {
+                insert(id, 1);
+            } else {
+                // replace the entity with the fewest events, overestimating the new one by its count
+                positions.remove(ids[0]);
+                counts[0]++;
+                ids[0] = id;
+                positions.put(id, 0);
+                siftDown(0);
+            }
+        }
+
+        void insert(int id, int count) {
+            ids[size] = id;
+            counts[size] = count;
+            positions.put(id, size);
+            siftUp(size++);
+        }
+
+        List<int[]> top(int k) {
+            int[][] entries = new int[size][];
+            for (int i = 0; i < size; i++) {
+                entries[i] = new int[]{ids[i], counts[i]};
+            }
+            Arrays.sort(entries, (a, b) -> compareActivity(b, a));
+            return Arrays.asList(entries).subList(0, Math.min(Math.max(k, 0), size));
+        }
+
+        private void siftUp(int at) {
+            while (at > 0) {
+                int parent = (at - 1) / 2;
+                if (counts[parent] <= counts[at]) {
+                    return;
+                }
+                swap(at, parent);
+                at = parent;
+            }
+        }
+
+        private void siftDown(int at) {
+            while (true) {
+                int smallest = at;
+                int left = 2 * at + 1;
+                int right = left + 1;
+                if (left < size && counts[left] < counts[smallest]) {
+                    smallest = left;
+                }
+                if (right < size && counts[right] < counts[smallest]) {
+                    smallest = right;
+                }
+                if (smallest == at) {
+                    return;
+                }
+                swap(at, smallest);
+                at = smallest;
+            }
+        }
+
+        private void swap(int i, int j) {
+            int id = ids[i];
+            int count = counts[i];
+            ids[i] = ids[j];
+            counts[i] = counts[j];
+            ids[j] = id;
+            counts[j] = count;
+            positions.put(ids[i], i);
+            positions.put(ids[j], j);
+        }
+    }
+}
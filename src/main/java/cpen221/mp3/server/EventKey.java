@@ -0,0 +1,98 @@
+package cpen221.mp3.server;
+
+import cpen221.mp3.event.Event;
+
+/*
+ * The position of an event in the time order the server reports events in:
+ * by increasing timestamp, then by decreasing entity ID for events with the same timestamp,
+ * then in the order the server received them.
+ */
+final class EventKey implements Comparable<EventKey> {
+    private final double timestamp;
+    private final int entityId;
+    private final long sequence;
+    // Abstraction function:
+    //    Represents the key of the sequence-th event received by a server,
+    //    which has the given timestamp and entityId
+
+    // Rep Invariant:
+    //    sequence >= 0, except for the range bounds made by first and last
+
+    /**
+     * Creates the key of a received event
+     *
+     * @param event    the event, not null
+     * @param sequence the number of events the server received before this one, >= 0
+     */
+    EventKey(Event event, long sequence) {
+        this(event.getTimeStamp(), event.getEntityId(), sequence);
+    }
+
+    /**
+     * Creates a key
+     *
+     * @param timestamp the timestamp of the event
+     * @param entityId  the entity ID of the event
+     * @param sequence  the number of events the server received before this one, >= 0
+     */
+    EventKey(double timestamp, int entityId, long sequence) {
+        this.timestamp = timestamp;
+        this.entityId = entityId;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Creates the smallest key with the given timestamp, for starting a range of keys
+     *
+     * @param timestamp the timestamp
+     * @return a key that comes before every key of an event at timestamp
+     */
+    static EventKey first(double timestamp) {
+        return new EventKey(timestamp, Integer.MAX_VALUE, Long.MIN_VALUE);
+    }
+
+    /**
+     * Creates the largest key with the given timestamp, for ending a range of keys
+     *
+     * @param timestamp the timestamp
+     * @return a key that comes after every key of an event at timestamp
+     */
+    static EventKey last(double timestamp) {
+        return new EventKey(timestamp, Integer.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    double getTimestamp() {
+        return timestamp;
+    }
+
+    int getEntityId() {
+        return entityId;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public int compareTo(EventKey other) {
+        int byTime = Double.compare(timestamp, other.timestamp);
+        if (byTime != 0) {
+            return byTime;
+        }
+        int byEntity = Integer.compare(other.entityId, entityId);
+        if (byEntity != 0) {
+            return byEntity;
+        }
+        return Long.compare(sequence, other.sequence);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof EventKey && compareTo((EventKey) o) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(sequence);
+    }
+}
@@ -0,0 +1,303 @@
+package cpen221.mp3.server;
+
+import cpen221.mp3.event.Event;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/*
+ * An append-only log of everything that changes the state of one server: the events it
+ * processes, the notify-if filters it is given and the reads of its logs. The log is kept
+ * in a directory as memory-mapped segment files of a fixed size, named by their number.
+ * A record is written as its length, a CRC32 of its contents, a kind byte and a body,
+ * and a segment ends at the first record whose length is 0 or whose checksum is wrong,
+ * so a record torn by a crash is dropped when the log is opened again.
+ * Records reach the page cache as soon as they are appended, which survives the process
+ * dying; the segment is forced to disk every syncEvery records, which survives the machine.
+ */
+public class EventLog implements AutoCloseable {
+    public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    private static final byte KIND_EVENT = 1;
+    private static final byte KIND_NOTIFY_IF = 2;
+    private static final byte KIND_READ_LOGS = 3;
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final int syncEvery;
+    private final int segmentBytes;
+    private final List<Path> segments = new ArrayList<>();
+    private final ByteBuffer scratch = ByteBuffer.allocate(1 + BinaryCodec.MAX_FRAME_LENGTH);
+    private final CRC32 crc = new CRC32();
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private int unsynced = 0;
+    // Abstraction function:
+    //    Represents the records in the segments of directory, in order, where records
+    //    are appended at the position of segment, the mapping of the last segment file,
+    //    and unsynced is the number of records appended since segment was last forced
+
+    // Rep Invariant:
+    //    syncEvery > 0, segmentBytes > HEADER_BYTES, segments is the segment files of directory
+    //    in increasing number, the last of which is mapped by segment through channel,
+    //    every byte of segment from its position on is 0, 0 <= unsynced < syncEvery
+
+    private EventLog(Path directory, int syncEvery, int segmentBytes) {
+        this.directory = directory;
+        this.syncEvery = syncEvery;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Opens the log in a directory, creating the directory if it does not exist.
+     * New records are appended after the last complete record already in the log.
+     *
+     * @param directory the directory of the log, not null
+     * @param syncEvery the number of records appended between forcing the log to disk, > 0
+     * @return the log
+     * @throws IOException if the log cannot be read or created
+     */
+    public static EventLog open(Path directory, int syncEvery) throws IOException {
+        return open(directory, syncEvery, DEFAULT_SEGMENT_BYTES);
+    }
+
+    /**
+     * Opens the log in a directory with segments of a given size
+     *
+     * @param directory    the directory of the log, not null
+     * @param syncEvery    the number of records appended between forcing the log to disk, > 0
+     * @param segmentBytes the size of a segment file, larger than any record
+     * @return the log
+     * @throws IOException if the log cannot be read or created
+     */
+    static EventLog open(Path directory, int syncEvery, int segmentBytes) throws IOException {
+        if (syncEvery <= 0 || segmentBytes <= HEADER_BYTES) {
+            throw new IllegalArgumentException();
+        }
+        EventLog log = new EventLog(directory, syncEvery, segmentBytes);
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .forEach(log.segments::add);
+        }
+        if (log.segments.isEmpty()) {
+            log.segments.add(directory.resolve(segmentName(0)));
+        }
+        try {
+            log.recover();
+        } catch (IOException | RuntimeException e) {
+            if (log.channel != null) {
+                log.channel.close();
+            }
+            throw e;
+        }
+        return log;
+    }
+
+    /**
+     * Receives the records of a log as it is replayed
+     */
+    public interface Replay {
+        void event(Event event);
+
+        void notifyIf(double logTimeStamp, String filter);
+
+        void readLogs();
+    }
+
+    /**
+     * Calls replay for every record in the log, in the order they were appended
+     *
+     * @param replay receives the records, not null
+     * @return the number of records replayed
+     * @throws IOException if the log cannot be read
+     */
+    public synchronized int replay(Replay replay) throws IOException {
+        int records = 0;
+        for (Path file : segments) {
+            ByteBuffer in;
+            if (file.equals(segments.get(segments.size() - 1))) {
+                in = segment.duplicate().flip();
+            } else {
+                try (FileChannel readChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    in = readChannel.map(FileChannel.MapMode.READ_ONLY, 0, readChannel.size());
+                }
+                in.limit(validEnd(in));
+            }
+            while (in.hasRemaining()) {
+                int length = in.getInt();
+                in.getInt();
+                int end = in.position() + length;
+                byte kind = in.get();
+                switch (kind) {
+                    case KIND_EVENT -> replay.event(BinaryCodec.decodeFrame(in));
+                    case KIND_NOTIFY_IF -> {
+                        double logTimeStamp = in.getDouble();
+                        byte[] filter = new byte[end - in.position()];
+                        in.get(filter);
+                        replay.notifyIf(logTimeStamp, new String(filter, StandardCharsets.UTF_8));
+                    }
+                    case KIND_READ_LOGS -> replay.readLogs();
+                    default -> throw new IOException("Unknown record kind " + kind + " in " + file);
+                }
+                in.position(end);
+                records++;
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Appends a processed event to the log
+     *
+     * @param event the event, not null
+     * @throws IOException if the log cannot be written
+     */
+    public synchronized void appendEvent(Event event) throws IOException {
+        scratch.clear();
+        scratch.put(KIND_EVENT);
+        BinaryCodec.encodeEvent(event, scratch);
+        append();
+    }
+
+    /**
+     * Appends a notify-if filter to the log
+     *
+     * @param logTimeStamp the time from which the filter applies
+     * @param filter       the serialized filter, as produced by Filter.toString(), not null
+     * @throws IOException if the log cannot be written
+     */
+    public synchronized void appendNotifyIf(double logTimeStamp, String filter) throws IOException {
+        byte[] bytes = filter.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > BinaryCodec.MAX_FRAME_LENGTH - Double.BYTES) {
+            throw new IllegalArgumentException("Filter too long to log");
+        }
+        scratch.clear();
+        scratch.put(KIND_NOTIFY_IF);
+        scratch.putDouble(logTimeStamp);
+        scratch.put(bytes);
+        append();
+    }
+
+    /**
+     * Appends a read of the logs to the log
+     *
+     * @throws IOException if the log cannot be written
+     */
+    public synchronized void appendReadLogs() throws IOException {
+        scratch.clear();
+        scratch.put(KIND_READ_LOGS);
+        append();
+    }
+
+    /**
+     * Forces every record appended so far to disk
+     *
+     * @throws IOException if the log cannot be written
+     */
+    public synchronized void sync() throws IOException {
+        segment.force();
+        unsynced = 0;
+    }
+
+    /**
+     * Forces the log to disk and closes it
+     *
+     * @throws IOException if the log cannot be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        sync();
+        channel.close();
+    }
+
+    /**
+     * Writes the record in scratch to the end of the log, starting a new segment if it does not fit
+     */
+    private void append() throws IOException {
+        scratch.flip();
+        int length = scratch.remaining();
+        if (HEADER_BYTES + length > segmentBytes) {
+            throw new IllegalArgumentException("Record too long for a segment");
+        }
+        if (segment.remaining() < HEADER_BYTES + length) {
+            segment.force();
+            channel.close();
+            segments.add(directory.resolve(segmentName(segments.size())));
+            mapLast();
+        }
+        crc.reset();
+        crc.update(scratch.duplicate());
+        // the length goes in last, so a partly written record is never read as complete
+        int start = segment.position();
+        segment.position(start + Integer.BYTES);
+        segment.putInt((int) crc.getValue());
+        segment.put(scratch);
+        segment.putInt(start, length);
+        if (++unsynced >= syncEvery) {
+            sync();
+        }
+    }
+
+    /**
+     * Maps the last segment and moves to the end of its complete records, clearing whatever
+     * a crash left after them
+     */
+    private void recover() throws IOException {
+        mapLast();
+        int end = validEnd(segment.duplicate());
+        if (end + Integer.BYTES <= segment.limit() && segment.getInt(end) != 0) {
+            System.out.println("Dropping a torn record at " + end + " of " + segments.get(segments.size() - 1));
+            for (int i = end; i < segment.limit(); i++) {
+                segment.put(i, (byte) 0);
+            }
+        }
+        segment.position(end);
+    }
+
+    private void mapLast() throws IOException {
+        channel = FileChannel.open(segments.get(segments.size() - 1),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentBytes, channel.size()));
+    }
+
+    /**
+     * Finds the end of the complete records at the start of a segment
+     *
+     * @param in the contents of a segment, not null
+     * @return the position after the last record that has a valid length and checksum
+     */
+    private int validEnd(ByteBuffer in) {
+        CRC32 check = new CRC32();
+        int position = 0;
+        while (position + HEADER_BYTES <= in.limit()) {
+            int length = in.getInt(position);
+            if (length <= 0 || length > in.limit() - position - HEADER_BYTES) {
+                break;
+            }
+            check.reset();
+            check.update(in.duplicate().position(position + HEADER_BYTES).limit(position + HEADER_BYTES + length));
+            if ((int) check.getValue() != in.getInt(position + Integer.BYTES)) {
+                break;
+            }
+            position += HEADER_BYTES + length;
+        }
+        return position;
+    }
+
+    private static String segmentName(int number) {
+        return String.format("segment-%08d%s", number, SEGMENT_SUFFIX);
+    }
+}
@@ -0,0 +1,443 @@
+package cpen221.mp3.server;
+
+import cpen221.mp3.event.ActuatorEvent;
+import cpen221.mp3.event.Event;
+import cpen221.mp3.event.SensorEvent;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Parses events in the text format produced by SensorEvent.toString() and ActuatorEvent.toString()
+ * in a single pass over the characters, without copying the input.
+ * Known entity types are returned as shared constants, and numbers are parsed in place,
+ * so parsing a typical event allocates nothing but the resulting Event.
+ * Doubles are converted with the Clinger fast path when the digits and the power of ten are
+ * both exact doubles, and with the Eisel-Lemire algorithm otherwise. The rare inputs where
+ * neither can decide the rounding are handed to Double.parseDouble, so every value is parsed
+ * exactly as Double.parseDouble parses it.
+ */
+public class EventParser {
+    private static final String SENSOR_PREFIX = "SensorEvent{";
+    private static final String ACTUATOR_PREFIX = "ActuatorEvent{";
+    private static final String TIMESTAMP = "TimeStamp=";
+    private static final String CLIENT_ID = ",ClientId=";
+    private static final String ENTITY_ID = ",EntityId=";
+    private static final String ENTITY_TYPE = ",EntityType=";
+    private static final String VALUE = ",Value=";
+
+    private static final String[] KNOWN_TYPES = {"TempSensor", "PressureSensor", "CO2Sensor", "Switch"};
+
+    // the largest mantissa a double holds exactly, and the powers of ten a double holds exactly
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    // 5^q for every q from MIN_POWER to MAX_POWER, as the top 128 bits of its binary expansion,
+    // truncated for q >= 0 and rounded up for q < 0
+    private static final int MIN_POWER = -342;
+    private static final int MAX_POWER = 308;
+    private static final long[] POWERS_OF_FIVE_HIGH = new long[MAX_POWER - MIN_POWER + 1];
+    private static final long[] POWERS_OF_FIVE_LOW = new long[MAX_POWER - MIN_POWER + 1];
+    private static final long NOT_DECIDED = -1L;
+
+    static {
+        BigInteger five = BigInteger.valueOf(5);
+        for (int q = MIN_POWER; q <= MAX_POWER; q++) {
+            BigInteger power = five.pow(Math.abs(q));
+            BigInteger top;
+            if (q >= 0) {
+                int shift = power.bitLength() - 128;
+                top = shift > 0 ? power.shiftRight(shift) : power.shiftLeft(-shift);
+            } else {
+                int z = power.bitLength();
+                int b = (q >= -27) ? z + 127 : 2 * z + 128;
+                top = BigInteger.ONE.shiftLeft(b).divide(power).add(BigInteger.ONE);
+                if (top.bitLength() > 128) {
+                    top = top.shiftRight(top.bitLength() - 128);
+                }
+            }
+            POWERS_OF_FIVE_HIGH[q - MIN_POWER] = top.shiftRight(64).longValue();
+            POWERS_OF_FIVE_LOW[q - MIN_POWER] = top.longValue();
+        }
+    }
+
+    // one reusable cursor per thread, so parsing allocates nothing but the event
+    private static final ThreadLocal<Cursor> CURSOR = ThreadLocal.withInitial(Cursor::new);
+
+    /**
+     * Parses a serialized event
+     *
+     * @param in the serialized event, not null
+     * @return the event
+     * @throws IllegalArgumentException if in is not a serialized event
+     */
+    public static Event parse(CharSequence in) {
+        return parse(in, 0, in.length());
+    }
+
+    /**
+     * Parses a serialized event that takes up part of a character sequence
+     *
+     * @param in   the characters holding the serialized event, not null
+     * @param from the index of the first character of the event
+     * @param to   the index after the last character of the event, from <= to <= in.length()
+     * @return the event
+     * @throws IllegalArgumentException if the range does not hold a serialized event
+     */
+    public static Event parse(CharSequence in, int from, int to) {
+        return CURSOR.get().event(in, from, to);
+    }
+
+    /**
+     * Parses a serialized event from the UTF-8 bytes of a line. Only the entity type of an
+     * event may contain bytes outside ASCII, and it is decoded as UTF-8 if it does.
+     *
+     * @param bytes the bytes holding the serialized event, not null
+     * @param from  the index of the first byte of the event
+     * @param to    the index after the last byte of the event, from <= to <= bytes.length
+     * @return the event
+     * @throws IllegalArgumentException if the range does not hold a serialized event
+     */
+    public static Event parse(byte[] bytes, int from, int to) {
+        Cursor cursor = CURSOR.get();
+        cursor.bytes.bytes = bytes;
+        try {
+            return cursor.event(cursor.bytes, from, to);
+        } finally {
+            cursor.bytes.bytes = null;
+        }
+    }
+
+    /**
+     * Checks whether a line starts like a serialized event
+     *
+     * @param bytes the bytes holding the line, not null
+     * @param from  the index of the first byte of the line
+     * @param to    the index after the last byte of the line
+     * @return true if the line starts with the prefix of a SensorEvent or ActuatorEvent
+     */
+    public static boolean isEvent(byte[] bytes, int from, int to) {
+        return startsWith(bytes, from, to, SENSOR_PREFIX) || startsWith(bytes, from, to, ACTUATOR_PREFIX);
+    }
+
+    private static boolean startsWith(byte[] bytes, int from, int to, String prefix) {
+        if (to - from < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (bytes[from + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * The position of the parser in the characters of the event being parsed
+     */
+    private static class Cursor {
+        private final AsciiChars bytes = new AsciiChars();
+        private CharSequence in;
+        private int to;
+        private int pos;
+
+        Event event(CharSequence in, int from, int to) {
+            this.in = in;
+            this.pos = from;
+            this.to = to;
+            try {
+                return event();
+            } finally {
+                this.in = null;
+            }
+        }
+
+        private Event event() {
+            boolean actuator;
+            if (skip(SENSOR_PREFIX)) {
+                actuator = false;
+            } else if (skip(ACTUATOR_PREFIX)) {
+                actuator = true;
+            } else {
+                throw error("event prefix");
+            }
+            expect(TIMESTAMP);
+            double timestamp = parseDouble(',');
+            expect(CLIENT_ID);
+            int clientId = parseInt(',');
+            expect(ENTITY_ID);
+            int entityId = parseInt(',');
+            expect(ENTITY_TYPE);
+            String type = parseType();
+            expect(VALUE);
+            if (actuator) {
+                return new ActuatorEvent(timestamp, clientId, entityId, type, parseBoolean());
+            }
+            return new SensorEvent(timestamp, clientId, entityId, type, parseDouble('}'));
+        }
+
+        private boolean skip(String literal) {
+            int n = literal.length();
+            if (to - pos < n) {
+                return false;
+            }
+            for (int i = 0; i < n; i++) {
+                if (in.charAt(pos + i) != literal.charAt(i)) {
+                    return false;
+                }
+            }
+            pos += n;
+            return true;
+        }
+
+        private void expect(String literal) {
+            if (!skip(literal)) {
+                throw error(literal);
+            }
+        }
+
+        private int end(char terminator) {
+            int end = pos;
+            while (end < to && in.charAt(end) != terminator) {
+                end++;
+            }
+            if (end == to) {
+                throw error(String.valueOf(terminator));
+            }
+            return end;
+        }
+
+        private String parseType() {
+            int end = end(',');
+            int length = end - pos;
+            for (String known : KNOWN_TYPES) {
+                if (known.length() == length && skip(known)) {
+                    return known;
+                }
+            }
+            String type = in.subSequence(pos, end).toString();
+            pos = end;
+            return type;
+        }
+
+        private int parseInt(char terminator) {
+            int end = end(terminator);
+            int i = pos;
+            boolean negative = i < end && in.charAt(i) == '-';
+            if (negative) {
+                i++;
+            }
+            if (i == end) {
+                throw new NumberFormatException("Expected an integer at index " + pos);
+            }
+            long value = 0;
+            for (; i < end; i++) {
+                int digit = in.charAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new NumberFormatException("Expected an integer at index " + pos);
+                }
+                value = value * 10 + digit;
+                if (value > (long) Integer.MAX_VALUE + 1) {
+                    throw new NumberFormatException("Integer out of range at index " + pos);
+                }
+            }
+            value = negative ? -value : value;
+            if (value > Integer.MAX_VALUE) {
+                throw new NumberFormatException("Integer out of range at index " + pos);
+            }
+            pos = end;
+            return (int) value;
+        }
+
+        private boolean parseBoolean() {
+            int end = end('}');
+            // Boolean.parseBoolean: true ignoring case, false for anything else
+            boolean value = end - pos == 4
+                    && Character.toLowerCase(in.charAt(pos)) == 't'
+                    && Character.toLowerCase(in.charAt(pos + 1)) == 'r'
+                    && Character.toLowerCase(in.charAt(pos + 2)) == 'u'
+                    && Character.toLowerCase(in.charAt(pos + 3)) == 'e';
+            pos = end;
+            return value;
+        }
+
+        /**
+         * Parses a double written by Double.toString, rounding exactly as Double.parseDouble does
+         */
+        private double parseDouble(char terminator) {
+            int end = end(terminator);
+            int i = pos;
+            boolean negative = i < end && in.charAt(i) == '-';
+            if (negative) {
+                i++;
+            }
+            long mantissa = 0;
+            int digits = 0;
+            int exponent = 0;
+            boolean seenDigit = false;
+            boolean seenPoint = false;
+            for (; i < end; i++) {
+                char c = in.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    seenDigit = true;
+                    if (mantissa != 0 || c != '0') {
+                        digits++;
+                    }
+                    if (digits > 18) {
+                        return slowDouble(end);
+                    }
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (seenPoint) {
+                        exponent--;
+                    }
+                } else if (c == '.' && !seenPoint) {
+                    seenPoint = true;
+                } else {
+                    break;
+                }
+            }
+            if (!seenDigit) {
+                return slowDouble(end);
+            }
+            if (i < end) {
+                char c = in.charAt(i);
+                if (c != 'E' && c != 'e') {
+                    return slowDouble(end);
+                }
+                i++;
+                boolean negativeExponent = i < end && in.charAt(i) == '-';
+                if (negativeExponent || (i < end && in.charAt(i) == '+')) {
+                    i++;
+                }
+                if (i == end) {
+                    return slowDouble(end);
+                }
+                int written = 0;
+                for (; i < end; i++) {
+                    int digit = in.charAt(i) - '0';
+                    if (digit < 0 || digit > 9 || written > 1000) {
+                        return slowDouble(end);
+                    }
+                    written = written * 10 + digit;
+                }
+                exponent += negativeExponent ? -written : written;
+            }
+            double value;
+            if (mantissa == 0) {
+                value = 0.0;
+            } else if (mantissa < MAX_EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+                // both operands are exact, so the one rounding of the division or multiplication is correct
+                value = exponent < 0
+                        ? mantissa / POWERS_OF_TEN[-exponent]
+                        : mantissa * POWERS_OF_TEN[exponent];
+            } else {
+                long bits = eiselLemire(mantissa, exponent);
+                if (bits == NOT_DECIDED) {
+                    return slowDouble(end);
+                }
+                value = Double.longBitsToDouble(bits);
+            }
+            pos = end;
+            return negative ? -value : value;
+        }
+
+        private double slowDouble(int end) {
+            double value = Double.parseDouble(in.subSequence(pos, end).toString());
+            pos = end;
+            return value;
+        }
+
+        private IllegalArgumentException error(String expected) {
+            return new IllegalArgumentException("Expected " + expected + " at index " + pos + " of event");
+        }
+    }
+
+    /**
+     * Converts mantissa * 10^exponent to the nearest double with the algorithm of Eisel and Lemire
+     * ("Number Parsing at a Gigabyte per Second", 2021)
+     *
+     * @param mantissa the decimal digits, > 0
+     * @param exponent the power of ten
+     * @return the bits of the nearest positive double, or NOT_DECIDED if the truncated powers of
+     * five are not precise enough to decide the rounding, or the result is subnormal or infinite
+     */
+    private static long eiselLemire(long mantissa, int exponent) {
+        if (exponent < MIN_POWER || exponent > MAX_POWER) {
+            return NOT_DECIDED;
+        }
+        long powerHigh = POWERS_OF_FIVE_HIGH[exponent - MIN_POWER];
+        long binaryExponent = (((152170L + 65536L) * exponent) >> 16) + 1024 + 63;
+        int leadingZeros = Long.numberOfLeadingZeros(mantissa);
+        long w = mantissa << leadingZeros;
+
+        long lower = w * powerHigh;
+        long upper = unsignedMultiplyHigh(w, powerHigh);
+        if ((upper & 0x1FF) == 0x1FF && Long.compareUnsigned(lower + w, lower) < 0) {
+            // the product may be off by the truncated bits of the power, include the next 64 of them
+            long powerLow = POWERS_OF_FIVE_LOW[exponent - MIN_POWER];
+            long productLow = w * powerLow;
+            long middle = lower + unsignedMultiplyHigh(w, powerLow);
+            if (Long.compareUnsigned(middle, lower) < 0) {
+                upper++;
+            }
+            if (middle + 1 == 0 && (upper & 0x1FF) == 0x1FF
+                    && Long.compareUnsigned(productLow + w, productLow) < 0) {
+                return NOT_DECIDED;
+            }
+            lower = middle;
+        }
+
+        long upperBit = upper >>> 63;
+        long bits = upper >>> (upperBit + 9);
+        leadingZeros += (int) (1 ^ upperBit);
+        if (lower == 0 && (upper & 0x1FF) == 0 && (bits & 3) == 1) {
+            // exactly halfway between two doubles as far as the product can tell
+            return NOT_DECIDED;
+        }
+        bits += bits & 1;
+        bits >>>= 1;
+        if (bits >= (1L << 53)) {
+            bits = 1L << 52;
+            leadingZeros--;
+        }
+        bits &= ~(1L << 52);
+        long biasedExponent = binaryExponent - leadingZeros;
+        if (biasedExponent < 1 || biasedExponent > 2046) {
+            return NOT_DECIDED;
+        }
+        return bits | (biasedExponent << 52);
+    }
+
+    private static long unsignedMultiplyHigh(long x, long y) {
+        return Math.multiplyHigh(x, y) + ((x >> 63) & y) + ((y >> 63) & x);
+    }
+
+    /*
+     * A CharSequence view of ASCII bytes that can be pointed at a new array without allocating
+     */
+    private static class AsciiChars implements CharSequence {
+        private byte[] bytes;
+
+        @Override
+        public int length() {
+            return bytes.length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package cpen221.mp3.server;
+
+/*
+ * How a Server keeps the events it has received
+ */
+public enum EventStorage {
+    // every event is kept as the object that was received, in a skip list ordered by time
+    HEAP,
+    // the events of every entity are kept in primitive columns, and rebuilt when a query returns them
+    COLUMNAR,
+    // events are kept as fixed-width records in direct buffers outside the heap, and rebuilt when a query returns them
+    OFF_HEAP
+}
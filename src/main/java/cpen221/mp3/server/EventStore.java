@@ -0,0 +1,119 @@
+package cpen221.mp3.server;
+
+import cpen221.mp3.event.Event;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/*
+ * The events a server has received for its client, kept in the order given by EventKey
+ * so that time range queries only visit the events in the range.
+ * Events can be added by one thread while others query the store.
+ */
+interface EventStore {
+
+    /**
+     * Creates an empty store of the given kind
+     *
+     * @param storage the kind of store, not null
+     * @return a new empty store
+     */
+    static EventStore of(EventStorage storage) {
+        return switch (storage) {
+            case HEAP -> new SkipListEventStore();
+            case COLUMNAR -> new ColumnarEventStore();
+            case OFF_HEAP -> new OffHeapEventStore();
+        };
+    }
+
+    /**
+     * Adds a received event to the store
+     *
+     * @param event the event, not null
+     * @return the key the event is stored under, unique within this store,
+     * and never reused after the event is removed
+     */
+    EventKey add(Event event);
+
+    /**
+     * Gets the number of events in the store
+     *
+     * @return the number of events added so far
+     */
+    int size();
+
+    /**
+     * Lists the events whose timestamp is in a range, in time order
+     *
+     * @param startTime the start of the range, inclusive
+     * @param endTime   the end of the range, inclusive
+     * @return the events with startTime <= timestamp <= endTime, in time order
+     */
+    List<Event> window(double startTime, double endTime);
+
+    /**
+     * Calls an action for every event whose timestamp is in a range, in time order
+     *
+     * @param startTime the start of the range, inclusive
+     * @param endTime   the end of the range, inclusive
+     * @param action    called with the key and the event of every event in the range, not null
+     */
+    void forEachInWindow(double startTime, double endTime, BiConsumer<EventKey, Event> action);
+
+    /**
+     * Lists the latest events in time order
+     *
+     * @param n the most events to list, >= 0
+     * @return the last min(n, size()) events in time order, in time order
+     */
+    List<Event> last(int n);
+
+    /**
+     * Gets the event with the latest timestamp
+     *
+     * @return the last event in time order, or null if the store is empty
+     */
+    Event latest();
+
+    /**
+     * Calls an action for the earliest events in time order
+     *
+     * @param n      the most events to visit, >= 0
+     * @param action called with the key and the event of the first min(n, size()) events
+     *               in time order, not null
+     */
+    void forEachOldest(int n, BiConsumer<EventKey, Event> action);
+
+    /**
+     * Removes events from the store
+     *
+     * @param keys the keys of the events to remove, as returned by add, not null
+     * @return the number of events removed
+     */
+    int removeAll(Collection<EventKey> keys);
+
+    /**
+     * Lists every event in the store in time order
+     *
+     * @return every event in time order
+     */
+    default List<Event> all() {
+        return window(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Counts the events of every entity in the store
+     *
+     * @return a map from every entity ID with events in the store to its number of events
+     */
+    default Map<Integer, Integer> countByEntity() {
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (Event e : all()) {
+            counts.merge(e.getEntityId(), 1, Integer::sum);
+        }
+        return counts;
+    }
+}
@@ -4,6 +4,7 @@ import cpen221.mp3.event.Event;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 enum DoubleOperator {
@@ -28,6 +29,16 @@ public class Filter {
     private String field;
     private final List<Filter> filters;
     private final FilterType filterType;
+    private final Predicate<Event> compiled;
+    // Abstraction function:
+    //    Represents the filter described by filterType and its operator, field and value,
+    //    or the conjunction of filters if filterType is MULTI. compiled tests an event against
+    //    that description, with the operator and field resolved when the filter was constructed.
+
+    // Rep Invariant:
+    //    filters, filterType, compiled != null,
+    //    field is "value" or "timestamp" if filterType is DOUBLE,
+    //    compiled.test(e) == satisfies(e) as described by the fields for every event e
 
     /**
      * Constructs a filter that compares the boolean (actuator) event value
@@ -46,6 +57,7 @@ public class Filter {
         this.valueB = value;
         this.filterType = FilterType.BOOL;
         this.filters = new ArrayList<>();
+        this.compiled = compileBool(operator, value);
     }
 
     /**
@@ -76,18 +88,21 @@ public class Filter {
         this.valueD = value;
         this.filters = new ArrayList<>();
         this.filterType = FilterType.DOUBLE;
+        this.compiled = compileDouble(operator, field.equals("timestamp"), value);
     }
 
     /**
      * A filter can be composed of other filters.
      * in this case, the filter should satisfy all the filters in the list.
      * Constructs a complex filter composed of other filters.
+     * The filters in the list are read when this filter is constructed.
      *
      * @param filters the list of filters to use in the composition
      */
     public Filter(List<Filter> filters) {
         this.filters = filters;
         this.filterType = FilterType.MULTI;
+        this.compiled = compileAll(filters);
     }
 
     /**
@@ -97,18 +112,16 @@ public class Filter {
      * @return true if the event satisfies the filter criteria, false otherwise
      */
     public boolean satisfies(Event event) {
-        switch (this.filterType) {
-            case BOOL -> {
-                return satisfiesBoolOperator(this.operatorB, event);
-            }
-            case DOUBLE -> {
-                return satisfiesDoubleOperator(this.operatorD, this.field, event);
-            }
-            case MULTI -> {
-                return satisfiesMultipleFilters(filters, event);
-            }
-        }
-        return false;
+        return compiled.test(event);
+    }
+
+    /**
+     * Returns the compiled form of this filter, for callers that test many events against it
+     *
+     * @return a predicate that is true exactly for the events that satisfy this filter
+     */
+    public Predicate<Event> asPredicate() {
+        return compiled;
     }
 
     /**
@@ -119,7 +132,7 @@ public class Filter {
      */
     public boolean satisfies(List<Event> events) {
         for (Event e : events) {
-            if (!(satisfies(e))) {
+            if (!(compiled.test(e))) {
                 return false;
             }
         }
@@ -134,7 +147,7 @@ public class Filter {
      * @return a new event if it satisfies the filter criteria, null otherwise
      */
     public Event sift(Event event) {
-        return (satisfies(event)) ? event : null;
+        return (compiled.test(event)) ? event : null;
     }
 
     /**
@@ -146,8 +159,7 @@ public class Filter {
      * or an empty list if no events in the given list satisfy the filter criteria
      */
     public List<Event> sift(List<Event> events) {
-        // idk if parallelStream breaks stuff so plz check
-        return events.parallelStream().filter(this::satisfies).collect(Collectors.toList());
+        return events.stream().filter(compiled).collect(Collectors.toList());
     }
 
     @Override
@@ -194,80 +206,93 @@ public class Filter {
     }
 
     /**
-     * Checks if a given event satisfies a certain boolean operator of this filter (equals, not equals)
-     * Compares the value of the event with this instance of filters boolean value
+     * Compiles a boolean filter, which compares the boolean (actuator) value of an event
      *
-     * @param operator The boolean operator to be applied
-     * @param event    An event to compare, not null, and an ActuatorEvent.
-     * @return true if the event satisfies the BooleanOperator, false otherwise
+     * @param operator the boolean operator to be applied, not null
+     * @param value    the value to compare with
+     * @return a predicate that applies operator to the boolean value of an event and value
      */
-    private boolean satisfiesBoolOperator(BooleanOperator operator, Event event) {
-        switch (operator) {
-            case EQUALS -> {
-                return event.getValueBoolean() == this.valueB;
-            }
-            case NOT_EQUALS -> {
-                return event.getValueBoolean() != this.valueB;
-            }
+    private static Predicate<Event> compileBool(BooleanOperator operator, boolean value) {
+        return switch (operator) {
+            case EQUALS -> e -> e.getValueBoolean() == value;
+            case NOT_EQUALS -> e -> e.getValueBoolean() != value;
+        };
+    }
+
+    /**
+     * Compiles a double filter, with one predicate for every field and operator
+     * so no field or operator is looked up per event
+     *
+     * @param operator  the double operator to be applied, not null
+     * @param timestamp true to compare the timestamp of an event, false to compare its double value
+     * @param value     the value to compare with
+     * @return a predicate that applies operator to the field of an event and value
+     */
+    private static Predicate<Event> compileDouble(DoubleOperator operator, boolean timestamp, double value) {
+        if (timestamp) {
+            return switch (operator) {
+                case EQUALS -> e -> e.getTimeStamp() == value;
+                case LESS_THAN -> e -> e.getTimeStamp() < value;
+                case GREATER_THAN -> e -> e.getTimeStamp() > value;
+                case LESS_THAN_OR_EQUALS -> e -> e.getTimeStamp() <= value;
+                case GREATER_THAN_OR_EQUALS -> e -> e.getTimeStamp() >= value;
+            };
         }
-        return false;
+        return switch (operator) {
+            case EQUALS -> e -> e.getValueDouble() == value;
+            case LESS_THAN -> e -> e.getValueDouble() < value;
+            case GREATER_THAN -> e -> e.getValueDouble() > value;
+            case LESS_THAN_OR_EQUALS -> e -> e.getValueDouble() <= value;
+            case GREATER_THAN_OR_EQUALS -> e -> e.getValueDouble() >= value;
+        };
     }
 
     /**
-     * Checks if a given event satisfies a certain double operator of this filter
-     * Compares either the timestamp or double value of the event with this
-     * instance of filters values
+     * Compiles a composed filter into one flat conjunction of its simple filters,
+     * so nested compositions do not recurse per event
      *
-     * @param operator the double operator to be applied
-     * @param field    which value to compare
-     * @param event    An event to compare, not null, and a SensorEvent.
-     * @return true if the event satisfies the double operator, false otherwise
+     * @param filters the filters to compose, not null
+     * @return a predicate that is true if an event satisfies every filter
      */
-    private boolean satisfiesDoubleOperator(DoubleOperator operator, String field, Event event) {
-        double matchValue;
-        if (field.equals("timestamp")) {
-            matchValue = event.getTimeStamp();
-        } else {
-            matchValue = event.getValueDouble();
+    private static Predicate<Event> compileAll(List<Filter> filters) {
+        List<Predicate<Event>> simple = new ArrayList<>();
+        for (Filter filter : filters) {
+            filter.collectSimple(simple);
         }
-        switch (operator) {
-            case EQUALS -> {
-                return valueD == matchValue;
-            }
-            case LESS_THAN -> {
-                return valueD > matchValue;
+        switch (simple.size()) {
+            case 0 -> {
+                return e -> true;
             }
-            case GREATER_THAN -> {
-                return valueD < matchValue;
+            case 1 -> {
+                return simple.get(0);
             }
-            case LESS_THAN_OR_EQUALS -> {
-                return valueD >= matchValue;
+            case 2 -> {
+                Predicate<Event> first = simple.get(0);
+                Predicate<Event> second = simple.get(1);
+                return e -> first.test(e) && second.test(e);
             }
-            case GREATER_THAN_OR_EQUALS -> {
-                return valueD <= matchValue;
+            default -> {
+                List<Predicate<Event>> all = List.copyOf(simple);
+                return e -> {
+                    for (Predicate<Event> p : all) {
+                        if (!p.test(e)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                };
             }
         }
-        return false;
     }
 
-    /**
-     * Checks if a list of filters satisfies a given event
-     *
-     * @param filters list of filters to check if each satisfies an event, not null
-     * @param event   event to see if it satisfies the list of filters
-     * @return true if the event satisfies all filters, false otherwise
-     */
-
-    private boolean satisfiesMultipleFilters(List<Filter> filters, Event event) {
-        for (Filter filter : filters) {
-            if (filter.filters.isEmpty()) {
-                if (!filter.satisfies(event)) {
-                    return false;
-                }
+    private void collectSimple(List<Predicate<Event>> simple) {
+        if (filterType == FilterType.MULTI) {
+            for (Filter filter : filters) {
+                filter.collectSimple(simple);
             }
-            if (!satisfiesMultipleFilters(filter.filters, event)) return false;
+        } else {
+            simple.add(compiled);
         }
-        return true;
     }
 
     public enum FilterType {
@@ -0,0 +1,12 @@
+package cpen221.mp3.server;
+
+/*
+ * The signals a message handler writes back on a persistent entity connection, one byte each,
+ * when it stops reading from the connection because its ingress budget is used up, and when
+ * it starts reading again. They are the XOFF and XON control characters, which are never
+ * written by the server otherwise once the binary hello has been answered.
+ */
+public class FlowControl {
+    public static final byte SLOW_DOWN = 0x13;
+    public static final byte RESUME = 0x11;
+}
@@ -0,0 +1,142 @@
+package cpen221.mp3.server;
+
+/*
+ * A map from int to non-negative int that stores both in primitive arrays, with open
+ * addressing and linear probing, so that no key or value is ever boxed
+ */
+class IntIntMap {
+    static final int ABSENT = -1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] keys = new int[INITIAL_CAPACITY];
+    private int[] values = new int[INITIAL_CAPACITY];
+    private boolean[] used = new boolean[INITIAL_CAPACITY];
+    private int size = 0;
+    // Abstraction function:
+    //    Represents the map from keys[i] to values[i] for every i with used[i]
+
+    // Rep Invariant:
+    //    keys.length == values.length == used.length is a power of 2, size is the number of
+    //    used slots, size <= keys.length / 2, every used key is in the slot it hashes to or
+    //    after it with no unused slot between, values[i] >= 0 for every used i
+
+    /**
+     * @return the value of key, or ABSENT if key is not in the map
+     */
+    int get(int key) {
+        int slot = find(key);
+        return used[slot] ? values[slot] : ABSENT;
+    }
+
+    /**
+     * Maps a key to a value
+     *
+     * @param key   the key
+     * @param value the value, >= 0
+     */
+    void put(int key, int value) {
+        int slot = find(key);
+        if (!used[slot]) {
+            keys[slot] = key;
+            used[slot] = true;
+            size++;
+        }
+        values[slot] = value;
+        if (size > keys.length / 2) {
+            resize();
+        }
+    }
+
+    /**
+     * Adds one to the value of a key, which is 0 if the key is not in the map
+     *
+     * @param key the key
+     * @return the new value of key
+     */
+    int increment(int key) {
+        int slot = find(key);
+        if (used[slot]) {
+            return ++values[slot];
+        }
+        put(key, 1);
+        return 1;
+    }
+
+    /**
+     * Removes a key from the map, moving back the keys probed after it
+     *
+     * @param key the key
+     */
+    void remove(int key) {
+        int slot = find(key);
+        if (!used[slot]) {
+            return;
+        }
+        used[slot] = false;
+        size--;
+        int mask = keys.length - 1;
+        int next = (slot + 1) & mask;
+        while (used[next]) {
+            int home = hash(keys[next]) & mask;
+            // move the key back if its home is not between the hole and its slot
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                keys[slot] = keys[next];
+                values[slot] = values[next];
+                used[slot] = true;
+                used[next] = false;
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Calls an action with every key and value in the map, in no particular order
+     *
+     * @param action called with each key and its value, not null
+     */
+    void forEach(Entries action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                action.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    interface Entries {
+        void accept(int key, int value);
+    }
+
+    private int find(int key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (used[slot] && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        used = new boolean[oldKeys.length * 2];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,100 @@
+package cpen221.mp3.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * A latency histogram that any number of threads can record into without locking.
+ * Latencies are counted in buckets by their highest set bit, so a percentile is reported
+ * as the upper bound of its bucket, at most twice the true value.
+ */
+public class LatencyStats {
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+    // Abstraction function:
+    //    Represents count latencies adding up to total nanoseconds, the largest of which is max,
+    //    where buckets[b] latencies had their highest set bit at b, or were 0 if b == 0
+
+    // Rep Invariant:
+    //    count is the sum of buckets, total >= 0, max >= 0
+
+    /**
+     * Records one latency
+     *
+     * @param nanos the latency in nanoseconds; negative latencies are recorded as 0
+     */
+    public void record(long nanos) {
+        long latency = Math.max(0, nanos);
+        buckets.incrementAndGet(latency == 0 ? 0 : 63 - Long.numberOfLeadingZeros(latency));
+        count.increment();
+        total.add(latency);
+        long previous;
+        while (latency > (previous = max.get()) && !max.compareAndSet(previous, latency)) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * @return the number of latencies recorded
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * @return the mean latency in nanoseconds, or 0 if none were recorded
+     */
+    public double meanNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) total.sum() / n;
+    }
+
+    /**
+     * @return the largest latency recorded in nanoseconds, or 0 if none were recorded
+     */
+    public long maxNanos() {
+        return max.get();
+    }
+
+    /**
+     * Estimates a percentile of the latencies recorded
+     *
+     * @param percentile the percentile, in [0, 100]
+     * @return an upper bound of the percentile in nanoseconds, within a factor of 2 and at most
+     * the largest latency, or 0 if none were recorded
+     */
+    public long percentileNanos(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long n = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            counts[b] = buckets.get(b);
+            n += counts[b];
+        }
+        long rank = (long) Math.ceil(percentile / 100 * n);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += counts[b];
+            if (seen >= rank && seen > 0) {
+                long upper = b == 0 ? 0 : (b >= 62 ? Long.MAX_VALUE : (1L << (b + 1)) - 1);
+                return Math.min(upper, maxNanos());
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyStats{" +
+                "Count=" + count() +
+                ",MeanMicros=" + Math.round(meanNanos() / 1000) +
+                ",P50Micros=" + percentileNanos(50) / 1000 +
+                ",P99Micros=" + percentileNanos(99) / 1000 +
+                ",MaxMicros=" + maxNanos() / 1000 +
+                '}';
+    }
+}
@@ -0,0 +1,115 @@
+package cpen221.mp3.server;
+
+import cpen221.mp3.event.Event;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+
+/*
+ * The latest events of a server in time order, kept up to date as events are added so that
+ * the latest n events can be listed without going to the event store.
+ * The tail holds as many events as the largest n asked for, up to MAX_CAPACITY, and the
+ * answer to the last query is kept until the next event arrives, so repeated polls for
+ * the same n only copy a list.
+ */
+class LatestEvents {
+    static final int MAX_CAPACITY = 4096;
+
+    private final TreeMap<EventKey, Event> tail = new TreeMap<>();
+    private int capacity = 0;
+    private List<Event> cached = null;
+    private int cachedN = -1;
+    // Abstraction function:
+    //    Represents the latest capacity events of the store, which are the events of tail
+    //    in key order, where cached, if not null, is the latest cachedN of them
+
+    // Rep Invariant:
+    //    0 <= capacity <= MAX_CAPACITY, tail.size() <= capacity, tail holds the latest
+    //    tail.size() events of the store, and all of them if tail.size() < capacity
+
+    /**
+     * Lists the latest events of the store in time order
+     *
+     * @param n     the most events to list, >= 0
+     * @param store the events of the server, not null
+     * @return the last min(n, store.size()) events in time order
+     */
+    synchronized List<Event> last(int n, EventStore store) {
+        if (n > MAX_CAPACITY) {
+            return store.last(n);
+        }
+        if (n > capacity) {
+            seed(n, store);
+        }
+        if (cached == null || cachedN != n) {
+            List<Event> latest = new ArrayList<>(Math.min(n, tail.size()));
+            Iterator<Event> newestFirst = tail.descendingMap().values().iterator();
+            while (latest.size() < n && newestFirst.hasNext()) {
+                latest.add(newestFirst.next());
+            }
+            List<Event> inOrder = new ArrayList<>(latest.size());
+            for (int i = latest.size() - 1; i >= 0; i--) {
+                inOrder.add(latest.get(i));
+            }
+            cached = inOrder;
+            cachedN = n;
+        }
+        return new ArrayList<>(cached);
+    }
+
+    /**
+     * Records an event that was added to the store
+     *
+     * @param key   the key of the event in the store, not null
+     * @param event the event, not null
+     */
+    synchronized void added(EventKey key, Event event) {
+        if (capacity == 0) {
+            return;
+        }
+        if (tail.size() < capacity || key.compareTo(tail.firstKey()) > 0) {
+            tail.put(key, event);
+            if (tail.size() > capacity) {
+                tail.pollFirstEntry();
+            }
+            cached = null;
+        }
+    }
+
+    /**
+     * Records events that were removed from the store. The tail is dropped if it held any
+     * of them, and filled again from the store on the next query.
+     *
+     * @param keys the keys of the removed events, not null
+     */
+    synchronized void removed(Collection<EventKey> keys) {
+        for (EventKey key : keys) {
+            if (tail.containsKey(key)) {
+                tail.clear();
+                capacity = 0;
+                cached = null;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Fills the tail with the latest n events of the store
+     */
+    private void seed(int n, EventStore store) {
+        tail.clear();
+        cached = null;
+        capacity = n;
+        List<Event> latest = store.last(n);
+        if (latest.isEmpty()) {
+            return;
+        }
+        store.forEachInWindow(latest.get(0).getTimeStamp(), Double.POSITIVE_INFINITY, tail::put);
+        while (tail.size() > capacity) {
+            tail.pollFirstEntry();
+        }
+    }
+}
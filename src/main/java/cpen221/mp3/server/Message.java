@@ -3,44 +3,77 @@ package cpen221.mp3.server;
 import cpen221.mp3.client.Request;
 import cpen221.mp3.event.Event;
 
+import java.util.Comparator;
+
 /*
  * A datatype to store either an event or request
  */
 public class Message {
+    /**
+     * Orders messages by release deadline, earliest first.
+     * Only reads the deadline, so the order of two messages never changes over time.
+     */
+    public static final Comparator<Message> RELEASE_ORDER =
+            (m1, m2) -> Long.compare(m1.releaseDeadline, m2.releaseDeadline);
+
     private final Event event;
     private final Request request;
+    private final long releaseDeadline;
     boolean containsEvent;
     boolean containsRequest;
     // Abstraction function:
     //    Represents either an event, or message where containsEvent == true if
-    //    it is an event, and containsRequest == true if it is a request
+    //    it is an event, and containsRequest == true if it is a request,
+    //    which must start being processed once System.nanoTime() reaches releaseDeadline
 
     // Rep Invariant:
     //    Either request is null, or message is null
     //    containsEvent, containsEvent always true or false
 
     /**
-     * Creates a new instance of message for events
+     * Creates a new instance of message for events that can be processed immediately
      *
      * @param e the event, not null
      */
     public Message(Event e) {
+        this(e, System.nanoTime());
+    }
+
+    /**
+     * Creates a new instance of message for events
+     *
+     * @param e               the event, not null
+     * @param releaseDeadline the System.nanoTime() at which the event has to be processed
+     */
+    public Message(Event e, long releaseDeadline) {
         containsEvent = true;
         containsRequest = false;
         event = e;
         request = null;
+        this.releaseDeadline = releaseDeadline;
     }
 
     /**
-     * Creates a new instance of message for requests
+     * Creates a new instance of message for requests that can be processed immediately
      *
      * @param r the request, not null
      */
     public Message(Request r) {
+        this(r, System.nanoTime());
+    }
+
+    /**
+     * Creates a new instance of message for requests
+     *
+     * @param r               the request, not null
+     * @param releaseDeadline the System.nanoTime() at which the request has to be processed
+     */
+    public Message(Request r, long releaseDeadline) {
         containsEvent = false;
         containsRequest = true;
         request = r;
         event = null;
+        this.releaseDeadline = releaseDeadline;
     }
 
     /**
@@ -85,6 +118,15 @@ public class Message {
         return request;
     }
 
+    /**
+     * Gets the time at which the current message has to be processed
+     *
+     * @return the System.nanoTime() at which the message has to be processed
+     */
+    public long getReleaseDeadline() {
+        return releaseDeadline;
+    }
+
     /**
      * Gets the timestamp of the current message
      *
@@ -0,0 +1,404 @@
+package cpen221.mp3.server;
+
+import cpen221.mp3.event.ActuatorEvent;
+import cpen221.mp3.event.Event;
+import cpen221.mp3.event.SensorEvent;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+/*
+ * An EventStore that appends events as fixed-width records into direct ByteBuffer slabs,
+ * outside the garbage collected heap. Slabs are filled in the order events arrive, and only
+ * the slabs themselves, the time range of each slab and the dictionary of entity types
+ * are kept on the heap, so the collector never sees the events.
+ * Removed records are marked in a bitmap per slab, and a slab is dropped once all of its
+ * records are removed.
+ * A query only reads the slabs whose time range overlaps it. Events mostly arrive in time
+ * order, so the slabs of a time range are few.
+ * Events are rebuilt from their records when a query returns them, so the events returned
+ * are equal in content, but not identical, to the events that were added.
+ */
+class OffHeapEventStore implements EventStore {
+    // record layout: timestamp, sequence, client ID, entity ID, type code, actuator flag, value
+    private static final int TIMESTAMP = 0;
+    private static final int SEQUENCE = 8;
+    private static final int CLIENT_ID = 12;
+    private static final int ENTITY_ID = 16;
+    private static final int TYPE_CODE = 20;
+    private static final int ACTUATOR = 22;
+    private static final int VALUE = 24;
+    static final int RECORD_BYTES = 32;
+    static final int SLAB_RECORDS = 32 * 1024;
+
+    private final List<Slab> slabs = new ArrayList<>();
+    private final List<String> types = new ArrayList<>();
+    private final Map<String, Integer> typeCodes = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private int sequence = 0;
+    private int size = 0;
+    // Abstraction function:
+    //    Represents the events stored in the first count records of every slab of slabs
+    //    that are not marked removed,
+    //    where a record holds the timestamp, client ID, entity ID, type types.get(type code)
+    //    and value of an event, and the number of events added before it;
+    //    sequence is the number of events added and size the number not removed
+
+    // Rep Invariant:
+    //    every slab but the last has SLAB_RECORDS records and at least one that is not removed,
+    //    minTime and maxTime of every slab bound the timestamps of its records,
+    //    inOrder is true only if the timestamps of the records of the slab are in increasing order,
+    //    the records of a slab have consecutive sequence numbers from firstSequence, in increasing
+    //    order across slabs, live is the number of records of a slab not removed,
+    //    size == sum of live over slabs,
+    //    typeCodes.get(types.get(i)) == i for every i, types.size() <= Short.MAX_VALUE
+
+    @Override
+    public EventKey add(Event event) {
+        lock.writeLock().lock();
+        try {
+            Slab slab = slabs.isEmpty() ? null : slabs.get(slabs.size() - 1);
+            if (slab == null || slab.count == SLAB_RECORDS) {
+                slab = new Slab();
+                slabs.add(slab);
+            }
+            int seq = sequence++;
+            slab.append(event, seq, typeCode(event.getEntityType()));
+            size++;
+            return new EventKey(event, Integer.toUnsignedLong(seq));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Event> window(double startTime, double endTime) {
+        List<Event> inWindow = new ArrayList<>();
+        forEachInWindow(startTime, endTime, (key, event) -> inWindow.add(event));
+        return inWindow;
+    }
+
+    @Override
+    public void forEachInWindow(double startTime, double endTime, BiConsumer<EventKey, Event> action) {
+        if (startTime > endTime) {
+            return;
+        }
+        List<Record> inWindow = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Slab slab : slabs) {
+                if (slab.maxTime < startTime || slab.minTime > endTime) {
+                    continue;
+                }
+                for (int row = slab.firstAtOrAfter(startTime); row < slab.count; row++) {
+                    double timestamp = slab.timestamp(row);
+                    if (slab.inOrder && timestamp > endTime) {
+                        break;
+                    }
+                    if (timestamp >= startTime && timestamp <= endTime && !slab.removed.get(row)) {
+                        inWindow.add(new Record(slab.key(row), slab.event(row, types)));
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        inWindow.sort(Comparator.comparing(record -> record.key));
+        for (Record record : inWindow) {
+            action.accept(record.key, record.event);
+        }
+    }
+
+    @Override
+    public List<Event> last(int n) {
+        if (n <= 0) {
+            return new ArrayList<>();
+        }
+        // the latest n records seen so far, earliest at the head
+        PriorityQueue<Record> latest = new PriorityQueue<>(Comparator.comparing(record -> record.key));
+        lock.readLock().lock();
+        try {
+            List<Slab> newestFirst = new ArrayList<>(slabs);
+            newestFirst.sort(Comparator.comparingDouble((Slab slab) -> slab.maxTime).reversed());
+            for (Slab slab : newestFirst) {
+                if (latest.size() == n && slab.maxTime < latest.peek().key.getTimestamp()) {
+                    break;
+                }
+                // records mostly arrive in time order, so the newest are near the end
+                for (int row = slab.count - 1; row >= 0; row--) {
+                    if (latest.size() == n && slab.timestamp(row) < latest.peek().key.getTimestamp()) {
+                        if (slab.inOrder) {
+                            break;
+                        }
+                        continue;
+                    }
+                    if (slab.removed.get(row)) {
+                        continue;
+                    }
+                    EventKey key = slab.key(row);
+                    if (latest.size() < n) {
+                        latest.add(new Record(key, slab.event(row, types)));
+                    } else if (key.compareTo(latest.peek().key) > 0) {
+                        latest.poll();
+                        latest.add(new Record(key, slab.event(row, types)));
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Event> inOrder = new ArrayList<>(latest.size());
+        while (!latest.isEmpty()) {
+            inOrder.add(latest.poll().event);
+        }
+        return inOrder;
+    }
+
+    @Override
+    public void forEachOldest(int n, BiConsumer<EventKey, Event> action) {
+        if (n <= 0) {
+            return;
+        }
+        // the earliest n records seen so far, latest at the head
+        PriorityQueue<Record> earliest = new PriorityQueue<>(Comparator.comparing((Record record) -> record.key).reversed());
+        lock.readLock().lock();
+        try {
+            List<Slab> oldestFirst = new ArrayList<>(slabs);
+            oldestFirst.sort(Comparator.comparingDouble(slab -> slab.minTime));
+            for (Slab slab : oldestFirst) {
+                if (earliest.size() == n && slab.minTime > earliest.peek().key.getTimestamp()) {
+                    break;
+                }
+                for (int row = 0; row < slab.count; row++) {
+                    if (earliest.size() == n && slab.timestamp(row) > earliest.peek().key.getTimestamp()) {
+                        if (slab.inOrder) {
+                            break;
+                        }
+                        continue;
+                    }
+                    if (slab.removed.get(row)) {
+                        continue;
+                    }
+                    EventKey key = slab.key(row);
+                    if (earliest.size() < n) {
+                        earliest.add(new Record(key, slab.event(row, types)));
+                    } else if (key.compareTo(earliest.peek().key) < 0) {
+                        earliest.poll();
+                        earliest.add(new Record(key, slab.event(row, types)));
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Record> inOrder = new ArrayList<>(earliest);
+        inOrder.sort(Comparator.comparing(record -> record.key));
+        for (Record record : inOrder) {
+            action.accept(record.key, record.event);
+        }
+    }
+
+    @Override
+    public int removeAll(Collection<EventKey> keys) {
+        int removed = 0;
+        lock.writeLock().lock();
+        try {
+            for (EventKey key : keys) {
+                Slab slab = slabOf(key.getSequence());
+                if (slab != null && slab.remove((int) (key.getSequence() - slab.firstSequence))) {
+                    removed++;
+                }
+            }
+            size -= removed;
+            // the direct buffer of a dropped slab is freed once it is collected
+            slabs.removeIf(slab -> slab.live == 0 && slab.count == SLAB_RECORDS);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return removed;
+    }
+
+    /**
+     * Finds the slab holding the record with a sequence number
+     *
+     * @return the slab, or null if the record is in a slab that was dropped
+     */
+    private Slab slabOf(long seq) {
+        int lo = 0;
+        int hi = slabs.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            Slab slab = slabs.get(mid);
+            if (seq < slab.firstSequence) {
+                hi = mid - 1;
+            } else if (seq >= slab.firstSequence + slab.count) {
+                lo = mid + 1;
+            } else {
+                return slab;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Event latest() {
+        List<Event> last = last(1);
+        return last.isEmpty() ? null : last.get(0);
+    }
+
+    @Override
+    public Map<Integer, Integer> countByEntity() {
+        Map<Integer, Integer> counts = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            for (Slab slab : slabs) {
+                for (int row = 0; row < slab.count; row++) {
+                    if (slab.removed.get(row)) {
+                        continue;
+                    }
+                    counts.merge(slab.buffer.getInt(row * RECORD_BYTES + ENTITY_ID), 1, Integer::sum);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return counts;
+    }
+
+    /**
+     * Gets the dictionary code of an entity type, adding the type if it is new
+     */
+    private int typeCode(String type) {
+        return typeCodes.computeIfAbsent(type, t -> {
+            if (types.size() == Short.MAX_VALUE) {
+                throw new IllegalStateException("too many entity types");
+            }
+            types.add(t);
+            return types.size() - 1;
+        });
+    }
+
+    /*
+     * A direct buffer of SLAB_RECORDS records and the range of the timestamps in it
+     */
+    private static final class Slab {
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(SLAB_RECORDS * RECORD_BYTES);
+        private double minTime = Double.POSITIVE_INFINITY;
+        private double maxTime = Double.NEGATIVE_INFINITY;
+        private final BitSet removed = new BitSet();
+        private boolean inOrder = true;
+        private long firstSequence = -1;
+        private int count = 0;
+        private int live = 0;
+
+        void append(Event event, int seq, int typeCode) {
+            int at = count * RECORD_BYTES;
+            if (count == 0) {
+                firstSequence = Integer.toUnsignedLong(seq);
+            }
+            boolean actuator = event instanceof ActuatorEvent;
+            buffer.putDouble(at + TIMESTAMP, event.getTimeStamp());
+            buffer.putInt(at + SEQUENCE, seq);
+            buffer.putInt(at + CLIENT_ID, event.getClientId());
+            buffer.putInt(at + ENTITY_ID, event.getEntityId());
+            buffer.putShort(at + TYPE_CODE, (short) typeCode);
+            buffer.put(at + ACTUATOR, (byte) (actuator ? 1 : 0));
+            buffer.putDouble(at + VALUE, actuator ? (event.getValueBoolean() ? 1 : 0) : event.getValueDouble());
+            inOrder = inOrder && event.getTimeStamp() >= maxTime;
+            minTime = Math.min(minTime, event.getTimeStamp());
+            maxTime = Math.max(maxTime, event.getTimeStamp());
+            count++;
+            live++;
+        }
+
+        /**
+         * Marks a record removed
+         *
+         * @return true if the record was not already removed
+         */
+        boolean remove(int row) {
+            if (row < 0 || row >= count || removed.get(row)) {
+                return false;
+            }
+            removed.set(row);
+            live--;
+            return true;
+        }
+
+        /**
+         * @return the first row that can hold a timestamp >= time: found by binary search
+         *         if the records are in time order, or 0 otherwise
+         */
+        int firstAtOrAfter(double time) {
+            if (!inOrder) {
+                return 0;
+            }
+            int lo = 0;
+            int hi = count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (timestamp(mid) < time) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        double timestamp(int row) {
+            return buffer.getDouble(row * RECORD_BYTES + TIMESTAMP);
+        }
+
+        EventKey key(int row) {
+            int at = row * RECORD_BYTES;
+            return new EventKey(buffer.getDouble(at + TIMESTAMP), buffer.getInt(at + ENTITY_ID),
+                    Integer.toUnsignedLong(buffer.getInt(at + SEQUENCE)));
+        }
+
+        Event event(int row, List<String> types) {
+            int at = row * RECORD_BYTES;
+            double timestamp = buffer.getDouble(at + TIMESTAMP);
+            int clientId = buffer.getInt(at + CLIENT_ID);
+            int entityId = buffer.getInt(at + ENTITY_ID);
+            String type = types.get(buffer.getShort(at + TYPE_CODE));
+            if (buffer.get(at + ACTUATOR) == 1) {
+                return new ActuatorEvent(timestamp, clientId, entityId, type, buffer.getDouble(at + VALUE) != 0);
+            }
+            return new SensorEvent(timestamp, clientId, entityId, type, buffer.getDouble(at + VALUE));
+        }
+    }
+
+    /*
+     * An event read from a slab, with its key
+     */
+    private static final class Record {
+        private final EventKey key;
+        private final Event event;
+
+        Record(EventKey key, Event event) {
+            this.key = key;
+            this.event = event;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package cpen221.mp3.server;
+
+import cpen221.mp3.client.Request;
+import cpen221.mp3.client.RequestCommand;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+
+/*
+ * Decides how each request a server receives is applied, so that every request takes effect
+ * exactly once, whatever order the requests arrive in. The state a request sets, the max wait
+ * time or the log filter, is the effect of the request with the latest timestamp that set it,
+ * which is all the timeline keeps of the requests before, so a request that arrives after a
+ * later one of the same command changes nothing. Every other request acts on the server as it is when
+ * it arrives, and is never run again. Requests carry no identity of their own, so two equal
+ * requests are two requests: both are applied, as a client repeating a toggle means it to be.
+ * The timeline is bounded by the number of commands, however many requests it receives.
+ */
+class RequestTimeline {
+    // the number of requests the previous reprocessing kept, for counting what it would have re-run
+    static final int LEGACY_BUFFER = 12;
+
+    /**
+     * How a received request is applied
+     */
+    enum Decision {
+        // the request takes effect now
+        APPLY,
+        // a later request of the same command already set the state this request sets
+        SUPERSEDED
+    }
+
+    private final Map<RequestCommand, Request> latestState = new EnumMap<>(RequestCommand.class);
+    private final ArrayDeque<Double> lastArrivals = new ArrayDeque<>();
+    private long arrivals = 0;
+    private long applied = 0;
+    private long legacyReexecutions = 0;
+    // Abstraction function:
+    //    Represents the requests received, where latestState.get(c) is the request with the
+    //    latest timestamp of every command c that sets state,
+    //    lastArrivals holds the timestamps of the last LEGACY_BUFFER requests in arrival order,
+    //    applied requests took effect out of arrivals received, and legacyReexecutions counts
+    //    the requests the previous reprocessing would have run again
+
+    // Rep Invariant:
+    //    lastArrivals.size() <= LEGACY_BUFFER, applied <= arrivals
+
+    /**
+     * Records a received request and decides how it is applied
+     *
+     * @param request the request, not null
+     * @return APPLY if the request has to take effect, or SUPERSEDED if a later request already
+     * set the state it sets
+     */
+    synchronized Decision insert(Request request) {
+        arrivals++;
+        countLegacyReexecutions(request.getTimeStamp());
+
+        RequestCommand command = request.getRequestCommand();
+        if (setsState(command)) {
+            Request latest = latestState.get(command);
+            if (latest != null && latest.getTimeStamp() > request.getTimeStamp()) {
+                return Decision.SUPERSEDED;
+            }
+            latestState.put(command, request);
+        }
+        applied++;
+        return Decision.APPLY;
+    }
+
+    /**
+     * Counts what the previous reprocessing would have run again for a request: every one of
+     * the last requests with a later timestamp, and the request itself, if there were any
+     */
+    private void countLegacyReexecutions(double timeStamp) {
+        int later = 0;
+        for (double t : lastArrivals) {
+            if (t > timeStamp) {
+                later++;
+            }
+        }
+        if (later > 0) {
+            legacyReexecutions += later + 1;
+        }
+        lastArrivals.addLast(timeStamp);
+        if (lastArrivals.size() > LEGACY_BUFFER) {
+            lastArrivals.pollFirst();
+        }
+    }
+
+    /**
+     * @return the number of requests received
+     */
+    synchronized long arrivals() {
+        return arrivals;
+    }
+
+    /**
+     * @return the number of requests that took effect, each exactly once
+     */
+    synchronized long applied() {
+        return applied;
+    }
+
+    /**
+     * @return the number of times requests would have been run again by reprocessing every
+     * buffered request newer than an out-of-order arrival, none of which were run
+     */
+    synchronized long avoidedReexecutions() {
+        return legacyReexecutions;
+    }
+
+    private static boolean setsState(RequestCommand command) {
+        return command == RequestCommand.CONFIG_UPDATE_MAX_WAIT_TIME || command == RequestCommand.CONTROL_NOTIFY_IF;
+    }
+}
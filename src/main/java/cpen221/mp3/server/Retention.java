@@ -0,0 +1,204 @@
+package cpen221.mp3.server;
+
+import cpen221.mp3.event.ActuatorEvent;
+import cpen221.mp3.event.Event;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/*
+ * The retention policies of one server, and the rollups of the events they evicted.
+ * Once any policy keeps less than everything, the raw events of every entity type are
+ * tracked in a queue per type in the order they arrived, holding just what is needed to
+ * evict and roll up an event, so eviction takes events from the head of a queue
+ * without searching the event store.
+ */
+class Retention {
+    private final Map<String, RetentionPolicy> policies = new HashMap<>();
+    private final Map<String, TypeQueue> queues = new HashMap<>();
+    private final Map<Integer, ConcurrentSkipListMap<Double, Rollup>> rollups = new ConcurrentHashMap<>();
+    private RetentionPolicy defaultPolicy = RetentionPolicy.KEEP_ALL;
+    private boolean tracking = false;
+    private double latest = Double.NEGATIVE_INFINITY;
+    // Abstraction function:
+    //    Represents keeping the raw events of type t under policies.get(t), or defaultPolicy
+    //    if t has no policy, where rollups.get(id) holds the rollups of entity id by bucket start,
+    //    and latest is the latest timestamp of an event added
+
+    // Rep Invariant:
+    //    if tracking, queues.get(t) holds every raw event of type t still in the store in arrival order,
+    //    tracking is true if defaultPolicy or a policy of policies is not KEEP_ALL
+
+    /**
+     * Sets the policy of an entity type, or the policy of every type without its own
+     *
+     * @param entityType the entity type, or null for the default policy
+     * @param policy     the policy, not null
+     * @param store      the events of the server, for tracking the events already stored, not null
+     */
+    synchronized void setPolicy(String entityType, RetentionPolicy policy, EventStore store) {
+        if (entityType == null) {
+            defaultPolicy = policy;
+        } else {
+            policies.put(entityType, policy);
+        }
+        if (!tracking && policy != RetentionPolicy.KEEP_ALL) {
+            tracking = true;
+            store.forEachInWindow(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, this::track);
+        }
+    }
+
+    /**
+     * Records an event that was added to the event store
+     *
+     * @param key   the key of the event in the store, not null
+     * @param event the event, not null
+     */
+    synchronized void added(EventKey key, Event event) {
+        if (tracking) {
+            track(key, event);
+        }
+    }
+
+    private void track(EventKey key, Event event) {
+        queues.computeIfAbsent(event.getEntityType(), type -> new TypeQueue()).add(key, event);
+        latest = Math.max(latest, event.getTimeStamp());
+    }
+
+    /**
+     * Evicts raw events that are past the policy of their type from the store,
+     * rolling them up first
+     *
+     * @param store        the events of the server, not null
+     * @param maxEvictions the most events to evict, > 0
+     * @return the keys of the events evicted
+     */
+    List<EventKey> apply(EventStore store, int maxEvictions) {
+        List<EventKey> expired = new ArrayList<>();
+        synchronized (this) {
+            if (!tracking) {
+                return expired;
+            }
+            for (Map.Entry<String, TypeQueue> entry : queues.entrySet()) {
+                RetentionPolicy policy = policies.getOrDefault(entry.getKey(), defaultPolicy);
+                TypeQueue queue = entry.getValue();
+                while (expired.size() < maxEvictions && queue.size > 0
+                        && policy.expires(queue.headTimestamp(), latest, queue.size)) {
+                    expired.add(queue.headKey());
+                    rollUp(queue, entry.getKey(), policy.getBucketWidth());
+                    queue.poll();
+                }
+            }
+        }
+        if (!expired.isEmpty()) {
+            store.removeAll(expired);
+        }
+        return expired;
+    }
+
+    private void rollUp(TypeQueue queue, String entityType, double bucketWidth) {
+        int entityId = queue.headEntityId();
+        double start = Math.floor(queue.headTimestamp() / bucketWidth) * bucketWidth;
+        rollups.computeIfAbsent(entityId, id -> new ConcurrentSkipListMap<>())
+                .computeIfAbsent(start, s -> new Rollup(entityId, entityType, s, s + bucketWidth))
+                .add(queue.headValue());
+    }
+
+    /**
+     * Lists the rollups that overlap a time range, by start time and then by decreasing entity ID
+     *
+     * @param startTime the start of the range, inclusive
+     * @param endTime   the end of the range, inclusive
+     * @return the rollups with startTime <= end time of the rollup and start time of the rollup <= endTime
+     */
+    List<Rollup> rollups(double startTime, double endTime) {
+        List<Rollup> overlapping = new ArrayList<>();
+        for (ConcurrentSkipListMap<Double, Rollup> ofEntity : rollups.values()) {
+            ConcurrentNavigableMap<Double, Rollup> startingBefore = ofEntity.headMap(endTime, true).descendingMap();
+            for (Rollup rollup : startingBefore.values()) {
+                if (rollup.getEndTime() <= startTime) {
+                    break;
+                }
+                overlapping.add(rollup);
+            }
+        }
+        overlapping.sort((a, b) -> a.getStartTime() != b.getStartTime()
+                ? Double.compare(a.getStartTime(), b.getStartTime())
+                : Integer.compare(b.getEntityId(), a.getEntityId()));
+        return overlapping;
+    }
+
+    /*
+     * The raw events of one type in arrival order, as parallel ring buffers of primitives
+     */
+    private static final class TypeQueue {
+        private double[] timestamps = new double[16];
+        private double[] values = new double[16];
+        private int[] entityIds = new int[16];
+        private long[] sequences = new long[16];
+        private int head = 0;
+        private int size = 0;
+
+        void add(EventKey key, Event event) {
+            if (size == timestamps.length) {
+                grow();
+            }
+            int at = (head + size) % timestamps.length;
+            timestamps[at] = event.getTimeStamp();
+            values[at] = event instanceof ActuatorEvent ? (event.getValueBoolean() ? 1 : 0) : event.getValueDouble();
+            entityIds[at] = event.getEntityId();
+            sequences[at] = key.getSequence();
+            size++;
+        }
+
+        double headTimestamp() {
+            return timestamps[head];
+        }
+
+        double headValue() {
+            return values[head];
+        }
+
+        int headEntityId() {
+            return entityIds[head];
+        }
+
+        EventKey headKey() {
+            return new EventKey(timestamps[head], entityIds[head], sequences[head]);
+        }
+
+        void poll() {
+            head = (head + 1) % timestamps.length;
+            size--;
+        }
+
+        private void grow() {
+            int capacity = timestamps.length * 2;
+            timestamps = unwrap(timestamps, capacity);
+            values = unwrap(values, capacity);
+            int[] ids = new int[capacity];
+            long[] seqs = new long[capacity];
+            for (int i = 0; i < size; i++) {
+                ids[i] = entityIds[(head + i) % entityIds.length];
+                seqs[i] = sequences[(head + i) % sequences.length];
+            }
+            entityIds = ids;
+            sequences = seqs;
+            head = 0;
+        }
+
+        private double[] unwrap(double[] ring, int capacity) {
+            double[] unwrapped = Arrays.copyOf(ring, capacity);
+            for (int i = 0; i < size; i++) {
+                unwrapped[i] = ring[(head + i) % ring.length];
+            }
+            return unwrapped;
+        }
+    }
+}
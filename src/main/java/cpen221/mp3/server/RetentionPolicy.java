@@ -0,0 +1,95 @@
+package cpen221.mp3.server;
+
+/*
+ * How long a server keeps the raw events of one entity type, and how the events it
+ * stops keeping are rolled up. Raw events are kept while they are within maxAge of the
+ * latest event of the client and among the maxCount latest events of their type;
+ * older events are folded into Rollup buckets of bucketWidth.
+ * Ages and widths are in the units of event timestamps.
+ */
+public class RetentionPolicy {
+    public static final double DEFAULT_BUCKET_WIDTH = 60_000;
+    public static final RetentionPolicy KEEP_ALL =
+            new RetentionPolicy(Double.POSITIVE_INFINITY, Integer.MAX_VALUE, DEFAULT_BUCKET_WIDTH);
+
+    private final double maxAge;
+    private final int maxCount;
+    private final double bucketWidth;
+    // Abstraction function:
+    //    Represents keeping the raw events no older than maxAge and no more than maxCount of them,
+    //    rolling older events up into buckets bucketWidth wide
+
+    // Rep Invariant:
+    //    maxAge > 0, maxCount >= 0, bucketWidth > 0 and finite
+
+    /**
+     * Creates a retention policy
+     *
+     * @param maxAge      how far behind the latest event of the client a raw event is kept, > 0
+     * @param maxCount    the most raw events of a type to keep, >= 0
+     * @param bucketWidth the width of the buckets evicted events are rolled up into, > 0
+     */
+    public RetentionPolicy(double maxAge, int maxCount, double bucketWidth) {
+        if (!(maxAge > 0) || maxCount < 0 || !(bucketWidth > 0) || Double.isInfinite(bucketWidth)) {
+            throw new IllegalArgumentException();
+        }
+        this.maxAge = maxAge;
+        this.maxCount = maxCount;
+        this.bucketWidth = bucketWidth;
+    }
+
+    /**
+     * Creates a policy that keeps raw events for a time window
+     *
+     * @param maxAge      how far behind the latest event of the client a raw event is kept, > 0
+     * @param bucketWidth the width of the buckets evicted events are rolled up into, > 0
+     * @return the policy
+     */
+    public static RetentionPolicy forAge(double maxAge, double bucketWidth) {
+        return new RetentionPolicy(maxAge, Integer.MAX_VALUE, bucketWidth);
+    }
+
+    /**
+     * Creates a policy that keeps a number of raw events
+     *
+     * @param maxCount    the most raw events of a type to keep, >= 0
+     * @param bucketWidth the width of the buckets evicted events are rolled up into, > 0
+     * @return the policy
+     */
+    public static RetentionPolicy forCount(int maxCount, double bucketWidth) {
+        return new RetentionPolicy(Double.POSITIVE_INFINITY, maxCount, bucketWidth);
+    }
+
+    public double getMaxAge() {
+        return maxAge;
+    }
+
+    public int getMaxCount() {
+        return maxCount;
+    }
+
+    public double getBucketWidth() {
+        return bucketWidth;
+    }
+
+    /**
+     * Checks whether an event of a type is past this policy
+     *
+     * @param timestamp      the timestamp of the event
+     * @param latest         the timestamp of the latest event of the client
+     * @param retainedOfType the number of raw events of the type of the event still kept
+     * @return true if the event should no longer be kept raw
+     */
+    boolean expires(double timestamp, double latest, int retainedOfType) {
+        return retainedOfType > maxCount || latest - timestamp > maxAge;
+    }
+
+    @Override
+    public String toString() {
+        return "RetentionPolicy{" +
+                "MaxAge=" + maxAge +
+                ",MaxCount=" + maxCount +
+                ",BucketWidth=" + bucketWidth +
+                '}';
+    }
+}
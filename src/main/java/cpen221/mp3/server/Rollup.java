@@ -0,0 +1,87 @@
+package cpen221.mp3.server;
+
+/*
+ * The summary of the events of one entity that fell in one time bucket and are no longer kept raw.
+ * Actuator states count as 1 for true and 0 for false.
+ */
+public class Rollup {
+    private final int entityId;
+    private final String entityType;
+    private final double startTime;
+    private final double endTime;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private double sum = 0;
+    private int count = 0;
+    // Abstraction function:
+    //    Represents count events of entity entityId with startTime <= timestamp < endTime,
+    //    whose values have minimum min, maximum max and total sum
+
+    // Rep Invariant:
+    //    startTime < endTime, count >= 0, min <= max if count > 0
+
+    Rollup(int entityId, String entityType, double startTime, double endTime) {
+        this.entityId = entityId;
+        this.entityType = entityType;
+        this.startTime = startTime;
+        this.endTime = endTime;
+    }
+
+    /**
+     * Folds the value of an event into this rollup
+     *
+     * @param value the value of an event of this entity in this bucket
+     */
+    synchronized void add(double value) {
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        sum += value;
+        count++;
+    }
+
+    public int getEntityId() {
+        return entityId;
+    }
+
+    public String getEntityType() {
+        return entityType;
+    }
+
+    public double getStartTime() {
+        return startTime;
+    }
+
+    public double getEndTime() {
+        return endTime;
+    }
+
+    public synchronized double getMin() {
+        return min;
+    }
+
+    public synchronized double getMax() {
+        return max;
+    }
+
+    public synchronized double getMean() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Rollup{" +
+                "EntityId=" + entityId +
+                ",EntityType=" + entityType +
+                ",StartTime=" + startTime +
+                ",EndTime=" + endTime +
+                ",Min=" + min +
+                ",Max=" + max +
+                ",Mean=" + getMean() +
+                ",Count=" + count +
+                '}';
+    }
+}
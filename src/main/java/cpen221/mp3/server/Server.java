@@ -12,34 +12,54 @@ import cpen221.mp3.event.Event;
 import cpen221.mp3.event.SensorEvent;
 
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.net.Socket;
+import java.io.UncheckedIOException;
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 public class Server {
+    public static final double DEFAULT_MAX_WAIT_TIME = 2; // in seconds
+
     private final Client client;
-    private double maxWaitTime = 2; // in seconds
-    private List<Event> logs;
+    private volatile double maxWaitTime = DEFAULT_MAX_WAIT_TIME; // in seconds
+    private final ConcurrentSkipListMap<EventKey, Event> logs;
     private final BlockingQueue<Event> bufferEvent;
-    private final BlockingQueue<Request> bufferRequest;
-    private final HashSet<Event> events = new HashSet<>();
+    private final EventStore events;
     private final ConcurrentHashMap<Integer, Entity> entities;
-    private final BlockingQueue<Event> processed;
-    private double logTimeStamp;
-    private boolean isReprocessing = false;
-
-    private boolean isLogging;
-    private Filter logFilter;
+    private volatile double logTimeStamp;
+    private final EventLog eventLog;
+    private final Retention retention = new Retention();
+    private final EntityCounts activity = new EntityCounts();
+    private final LatestEvents latestEvents = new LatestEvents();
+    private final RequestTimeline requests = new RequestTimeline();
+    private final Queue<Event> lateEvents = new ConcurrentLinkedQueue<>();
+
+    private final Object writeLock = new Object();
+    private volatile ActiveFilter activeFilter = null;
+    private volatile ActuatorDispatcher actuatorDispatcher = ActuatorDispatcher.shared();
 
     // Abstraction function:
-    //    Represents a server where bufferRequest[0] == first request .... bufferRequest[i] == i - 1 request
-    //    entities.key == entityID, entities.value == entity,logs.get(0) == first logged event...
-    //    logs.get(i) == i-1 logged event
+    //    Represents a server where requests orders the received requests and decides which take effect,
+    //    entities.key == entityID, entities.value == entity, logs holds the logged events
+    //    that have not been read yet in time order under their keys in events,
+    //    events holds every event received in time order,
+    //    latestEvents caches the latest events of events,
+    //    activity counts the events of every entity as they are processed,
+    //    retention decides which events stay in events and holds the rollups of the others,
+    //    eventLog, if not null, holds every event, notify-if and log read processed, in order,
+    //    lateEvents holds the late events handed to this server that have not been read yet,
+    //    activeFilter, if not null, is the filter events from its timestamp on are logged by,
+    //    and actuatorDispatcher sends the commands of this server to actuators
+
+    // Thread safety:
+    //    the message handler processes every message of a client on the one dispatcher thread
+    //    of its shard, so writeLock, which orders the events, log filters and log reads applied
+    //    and recorded, is never contended there. Queries read the concurrent structures without it.
 
     /**
      * Representation Invariants:
@@ -53,25 +73,99 @@ public class Server {
      * @param client, client assigned to this instance of server, not null
      */
     public Server(Client client) {
+        this(client, EventStorage.HEAP);
+    }
+
+    /**
+     * Creates a new instance of server for a specified client that keeps its events
+     * in the given kind of storage
+     *
+     * @param client  client assigned to this instance of server, not null
+     * @param storage how the events of the client are kept, not null
+     */
+    public Server(Client client, EventStorage storage) {
+        this(client, storage, null);
+    }
+
+    /**
+     * Creates a new instance of server for a specified client that records everything it
+     * processes in an event log. The events, entities and notify-if state already in the log
+     * are recovered by replaying it before the server is returned.
+     *
+     * @param client   client assigned to this instance of server, not null
+     * @param storage  how the events of the client are kept, not null
+     * @param eventLog the log of the client, or null to keep nothing across restarts
+     * @throws UncheckedIOException if the log cannot be read
+     */
+    public Server(Client client, EventStorage storage, EventLog eventLog) {
         this.client = client;
+        this.events = EventStore.of(storage);
         this.bufferEvent = new LinkedBlockingQueue<>();
-        this.bufferRequest = new LinkedBlockingQueue<>();
-        this.logs = new ArrayList<>();
+        this.logs = new ConcurrentSkipListMap<>();
         this.entities = new ConcurrentHashMap<>();
-        this.isLogging = false;
-        processed = new PriorityBlockingQueue<>(1, new Comparator<Event>() {
-            @Override
-            public int compare(Event o1, Event o2) {
-                double diff = o1.getTimeStamp() - o2.getTimeStamp();
-                if (diff > 0) {
-                    return -1;
+        this.eventLog = eventLog;
+        if (eventLog != null) {
+            recover();
+        }
+    }
+
+    /**
+     * Rebuilds the state of this server from its event log, applying every record the way
+     * it was applied when it was first processed, without logging it again
+     */
+    private void recover() {
+        long start = System.nanoTime();
+        try {
+            int records = eventLog.replay(new EventLog.Replay() {
+                @Override
+                public void event(Event event) {
+                    applyEvent(event);
                 }
-                if (diff < 0) {
-                    return 1;
+
+                @Override
+                public void notifyIf(double timeStamp, String filter) {
+                    logTimeStamp = timeStamp;
+                    applyLogIf(Deserializer.deserializeFilter(filter));
                 }
-                return 0;
-            }
-        });
+
+                @Override
+                public void readLogs() {
+                    drainLogs();
+                }
+            });
+            System.out.println("Recovered " + records + " records for client " + client.getClientId()
+                    + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends to the event log, if this server has one
+     *
+     * @param append the write to the log, not null
+     */
+    private void record(LogWrite append) {
+        if (eventLog == null) {
+            return;
+        }
+        try {
+            append.write(eventLog);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private interface LogWrite {
+        void write(EventLog log) throws IOException;
+    }
+
+    /**
+     * Forces the event log of this server to disk and closes it. Does nothing if this
+     * server has no event log.
+     */
+    public void closeEventLog() {
+        record(EventLog::close);
     }
 
     /**
@@ -102,25 +196,19 @@ public class Server {
      * that was received by the server the latest.
      * <p>
      * If the actuator is not registered for the client, then this method should do nothing.
+     * The command is sent to the actuator in the background; this method does not wait for it.
      *
      * @param filter   the filter to check
      * @param actuator the actuator to set the state of as true
      */
     public void setActuatorStateIf(Filter filter, Actuator actuator) {
         if (actuator.getClientId() == client.getClientId()) {
-            Event event = processed.peek();
+            Event event = events.latest();
             if (filter.satisfies(event)) {
-                String r = (new Request(RequestType.CONTROL,
+                Request command = new Request(RequestType.CONTROL,
                         RequestCommand.CONTROL_SET_ACTUATOR_STATE,
-                        actuator + "," + (SeverCommandToActuator.SET_STATE)) + "}");
-
-                try (Socket s = new Socket(actuator.getIP(), client.getServerPort())) {
-                    PrintWriter out = new PrintWriter(s.getOutputStream(), true);
-                    out.println(r);
-                    System.out.println("Sent Request to MessageHandler: " + actuator.getId());
-                } catch (IOException e) {
-                    System.out.println("Unable to establish connection on IP: " + actuator.getIP() + ", Port: " + client.getServerPort());
-                }
+                        actuator + "," + (SeverCommandToActuator.SET_STATE));
+                sendToActuator(actuator, command);
             } else {
                 System.out.println("Request does not pass filter");
             }
@@ -136,26 +224,19 @@ public class Server {
      * <p>
      * If the actuator has never sent an event to the server, then this method should do nothing.
      * If the actuator is not registered for the client, then this method should do nothing.
+     * The command is sent to the actuator in the background; this method does not wait for it.
      *
      * @param filter   the filter to check
      * @param actuator the actuator to toggle the state of (true -> false, false -> true)
      */
     public void toggleActuatorStateIf(Filter filter, Actuator actuator) {
         if (actuator.getClientId() == client.getClientId()) {
-            Event event = processed.peek();
+            Event event = events.latest();
             if (filter.satisfies(event)) {
-                String r = (new Request(RequestType.CONTROL,
+                Request command = new Request(RequestType.CONTROL,
                         RequestCommand.CONTROL_TOGGLE_ACTUATOR_STATE,
-                        actuator + "," + (SeverCommandToActuator.TOGGLE_STATE)) + "}");
-
-                try (Socket s = new Socket(actuator.getIP(), client.getServerPort())) {
-                    PrintWriter out = new PrintWriter(s.getOutputStream(), true);
-                    out.println(r);
-                    System.out.println("Sent Request to MessageHandler: " + actuator.getId());
-
-                } catch (IOException e) {
-                    System.out.println("Unable to establish connection on IP: " + actuator.getIP() + ", Client Server Port: " + client.getServerPort());
-                }
+                        actuator + "," + (SeverCommandToActuator.TOGGLE_STATE));
+                sendToActuator(actuator, command);
             } else {
                 System.out.println("Request does not pass filter");
             }
@@ -164,20 +245,79 @@ public class Server {
         }
     }
 
+    /**
+     * Hands a command to the actuator dispatcher of this server, which sends it straight to
+     * the actuator in the background
+     *
+     * @param actuator the actuator the command is for, not null
+     * @param command  the command, not null
+     */
+    private void sendToActuator(Actuator actuator, Request command) {
+        actuatorDispatcher.dispatch(actuator.getIP(), actuator.getPort(), command, command + "}")
+                .whenComplete((sent, error) -> {
+                    if (error == null) {
+                        System.out.println("Sent Request to Actuator: " + actuator.getId());
+                    }
+                });
+    }
+
+    /**
+     * Sets the dispatcher that sends the commands of this server to actuators
+     *
+     * @param dispatcher the actuator dispatcher, not null
+     */
+    public void setActuatorDispatcher(ActuatorDispatcher dispatcher) {
+        this.actuatorDispatcher = dispatcher;
+    }
+
     /**
      * Log the event ID for which a given filter was satisfied.
-     * This method is checked for every event received by the server.
+     * Every event received from now on is checked against the filter as it is processed,
+     * and the events already received since the log timestamp are checked once now.
      *
      * @param filter the filter to check
      */
     public void logIf(Filter filter) {
-        for (Event e : events) {
-            if (filter.satisfies(e) && e.getTimeStamp() >= logTimeStamp) {
-                if (!logs.contains(e)) {
-                    logs.add(e);
-                    System.out.println("Added");
-                }
+        synchronized (writeLock) {
+            record(log -> log.appendNotifyIf(logTimeStamp, filter.toString()));
+            applyLogIf(filter);
+        }
+    }
+
+    private void applyLogIf(Filter filter) {
+        ActiveFilter active = new ActiveFilter(logTimeStamp, filter.asPredicate());
+        events.forEachInWindow(active.since, Double.POSITIVE_INFINITY, (key, e) -> {
+            if (active.matches.test(e)) {
+                logs.putIfAbsent(key, e);
             }
+        });
+        activeFilter = active;
+    }
+
+    /*
+     * The log filter and the timestamp events are logged from, replaced together so that
+     * an event is never checked against one with the other of a different filter
+     */
+    private static final class ActiveFilter {
+        private final double since;
+        private final Predicate<Event> matches;
+
+        ActiveFilter(double since, Predicate<Event> matches) {
+            this.since = since;
+            this.matches = matches;
+        }
+    }
+
+    /**
+     * Logs a newly processed event if it satisfies the active log filter
+     *
+     * @param event the event being processed, not null
+     * @param key   the key of the event, not null
+     */
+    private void logIfMatches(Event event, EventKey key) {
+        ActiveFilter active = activeFilter;
+        if (active != null && event.getTimeStamp() >= active.since && active.matches.test(event)) {
+            logs.put(key, event);
         }
     }
 
@@ -190,12 +330,18 @@ public class Server {
      * @return list of event IDs
      */
     public List<Integer> readLogs() {
-        List<Event> sortedList = sortedEventTimeStamp(logs);
+        synchronized (writeLock) {
+            record(EventLog::appendReadLogs);
+            return drainLogs();
+        }
+    }
+
+    private List<Integer> drainLogs() {
         List<Integer> IDList = new ArrayList<>();
-        for (Event event : sortedList) {
-            IDList.add(event.getEntityId());
+        Map.Entry<EventKey, Event> logged;
+        while ((logged = logs.pollFirstEntry()) != null) {
+            IDList.add(logged.getKey().getEntityId());
         }
-        logs = new ArrayList<>();
         return IDList;
     }
 
@@ -209,13 +355,54 @@ public class Server {
      * @return list of the events for the client in the given time window
      */
     public List<Event> eventsInTimeWindow(TimeWindow timeWindow) {
-        List<Event> inWindow = new ArrayList<>();
-        for (Event e : events) {
-            if (e.getTimeStamp() >= timeWindow.startTime && e.getTimeStamp() <= timeWindow.endTime) {
-                inWindow.add(e);
-            }
-        }
-        return inWindow;
+        return events.window(timeWindow.startTime, timeWindow.endTime);
+    }
+
+    /**
+     * Sets how long the raw events of every entity type without its own policy are kept.
+     * Events past the policy are rolled up by applyRetention.
+     *
+     * @param policy the retention policy, not null
+     */
+    public void setRetention(RetentionPolicy policy) {
+        retention.setPolicy(null, policy, events);
+    }
+
+    /**
+     * Sets how long the raw events of one entity type are kept.
+     * Events past the policy are rolled up by applyRetention.
+     *
+     * @param entityType the entity type, not null
+     * @param policy     the retention policy, not null
+     */
+    public void setRetention(String entityType, RetentionPolicy policy) {
+        retention.setPolicy(entityType, policy, events);
+    }
+
+    /**
+     * Evicts raw events that are past the retention policy of their type, folding them into
+     * rollups. Evicts at most maxEvictions events, so that it can be called repeatedly in the
+     * background while events are processed.
+     *
+     * @param maxEvictions the most events to evict, > 0
+     * @return the number of events evicted
+     */
+    public int applyRetention(int maxEvictions) {
+        List<EventKey> evicted = retention.apply(events, maxEvictions);
+        latestEvents.removed(evicted);
+        return evicted.size();
+    }
+
+    /**
+     * Lists the rollups of evicted events that overlap the given time window,
+     * ordered by the start of their bucket and then by decreasing entity ID.
+     * Events still kept raw are listed by eventsInTimeWindow instead.
+     *
+     * @param timeWindow the time window, inclusive of the start and end times
+     * @return the rollups of the client that overlap the time window
+     */
+    public List<Rollup> rollupsInTimeWindow(TimeWindow timeWindow) {
+        return retention.rollups(timeWindow.startTime, timeWindow.endTime);
     }
 
     /**
@@ -235,39 +422,15 @@ public class Server {
      * If the client has fewer than n events, then this method should return all the events of the client.
      * If no events exist for the client, then this method should return an empty list.
      * If there are multiple events with the same timestamp in the boundary,
-     * the ones with largest EntityId should be included in the list.
+     * the ones with the smallest EntityId are included in the list: among events with the
+     * same timestamp, those with larger EntityIds come first in the time order, and the list
+     * is the end of that order.
      *
      * @param n the max number of events to list
      * @return list of the latest n events of the client
      */
     public List<Event> lastNEvents(int n) {
-        if (events.size() <= n) {
-            return new ArrayList<>(events);
-        }
-        List<Event> sorted = sortedEventTimeStamp(events.stream().toList());
-        return sorted.subList(sorted.size() - n, sorted.size());
-    }
-
-    /**
-     * Sorts a given list by increasing timestamps. If timestamps are equal, sorts by
-     * increasing entityID.
-     *
-     * @param unsorted List of events to be sorted, list is not null
-     * @return new list of sorted events
-     */
-    private List<Event> sortedEventTimeStamp(List<Event> unsorted) {
-        return unsorted.stream().sorted((o1, o2) -> {
-            double diff = o1.getTimeStamp() - o2.getTimeStamp();
-            if (diff == 0) {
-                if (o1.getEntityId() > o2.getEntityId()) {
-                    return -1;
-                }
-                return 1;
-            } else if (diff > 0) {
-                return 1;
-            }
-            return -1;
-        }).toList();
+        return latestEvents.last(n, events);
     }
 
     /**
@@ -279,28 +442,34 @@ public class Server {
      * @return the most active entity ID of the client
      */
     public int mostActiveEntity() {
-        int mostActiveID = 0;
-        int largestCount = Integer.MIN_VALUE;
-        Map<Integer, Integer> eventMap = new HashMap<>();
-        for (Event e : events) {
-            if (!eventMap.containsKey(e.getEntityId())) {
-                eventMap.put(e.getEntityId(), 1);
-            } else {
-                eventMap.put(e.getEntityId(), eventMap.get(e.getEntityId()) + 1);
-            }
-        }
+        return activity.leader();
+    }
 
-        for (int i : eventMap.keySet()) {
-            if (eventMap.get(i) >= largestCount) {
-                if (eventMap.get(i) == largestCount) {
-                    mostActiveID = Math.max(i, mostActiveID);
-                } else {
-                    mostActiveID = i;
-                    largestCount = eventMap.get(i);
-                }
-            }
+    /**
+     * Returns the IDs of the most active entities of the client, in terms of the number
+     * of events they have generated.
+     * With a sketch set by useTopKSketch, the ranking and the entities listed are approximate.
+     *
+     * @param k the most entity IDs to return, >= 0
+     * @return up to k entity IDs, most active first, larger IDs first among ties
+     */
+    public List<Integer> mostActiveEntities(int k) {
+        return activity.top(k);
+    }
+
+    /**
+     * Makes mostActiveEntities answer from a space-saving sketch of a fixed number of counters
+     * kept up to date with every event, instead of ranking every entity of the client.
+     * For clients with very large numbers of entities.
+     *
+     * @param capacity the number of counters in the sketch, > 0, and well above
+     *                 the k that will be asked for
+     */
+    public void useTopKSketch(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException();
         }
-        return mostActiveID;
+        activity.useSketch(capacity);
     }
 
     /**
@@ -323,28 +492,24 @@ public class Server {
             return new ArrayList<>();
         } else {
             if (entities.get(entityId) instanceof Actuator) {
-                eventValues = processed
-                        .stream().toList()
-                        .parallelStream()
+                eventValues = events.all()
+                        .stream()
                         .filter(e -> e instanceof ActuatorEvent)
                         .map(Event::getValueBoolean)
                         .collect(Collectors.toList());
-                timestamps = processed
-                        .stream().toList()
-                        .parallelStream()
+                timestamps = events.all()
+                        .stream()
                         .filter(e -> e instanceof ActuatorEvent)
                         .map(Event::getTimeStamp)
                         .collect(Collectors.toList());
             } else {
-                eventValues = processed
-                        .stream().toList()
-                        .parallelStream()
+                eventValues = events.all()
+                        .stream()
                         .filter(e -> e instanceof SensorEvent)
                         .map(e -> e.getValueDouble())
                         .collect(Collectors.toList());
-                timestamps = processed
-                        .stream().toList()
-                        .parallelStream()
+                timestamps = events.all()
+                        .stream()
                         .filter(e -> e instanceof SensorEvent)
                         .map(e -> e.getTimeStamp())
                         .collect(Collectors.toList());
@@ -382,8 +547,49 @@ public class Server {
      * @param event
      */
     public void processIncomingEvent(Event event) {
-        System.out.println("Processing Incoming Event");
-        events.add(event);
+        synchronized (writeLock) {
+            record(log -> log.appendEvent(event));
+            applyEvent(event);
+        }
+    }
+
+    /**
+     * Keeps an event that arrived after later events of this client were already processed,
+     * apart from the events of this server, until it is read with readLateEvents
+     *
+     * @param event the late event, not null
+     */
+    public void processLateEvent(Event event) {
+        System.out.println("Keeping Late Event");
+        lateEvents.add(event);
+    }
+
+    /**
+     * Returns the late events handed to this server since they were last read, in the order
+     * they arrived, and clears them
+     *
+     * @return the late events
+     */
+    public List<Event> readLateEvents() {
+        List<Event> late = new ArrayList<>();
+        Event event;
+        while ((event = lateEvents.poll()) != null) {
+            late.add(event);
+        }
+        return late;
+    }
+
+    /**
+     * Adds an event to the events of this server, registers its entity
+     * and logs it if it satisfies the active log filter
+     *
+     * @param event the event, not null
+     */
+    private void applyEvent(Event event) {
+        EventKey key = events.add(event);
+        retention.added(key, event);
+        activity.increment(event.getEntityId());
+        latestEvents.added(key, event);
         if (!entities.containsKey(event.getEntityId())) {
             if (event.getValueDouble() == -1) {
                 entities.put(event.getEntityId(), new Actuator(
@@ -415,13 +621,15 @@ public class Server {
                 );
             }
         }
-        if (isLogging) {
-            logIf(logFilter);
-        }
-        processed.add(event);
+        logIfMatches(event, key);
 //        System.out.println(entities.get(event.getEntityId()).toString());
     }
 
+    // testing only
+    RequestTimeline getRequestTimeline() {
+        return requests;
+    }
+
     /**
      * Parses the entityId from a string from the request
      *
@@ -436,8 +644,9 @@ public class Server {
 
     /**
      * Processes the incoming request, then does what the request wants.
-     * If a request comes in that is out of order based on increasing timestamp,
-     * reprocess all requests that have a timestamp less than the current request
+     * Every request takes effect once, in the order it arrives, except that a request
+     * setting the max wait time or the log filter is ignored if a request of the same
+     * command with a later timestamp was already processed
      *
      * @param request the request to be processed, not null
      * @throws IOException
@@ -446,27 +655,9 @@ public class Server {
     public void processIncomingRequest(Request request) throws IOException, ClassNotFoundException {
         System.out.println("Processing Incoming Request...");
         String requestData = request.getRequestData();
-        while (bufferRequest.size() > 11) {
-            bufferRequest.poll();
-        }
-        if (!bufferRequest.isEmpty() && !isReprocessing) {
-            BlockingQueue<Request> tempQueue = new LinkedBlockingQueue<>();
-            for (Request oldReq : bufferRequest) {
-                if (oldReq.getTimeStamp() > request.getTimeStamp()) {
-                    tempQueue.add(oldReq);
-                }
-            }
-            if (!tempQueue.isEmpty()) {
-                tempQueue.add(request);
-                isReprocessing = true;
-                for (Request tempReq : tempQueue) {
-                    processIncomingRequest(tempReq);
-                }
-                isReprocessing = false;
-            }
-            bufferRequest.add(request);
-        } else if (!isReprocessing) {
-            bufferRequest.add(request);
+        if (requests.insert(request) == RequestTimeline.Decision.SUPERSEDED) {
+            System.out.println("Request superseded by a later request");
+            return;
         }
         final int id = Integer.parseInt(requestData.substring(0, requestData.indexOf(",")));
 
@@ -498,13 +689,9 @@ public class Server {
             }
             case CONTROL_NOTIFY_IF -> {
                 logTimeStamp = request.getTimeStamp();
-                isLogging = true;
-                if (requestData.contains("Boolean")) {
-                    logFilter = (Deserializer.deserializeFilter(requestData));
-                } else if (requestData.contains("Double")) {
-                    logFilter = (Deserializer.deserializeFilter(requestData));
-                } else if (requestData.contains("Filters")) {
-                    logFilter = (Deserializer.deserializeFilter(requestData));
+                if (requestData.contains("Boolean") || requestData.contains("Double")
+                        || requestData.contains("Filters")) {
+                    logIf(Deserializer.deserializeFilter(requestData));
                 }
             }
             case ANALYSIS_GET_ALL_LOGS -> {
@@ -0,0 +1,97 @@
+package cpen221.mp3.server;
+
+import cpen221.mp3.event.Event;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/*
+ * An EventStore backed by a concurrent skip list, giving O(log n) insertion and
+ * O(log n + k) range queries
+ */
+class SkipListEventStore implements EventStore {
+    private final ConcurrentSkipListMap<EventKey, Event> events = new ConcurrentSkipListMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    // Abstraction function:
+    //    Represents the events that are the values of events, in the order of their keys,
+    //    where sequence is the number of events added so far
+
+    // Rep Invariant:
+    //    events, sequence != null, every key of events is the key of its value
+
+    @Override
+    public EventKey add(Event event) {
+        EventKey key = new EventKey(event, sequence.getAndIncrement());
+        events.put(key, event);
+        return key;
+    }
+
+    @Override
+    public int size() {
+        return events.size();
+    }
+
+    @Override
+    public List<Event> window(double startTime, double endTime) {
+        List<Event> inWindow = new ArrayList<>();
+        forEachInWindow(startTime, endTime, (key, event) -> inWindow.add(event));
+        return inWindow;
+    }
+
+    @Override
+    public void forEachInWindow(double startTime, double endTime, BiConsumer<EventKey, Event> action) {
+        if (startTime > endTime) {
+            return;
+        }
+        ConcurrentNavigableMap<EventKey, Event> range =
+                events.subMap(EventKey.first(startTime), true, EventKey.last(endTime), true);
+        for (Map.Entry<EventKey, Event> entry : range.entrySet()) {
+            action.accept(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public List<Event> last(int n) {
+        List<Event> latest = new ArrayList<>(Math.min(n, 1024));
+        Iterator<Event> newestFirst = events.descendingMap().values().iterator();
+        while (latest.size() < n && newestFirst.hasNext()) {
+            latest.add(newestFirst.next());
+        }
+        Collections.reverse(latest);
+        return latest;
+    }
+
+    @Override
+    public void forEachOldest(int n, BiConsumer<EventKey, Event> action) {
+        Iterator<Map.Entry<EventKey, Event>> oldestFirst = events.entrySet().iterator();
+        for (int i = 0; i < n && oldestFirst.hasNext(); i++) {
+            Map.Entry<EventKey, Event> entry = oldestFirst.next();
+            action.accept(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public int removeAll(Collection<EventKey> keys) {
+        int removed = 0;
+        for (EventKey key : keys) {
+            if (events.remove(key) != null) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public Event latest() {
+        Map.Entry<EventKey, Event> last = events.lastEntry();
+        return last == null ? null : last.getValue();
+    }
+}
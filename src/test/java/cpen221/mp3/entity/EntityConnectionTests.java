@@ -0,0 +1,228 @@
+package cpen221.mp3.entity;
+
+import cpen221.mp3.client.Request;
+import cpen221.mp3.client.RequestCommand;
+import cpen221.mp3.client.RequestType;
+import cpen221.mp3.event.ActuatorEvent;
+import cpen221.mp3.event.Event;
+import cpen221.mp3.event.SensorEvent;
+import cpen221.mp3.server.BinaryCodec;
+import cpen221.mp3.server.CommandChannel;
+import cpen221.mp3.server.FlowControl;
+import cpen221.mp3.server.SeverCommandToActuator;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EntityConnectionTests {
+    static String IP = "127.0.0.1";
+
+    @Test
+    public void testPersistentConnectionStreamsEvents() throws IOException {
+        try (ServerSocket server = new ServerSocket(4611)) {
+            Sensor sensor = new Sensor(1, 0, "TempSensor", IP, 4611);
+            sensor.setPersistentConnection(true);
+            for (int i = 0; i < 3; i++) {
+                sensor.sendEvent(new SensorEvent(i, 0, 1, "TempSensor", 20 + i));
+            }
+
+            try (Socket s = server.accept()) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+                for (int i = 0; i < 3; i++) {
+                    assertEquals(new SensorEvent(i, 0, 1, "TempSensor", 20 + i).toString(), in.readLine());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testConnectionPerEventCloses() throws IOException {
+        try (ServerSocket server = new ServerSocket(4612)) {
+            Actuator actuator = new Actuator(2, 0, "Switch", false, IP, 4612);
+            actuator.sendEvent(new ActuatorEvent(1, 0, 2, "Switch", true));
+            actuator.sendEvent(new ActuatorEvent(2, 0, 2, "Switch", false));
+
+            for (int i = 1; i <= 2; i++) {
+                try (Socket s = server.accept()) {
+                    BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+                    assertTrue(in.readLine().contains("TimeStamp=" + (double) i));
+                    assertEquals(null, in.readLine());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPersistentConnectionReconnects() throws IOException, InterruptedException {
+        Sensor sensor = new Sensor(3, 0, "CO2Sensor", IP, 4613);
+        sensor.setPersistentConnection(true);
+
+        // nothing listens yet, so the sensor backs off until the server comes up
+        Thread sender = new Thread(() -> sensor.sendEvent(new SensorEvent(1, 0, 3, "CO2Sensor", 400)));
+        sender.start();
+        Thread.sleep(300);
+        try (ServerSocket server = new ServerSocket(4613)) {
+            try (Socket s = server.accept()) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+                assertTrue(in.readLine().contains("TimeStamp=1.0"));
+            }
+            sender.join(5000);
+
+            // the server dropped the connection; keep sending until the sensor reconnects
+            Thread resender = new Thread(() -> {
+                for (int i = 2; i < 5; i++) {
+                    sensor.sendEvent(new SensorEvent(i, 0, 3, "CO2Sensor", 400));
+                }
+            });
+            resender.start();
+            try (Socket s = server.accept()) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+                assertTrue(in.readLine().startsWith("SensorEvent{"));
+            }
+            resender.join(5000);
+        }
+    }
+
+    @Test
+    public void testGeneratedEventsAreBatched() throws IOException {
+        try (ServerSocket server = new ServerSocket(4614)) {
+            Sensor sensor = new Sensor(4, 0, "TempSensor", IP, 4614);
+            sensor.setPersistentConnection(true);
+            sensor.setEventGenerationFrequency(200);
+            sensor.setEventBatching(10, 5000);
+            sensor.start();
+
+            try (Socket s = server.accept()) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+                assertTrue(in.readLine().startsWith("EventBatch{Count=10,Events=SensorEvent{"));
+                assertTrue(in.readLine().startsWith("EventBatch{Count=10,"));
+            }
+        }
+    }
+
+    @Test
+    public void testBinaryFallsBackToText() throws IOException {
+        try (ServerSocket server = new ServerSocket(4615)) {
+            Sensor sensor = new Sensor(5, 0, "TempSensor", IP, 4615);
+            sensor.setPersistentConnection(true);
+            sensor.setBinaryProtocol(true);
+            Thread sender = new Thread(() -> sensor.sendEvent(new SensorEvent(1, 0, 5, "TempSensor", 20)));
+            sender.start();
+
+            // a server that only speaks text never answers the hello, so the sensor reconnects with text
+            try (Socket s = server.accept()) {
+                InputStream in = s.getInputStream();
+                assertEquals(BinaryCodec.MAGIC, (byte) in.read());
+                assertEquals(BinaryCodec.VERSION, (byte) in.read());
+                assertEquals(-1, in.read());
+            }
+            try (Socket s = server.accept()) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+                assertEquals(new SensorEvent(1, 0, 5, "TempSensor", 20).toString(), in.readLine());
+            }
+        }
+    }
+
+    @Test
+    public void testSlowDownStretchesBatching() throws IOException {
+        try (ServerSocket server = new ServerSocket(4619)) {
+            Sensor sensor = new Sensor(6, 0, "TempSensor", IP, 4619);
+            sensor.setPersistentConnection(true);
+            sensor.setEventGenerationFrequency(200);
+            sensor.start();
+
+            try (Socket s = server.accept()) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+                assertTrue(in.readLine().startsWith("SensorEvent{"));
+
+                // the sensor batches once it reads the signal after its next send
+                s.getOutputStream().write(FlowControl.SLOW_DOWN);
+                s.getOutputStream().flush();
+                assertTrue(readUntil(in, "EventBatch{Count=2,"));
+
+                s.getOutputStream().write(FlowControl.RESUME);
+                s.getOutputStream().flush();
+                assertTrue(readUntil(in, "SensorEvent{"));
+            }
+        }
+    }
+
+    @Test
+    public void testStuckSendDoesNotHoldUpOtherBatchers() throws InterruptedException {
+        CountDownLatch unblock = new CountDownLatch(1);
+        EventBatcher stuck = new EventBatcher(100, 5, batch -> {
+            try {
+                unblock.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        BlockingQueue<List<Event>> sent = new LinkedBlockingQueue<>();
+        EventBatcher other = new EventBatcher(100, 5, sent::add);
+
+        stuck.add(new SensorEvent(1, 0, 1, "TempSensor", 20));
+        Thread.sleep(50);
+        // the stuck batcher still takes events while its frame cannot be sent
+        stuck.add(new SensorEvent(2, 0, 1, "TempSensor", 21));
+        other.add(new SensorEvent(3, 0, 2, "TempSensor", 22));
+        List<Event> batch = sent.poll(5, TimeUnit.SECONDS);
+        unblock.countDown();
+        assertEquals(1, batch == null ? 0 : batch.size());
+    }
+
+    private static boolean readUntil(BufferedReader in, String prefix) throws IOException {
+        for (int i = 0; i < 200; i++) {
+            String line = in.readLine();
+            if (line == null) {
+                return false;
+            }
+            if (line.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testActuatorAcksPipelinedCommands() throws IOException {
+        Actuator actuator = new Actuator(9, 0, "Switch", false, IP, 4626);
+        try (ServerSocket listener = new ServerSocket(4627)) {
+            Thread accepting = new Thread(() -> actuator.listen(listener));
+            accepting.setDaemon(true);
+            accepting.start();
+
+            try (Socket s = new Socket(IP, 4627)) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+                PrintWriter out = new PrintWriter(s.getOutputStream());
+                Request toggle = new Request(RequestType.CONTROL, RequestCommand.CONTROL_TOGGLE_ACTUATOR_STATE,
+                        actuator + "," + SeverCommandToActuator.TOGGLE_STATE);
+                for (int i = 0; i < 3; i++) {
+                    out.println(CommandChannel.frame(i, toggle + "}"));
+                }
+                // a command for another actuator is acked but not applied
+                out.println(CommandChannel.frame(3, "getId=10"));
+                out.flush();
+
+                for (int i = 0; i < 4; i++) {
+                    assertEquals(CommandChannel.ack(i), in.readLine());
+                }
+            }
+        }
+        assertTrue(actuator.getState());
+        assertEquals(3, actuator.getCommandLatency().count());
+    }
+}
@@ -0,0 +1,178 @@
+package cpen221.mp3.handler;
+
+import cpen221.mp3.client.Client;
+import cpen221.mp3.client.Request;
+import cpen221.mp3.client.RequestCommand;
+import cpen221.mp3.client.RequestType;
+import cpen221.mp3.event.Event;
+import cpen221.mp3.event.SensorEvent;
+import cpen221.mp3.server.Server;
+import org.junit.jupiter.api.Test;
+
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BackpressureTests {
+
+    @Test
+    public void testBudgetPerClientAndGlobal() {
+        IngressBudget budget = new IngressBudget(2, 3);
+        budget.admit(0);
+        assertFalse(budget.isExceeded(0));
+        budget.admit(0);
+        assertTrue(budget.isExceeded(0));
+        assertFalse(budget.isExceeded(1));
+
+        // the third message of any client uses up the global budget
+        budget.admit(1);
+        assertTrue(budget.isExceeded(1));
+        assertEquals(3, budget.total());
+
+        budget.release(0);
+        assertFalse(budget.isExceeded(0));
+        assertFalse(budget.isExceeded(1));
+        assertEquals(1, budget.waiting(0));
+        assertTrue(budget.awaitRoom(0, () -> false));
+    }
+
+    @Test
+    public void testAwaitEndsWhenStopped() {
+        IngressBudget budget = new IngressBudget(1, 10);
+        budget.admit(0);
+        assertFalse(budget.awaitRoom(0, () -> true));
+    }
+
+    @Test
+    public void testMessagesCountUntilProcessed() throws InterruptedException {
+        ConcurrentHashMap<Integer, Server> serverMap = new ConcurrentHashMap<>();
+        BlockingProcessor processor = new BlockingProcessor(serverMap);
+        DeadlineScheduler scheduler = new DeadlineScheduler(1, serverMap, processor, LatePolicy.APPLY,
+                DeadlineScheduler.DEFAULT_INBOX_CAPACITY, WaitStrategy.PARK, new IngressBudget(3, 100));
+        // far enough apart that the watermark releases every event but the last right away
+        for (int i = 0; i < 5; i++) {
+            scheduler.submit(new SensorEvent(i * 10000, 0, 1, "TempSensor", i), "127.0.0.1");
+        }
+        assertTrue(scheduler.isOverBudget(0));
+        assertFalse(scheduler.isOverBudget(1));
+
+        processor.proceed.countDown();
+        scheduler.close(5000);
+        assertTrue(scheduler.awaitBudget(0));
+        assertEquals(0, scheduler.budget().total());
+        assertEquals(5, processor.processed);
+    }
+
+    @Test
+    public void testFullInboxDoesNotBlockReactor() throws Exception {
+        ConcurrentHashMap<Integer, Server> serverMap = new ConcurrentHashMap<>();
+        for (int clientId = 0; clientId < 2; clientId++) {
+            Server server = new Server(new Client(clientId, "test@test.com", "127.0.0.1", 4630));
+            server.processIncomingRequest(new Request(RequestType.CONFIG, RequestCommand.CONFIG_UPDATE_MAX_WAIT_TIME, clientId + ",0.01"));
+            serverMap.put(clientId, server);
+        }
+        ClientBlockingProcessor processor = new ClientBlockingProcessor(serverMap);
+        // client 0 goes to the first shard and client 1 to the second
+        DeadlineScheduler scheduler = new DeadlineScheduler(2, serverMap, processor, LatePolicy.APPLY,
+                4, WaitStrategy.PARK, new IngressBudget(1 << 16, 1 << 20));
+        ReactorThread reactor = new ReactorThread(scheduler);
+        Thread reactorThread = new Thread(reactor);
+        reactorThread.setDaemon(true);
+        reactorThread.start();
+
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress("127.0.0.1", 4630));
+            try (Socket blocked = new Socket("127.0.0.1", 4630)) {
+                reactor.register(listener.accept());
+                PrintWriter out = new PrintWriter(blocked.getOutputStream());
+                for (int i = 0; i < 100; i++) {
+                    out.println(new SensorEvent(i, 0, 1, "TempSensor", i));
+                }
+                out.flush();
+                Thread.sleep(300);
+
+                // the first shard is stuck with a full inbox; the other connection is still read
+                try (Socket other = new Socket("127.0.0.1", 4630)) {
+                    reactor.register(listener.accept());
+                    PrintWriter otherOut = new PrintWriter(other.getOutputStream(), true);
+                    for (int i = 0; i < 5; i++) {
+                        otherOut.println(new SensorEvent(i, 1, 2, "TempSensor", i));
+                    }
+                    assertTrue(processor.await(1, 5, 5000));
+                }
+
+                // every message kept while the inbox was full is still processed, once
+                processor.proceed.countDown();
+                assertTrue(processor.await(0, 100, 5000));
+            }
+        }
+        reactor.close();
+        scheduler.close(5000);
+        assertEquals(100, processor.processed[0].get());
+    }
+
+    /*
+     * A processor that holds the events of client 0 until it is told to proceed
+     */
+    private static class ClientBlockingProcessor extends MessageProcessor {
+        private final CountDownLatch proceed = new CountDownLatch(1);
+        private final AtomicInteger[] processed = {new AtomicInteger(), new AtomicInteger()};
+
+        ClientBlockingProcessor(ConcurrentHashMap<Integer, Server> serverMap) {
+            super(serverMap, 0);
+        }
+
+        @Override
+        void processEvent(Server server, Event e) {
+            if (e.getClientId() == 0) {
+                try {
+                    proceed.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            processed[e.getClientId()].incrementAndGet();
+        }
+
+        boolean await(int clientId, int count, long timeoutMillis) throws InterruptedException {
+            long start = System.currentTimeMillis();
+            while (processed[clientId].get() < count) {
+                if (System.currentTimeMillis() - start > timeoutMillis) {
+                    return false;
+                }
+                Thread.sleep(10);
+            }
+            return true;
+        }
+    }
+
+    /*
+     * A processor that holds every event until it is told to proceed
+     */
+    private static class BlockingProcessor extends MessageProcessor {
+        private final CountDownLatch proceed = new CountDownLatch(1);
+        private volatile int processed = 0;
+
+        BlockingProcessor(ConcurrentHashMap<Integer, Server> serverMap) {
+            super(serverMap, 0);
+        }
+
+        @Override
+        void processEvent(Server server, Event e) {
+            try {
+                proceed.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            processed++;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package cpen221.mp3.handler;
+
+import cpen221.mp3.entity.Actuator;
+import cpen221.mp3.entity.Entity;
+import cpen221.mp3.entity.Sensor;
+import cpen221.mp3.event.ActuatorEvent;
+import cpen221.mp3.event.Event;
+import cpen221.mp3.event.EventBatch;
+import cpen221.mp3.event.SensorEvent;
+import cpen221.mp3.server.EventLog;
+import cpen221.mp3.server.FlowControl;
+import cpen221.mp3.server.RetentionPolicy;
+import cpen221.mp3.server.Rollup;
+import cpen221.mp3.server.Server;
+import cpen221.mp3.server.TimeWindow;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MessageHandlerTests {
+    static String IP = "127.0.0.1";
+
+    private static MessageHandler startHandler(int port, IngestMode mode) throws InterruptedException {
+        MessageHandler mh = new MessageHandler(port, mode);
+        Thread t = new Thread(mh::start);
+        t.setDaemon(true);
+        t.start();
+        Thread.sleep(500);
+        return mh;
+    }
+
+    private static Server awaitServer(MessageHandler mh, int clientId, int entities) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            Server server = mh.getServerMap().get(clientId);
+            if (server != null && server.getAllEntities().size() >= entities) {
+                return server;
+            }
+            Thread.sleep(20);
+        }
+        return mh.getServerMap().get(clientId);
+    }
+
+    @Test
+    public void testNioFramesSplitLines() throws InterruptedException, IOException {
+        MessageHandler mh = startHandler(4601, IngestMode.NIO);
+        Event e1 = new SensorEvent(0.1, 3, 1, "TempSensor", 21.5);
+        Event e2 = new ActuatorEvent(0.2, 3, 2, "Switch", true);
+        byte[] bytes = (e1 + "\n" + e2 + "\r\n").getBytes(StandardCharsets.UTF_8);
+
+        try (Socket s = new Socket(IP, 4601)) {
+            OutputStream out = s.getOutputStream();
+            // split the second line across two writes
+            int split = bytes.length - 10;
+            out.write(bytes, 0, split);
+            out.flush();
+            Thread.sleep(100);
+            out.write(bytes, split, bytes.length - split);
+            out.flush();
+        }
+
+        Server server = awaitServer(mh, 3, 2);
+        assertNotNull(server);
+        assertEquals(Set.of(1, 2), new HashSet<>(server.getAllEntities()));
+    }
+
+    @Test
+    public void testNioManyConnections() throws InterruptedException, IOException {
+        MessageHandler mh = startHandler(4602, IngestMode.NIO);
+        for (int i = 0; i < 20; i++) {
+            try (Socket s = new Socket(IP, 4602)) {
+                PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+                out.println(new SensorEvent(i, 4, i, "CO2Sensor", 400 + i));
+            }
+        }
+
+        Server server = awaitServer(mh, 4, 20);
+        assertNotNull(server);
+        List<Integer> entities = server.getAllEntities();
+        assertEquals(20, entities.size());
+    }
+
+    @Test
+    public void testVirtualThreadsRespectConnectionLimit() throws InterruptedException, IOException {
+        MessageHandler mh = new MessageHandler(4603, IngestMode.VIRTUAL_THREAD);
+        mh.setConnectionLimit(2);
+        mh.setAcceptBacklog(8);
+        Thread t = new Thread(mh::start);
+        t.setDaemon(true);
+        t.start();
+        Thread.sleep(500);
+
+        // two idle connections use up the limit, so the third is only read once one closes
+        Socket idle1 = new Socket(IP, 4603);
+        Socket idle2 = new Socket(IP, 4603);
+        try (Socket s = new Socket(IP, 4603)) {
+            PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+            out.println(new SensorEvent(0.5, 5, 1, "TempSensor", 20.0));
+            Thread.sleep(500);
+            assertNull(mh.getServerMap().get(5));
+
+            idle1.close();
+            assertNotNull(awaitServer(mh, 5, 1));
+        } finally {
+            idle2.close();
+        }
+        mh.shutdown(1000);
+    }
+
+    @Test
+    public void testShutdownDrainsInFlightHandlers() throws InterruptedException, IOException {
+        MessageHandler mh = startHandler(4604, IngestMode.VIRTUAL_THREAD);
+        Socket open = new Socket(IP, 4604);
+        PrintWriter out = new PrintWriter(open.getOutputStream(), true);
+        out.println(new SensorEvent(0.5, 6, 1, "TempSensor", 20.0));
+        assertNotNull(awaitServer(mh, 6, 1));
+
+        long start = System.currentTimeMillis();
+        mh.shutdown(500);
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertThrows(IOException.class, () -> new Socket(IP, 4604).close());
+        open.close();
+    }
+
+    @Test
+    public void testMessagesWaitForMaxWaitTime() throws InterruptedException, IOException {
+        MessageHandler mh = startHandler(4605, IngestMode.BLOCKING);
+        long sent = System.currentTimeMillis();
+        try (Socket s = new Socket(IP, 4605)) {
+            PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+            out.println(new SensorEvent(0.5, 7, 1, "TempSensor", 20.0));
+        }
+        Thread.sleep(1000);
+        assertNull(mh.getServerMap().get(7));
+
+        assertNotNull(awaitServer(mh, 7, 1));
+        assertTrue(System.currentTimeMillis() - sent >= Server.DEFAULT_MAX_WAIT_TIME * 1000);
+        mh.shutdown(1000);
+    }
+
+    @Test
+    public void testBatchFramesAreUnpacked() throws InterruptedException, IOException {
+        MessageHandler mh = startHandler(4606, IngestMode.NIO);
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            events.add(new SensorEvent(i, 8, i, "PressureSensor", 1020 + i));
+        }
+        try (Socket s = new Socket(IP, 4606)) {
+            PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+            out.println(new EventBatch(events));
+        }
+
+        Server server = awaitServer(mh, 8, 5);
+        assertNotNull(server);
+        assertEquals(5, server.getAllEntities().size());
+        mh.shutdown(1000);
+    }
+
+    @Test
+    public void testBinaryConnectionBlocking() throws InterruptedException {
+        testBinaryConnection(4607, IngestMode.BLOCKING);
+    }
+
+    @Test
+    public void testBinaryConnectionNio() throws InterruptedException {
+        testBinaryConnection(4608, IngestMode.NIO);
+    }
+
+    private static void testBinaryConnection(int port, IngestMode mode) throws InterruptedException {
+        MessageHandler mh = startHandler(port, mode);
+        Sensor sensor = new Sensor(1, 9, "TempSensor", IP, port);
+        Actuator actuator = new Actuator(2, 9, "Switch", false, IP, port);
+        for (Entity entity : List.of(sensor, actuator)) {
+            entity.setPersistentConnection(true);
+            entity.setBinaryProtocol(true);
+        }
+        sensor.sendEvent(new SensorEvent(0.1, 9, 1, "TempSensor", 21.5));
+        actuator.sendEvent(new ActuatorEvent(0.2, 9, 2, "Switch", true));
+
+        Server server = awaitServer(mh, 9, 2);
+        assertNotNull(server);
+        assertEquals(Set.of(1, 2), new HashSet<>(server.getAllEntities()));
+        mh.shutdown(1000);
+    }
+
+    @Test
+    public void testRestartRecoversFromEventLog(@TempDir Path logs) throws InterruptedException, IOException {
+        MessageHandler first = new MessageHandler(4609, IngestMode.NIO);
+        first.setEventLog(logs, 1);
+        Thread t = new Thread(first::start);
+        t.setDaemon(true);
+        t.start();
+        Thread.sleep(500);
+        try (Socket s = new Socket(IP, 4609)) {
+            PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+            out.println(new SensorEvent(0.1, 12, 1, "TempSensor", 21.5));
+            out.println(new ActuatorEvent(0.2, 12, 2, "Switch", true));
+        }
+        assertNotNull(awaitServer(first, 12, 2));
+        first.shutdown(1000);
+
+        MessageHandler second = new MessageHandler(4610, IngestMode.NIO);
+        second.setEventLog(logs, 1);
+        t = new Thread(second::start);
+        t.setDaemon(true);
+        t.start();
+        Thread.sleep(500);
+        Server recovered = second.getServerMap().get(12);
+        assertNotNull(recovered);
+        assertEquals(Set.of(1, 2), new HashSet<>(recovered.getAllEntities()));
+        assertEquals(2, recovered.lastNEvents(10).size());
+        second.shutdown(1000);
+    }
+
+    @Test
+    public void testRecoverySkipsBadClientLogs(@TempDir Path logs) throws IOException {
+        EventLog log = EventLog.open(logs.resolve("client-14"), 1);
+        log.appendEvent(new SensorEvent(0.1, 14, 1, "TempSensor", 21.5));
+        log.close();
+        Files.createDirectories(logs.resolve("client-old"));
+        // a segment that cannot be opened makes the log of client 15 unreadable
+        Files.createDirectories(logs.resolve("client-15").resolve("segment-00000000.log"));
+
+        ConcurrentHashMap<Integer, Server> serverMap = new ConcurrentHashMap<>();
+        MessageProcessor processor = new MessageProcessor(serverMap, 0);
+        processor.setEventLog(logs, 1);
+        processor.recover();
+        assertEquals(Set.of(14), serverMap.keySet());
+        assertEquals(List.of(1), serverMap.get(14).getAllEntities());
+        assertTrue(Files.exists(logs.resolve("client-old")));
+        assertFalse(Files.exists(logs.resolve("client-15")));
+    }
+
+    @Test
+    public void testUnreplayableLogIsQuarantined(@TempDir Path logs) throws IOException {
+        // one record that passes its checksum but has no known kind
+        byte[] payload = {99};
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(2 * Integer.BYTES + payload.length);
+        record.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        Path clientLog = logs.resolve("client-16");
+        Files.createDirectories(clientLog);
+        Files.write(clientLog.resolve("segment-00000000.log"), record.array());
+
+        ConcurrentHashMap<Integer, Server> serverMap = new ConcurrentHashMap<>();
+        MessageProcessor processor = new MessageProcessor(serverMap, 0);
+        processor.setEventLog(logs, 1);
+        assertThrows(RuntimeException.class, () -> processor.serverFor(16, IP));
+        assertTrue(serverMap.isEmpty());
+        try (Stream<Path> files = Files.list(logs)) {
+            assertTrue(files.anyMatch(f -> f.getFileName().toString().startsWith(MessageProcessor.QUARANTINE_PREFIX + "client-16")));
+        }
+
+        // the client starts over with an empty log rather than failing on every message
+        Server server = processor.serverFor(16, IP);
+        assertTrue(server.getAllEntities().isEmpty());
+        assertEquals(server, serverMap.get(16));
+        server.closeEventLog();
+    }
+
+    @Test
+    public void testRetentionRunsInBackground() throws InterruptedException, IOException {
+        MessageHandler mh = new MessageHandler(4616, IngestMode.NIO);
+        mh.setRetention(RetentionPolicy.forCount(1, 1000));
+        Thread t = new Thread(mh::start);
+        t.setDaemon(true);
+        t.start();
+        Thread.sleep(500);
+        try (Socket s = new Socket(IP, 4616)) {
+            PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+            for (int i = 0; i < 5; i++) {
+                out.println(new SensorEvent(i, 13, i, "TempSensor", i));
+            }
+        }
+        Server server = awaitServer(mh, 13, 5);
+        assertNotNull(server);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.lastNEvents(10).size() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, server.lastNEvents(10).size());
+        assertEquals(4, server.rollupsInTimeWindow(new TimeWindow(0, 10)).stream().mapToInt(Rollup::getCount).sum());
+        mh.shutdown(1000);
+    }
+
+    @Test
+    public void testOverBudgetConnectionSlowsDownBlocking() throws InterruptedException, IOException {
+        testOverBudgetConnectionSlowsDown(4617, IngestMode.BLOCKING);
+    }
+
+    @Test
+    public void testOverBudgetConnectionSlowsDownNio() throws InterruptedException, IOException {
+        testOverBudgetConnectionSlowsDown(4618, IngestMode.NIO);
+    }
+
+    private static void testOverBudgetConnectionSlowsDown(int port, IngestMode mode) throws InterruptedException, IOException {
+        MessageHandler mh = new MessageHandler(port, mode);
+        mh.setIngressBudget(5, 1000);
+        Thread t = new Thread(mh::start);
+        t.setDaemon(true);
+        t.start();
+        Thread.sleep(500);
+
+        try (Socket s = new Socket(IP, port)) {
+            s.setSoTimeout(10000);
+            OutputStream out = s.getOutputStream();
+            // close enough in time that the watermark holds every event until its deadline
+            for (int i = 0; i < 10; i++) {
+                out.write((new SensorEvent(i * 100, 12, i, "TempSensor", 20) + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            out.flush();
+
+            InputStream in = s.getInputStream();
+            assertEquals(FlowControl.SLOW_DOWN, (byte) in.read());
+            assertEquals(FlowControl.RESUME, (byte) in.read());
+            Server server = awaitServer(mh, 12, 10);
+            assertNotNull(server);
+            assertEquals(10, server.getAllEntities().size());
+        }
+        mh.shutdown(1000);
+    }
+}
@@ -0,0 +1,82 @@
+package cpen221.mp3.handler;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MpscRingTests {
+
+    @Test
+    public void testFifoAndFull() {
+        MpscRing<Integer> ring = new MpscRing<>(3, WaitStrategy.PARK);
+        assertEquals(4, ring.capacity());
+        assertTrue(ring.isEmpty());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(4));
+        assertEquals(0, ring.poll());
+        assertTrue(ring.offer(4));
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(4, ring.drainTo(drained));
+        assertEquals(List.of(1, 2, 3, 4), drained);
+        assertNull(ring.poll());
+        assertNull(ring.poll(1, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testParkedConsumerIsWoken() throws InterruptedException {
+        MpscRing<Integer> ring = new MpscRing<>(16, WaitStrategy.PARK);
+        Thread producer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {
+            }
+            ring.put(7);
+        });
+        producer.start();
+        long start = System.nanoTime();
+        assertEquals(7, ring.poll(10, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        producer.join();
+    }
+
+    @ParameterizedTest
+    @EnumSource(WaitStrategy.class)
+    public void testProducersThroughFullRing(WaitStrategy strategy) throws InterruptedException {
+        int producers = 4;
+        int perProducer = 5000;
+        // far smaller than what is sent, so producers keep waiting for room
+        MpscRing<long[]> ring = new MpscRing<>(64, strategy);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    ring.put(new long[]{producer, i});
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        long[] next = new long[producers];
+        for (int taken = 0; taken < producers * perProducer; taken++) {
+            long[] e = ring.poll(10, TimeUnit.SECONDS);
+            // the elements of each producer come out in the order it added them
+            assertEquals(next[(int) e[0]]++, e[1]);
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(ring.isEmpty());
+        assertEquals(0, ring.size());
+    }
+}
@@ -0,0 +1,165 @@
+package cpen221.mp3.handler;
+
+import cpen221.mp3.CSVEventReader;
+import cpen221.mp3.client.Client;
+import cpen221.mp3.event.Event;
+import cpen221.mp3.event.SensorEvent;
+import cpen221.mp3.server.Message;
+import cpen221.mp3.server.Server;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ReorderBufferTests {
+    private static final String CSV = "data/tests/single_client_1000_events_out-of-order.csv";
+
+    private static ScheduledMessage scheduled(Event event) {
+        return new ScheduledMessage(new Message(event, 0), "", "127.0.0.1", 0);
+    }
+
+    private static List<Double> timestamps(List<Event> events) {
+        return events.stream().map(Event::getTimeStamp).toList();
+    }
+
+    private static List<Double> sorted(List<Double> timestamps) {
+        List<Double> sorted = new ArrayList<>(timestamps);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    @Test
+    public void testWatermarkReleasesInTimestampOrder() {
+        ReorderBuffer buffer = new ReorderBuffer();
+        List<Event> released = new ArrayList<>();
+        buffer.add(scheduled(new SensorEvent(5, 0, 1, "TempSensor", 1)), 2, s -> released.add(s.getMessage().getEvent()));
+        buffer.add(scheduled(new SensorEvent(3, 0, 1, "TempSensor", 2)), 2, s -> released.add(s.getMessage().getEvent()));
+        assertEquals(List.of(3.0), timestamps(released));
+        buffer.add(scheduled(new SensorEvent(4, 0, 1, "TempSensor", 3)), 2, s -> released.add(s.getMessage().getEvent()));
+        buffer.add(scheduled(new SensorEvent(8, 0, 1, "TempSensor", 4)), 2, s -> released.add(s.getMessage().getEvent()));
+        assertEquals(List.of(3.0, 4.0, 5.0), timestamps(released));
+        assertEquals(1, buffer.size());
+
+        assertTrue(buffer.isLate(new SensorEvent(4.5, 0, 1, "TempSensor", 5)));
+        assertTrue(!buffer.isLate(new SensorEvent(5, 0, 1, "TempSensor", 5)));
+        buffer.releaseAll(s -> released.add(s.getMessage().getEvent()));
+        assertEquals(List.of(3.0, 4.0, 5.0, 8.0), timestamps(released));
+    }
+
+    @Test
+    public void testOutOfOrderCsvWithinLateness() {
+        List<Event> events = new CSVEventReader(CSV).readEvents();
+        ReorderBuffer buffer = new ReorderBuffer();
+        List<Event> released = new ArrayList<>();
+        for (Event e : events) {
+            assertTrue(!buffer.isLate(e));
+            buffer.add(scheduled(e), 1, s -> released.add(s.getMessage().getEvent()));
+        }
+        // the watermark released most events while the rest were still arriving
+        assertTrue(released.size() > events.size() / 2);
+        buffer.releaseAll(s -> released.add(s.getMessage().getEvent()));
+        assertEquals(sorted(timestamps(events)), timestamps(released));
+    }
+
+    @Test
+    public void testOutOfOrderCsvWithoutLateness() {
+        List<Event> events = new CSVEventReader(CSV).readEvents();
+        ReorderBuffer buffer = new ReorderBuffer();
+        List<Event> released = new ArrayList<>();
+        int late = 0;
+        for (Event e : events) {
+            if (buffer.isLate(e)) {
+                late++;
+            } else {
+                buffer.add(scheduled(e), 0, s -> released.add(s.getMessage().getEvent()));
+            }
+        }
+        buffer.releaseAll(s -> released.add(s.getMessage().getEvent()));
+        assertTrue(late > 0);
+        assertEquals(events.size(), released.size() + late);
+        assertEquals(sorted(timestamps(released)), timestamps(released));
+    }
+
+    /*
+     * A processor that records what it is handed instead of processing it
+     */
+    private static class RecordingProcessor extends MessageProcessor {
+        private final List<Event> processed = Collections.synchronizedList(new ArrayList<>());
+        private final List<Event> late = Collections.synchronizedList(new ArrayList<>());
+
+        RecordingProcessor(ConcurrentHashMap<Integer, Server> serverMap) {
+            super(serverMap, 0);
+        }
+
+        @Override
+        void processEvent(Server server, Event e) {
+            processed.add(e);
+        }
+
+        @Override
+        void processLateEvent(Event e, String host) {
+            late.add(e);
+        }
+    }
+
+    private static RecordingProcessor runScheduler(LatePolicy policy, double maxWaitTime) throws InterruptedException {
+        ConcurrentHashMap<Integer, Server> serverMap = new ConcurrentHashMap<>();
+        Server server = new Server(new Client(0, "test@test.com", "127.0.0.1", 1));
+        server.updateMaxWaitTime(maxWaitTime);
+        serverMap.put(0, server);
+        RecordingProcessor processor = new RecordingProcessor(serverMap);
+        DeadlineScheduler scheduler = new DeadlineScheduler(2, serverMap, processor, policy);
+        for (Event e : new CSVEventReader(CSV).readEvents()) {
+            scheduler.submit(e, "127.0.0.1");
+        }
+        scheduler.close(10000);
+        return processor;
+    }
+
+    @Test
+    public void testSchedulerReordersCsv() throws InterruptedException {
+        RecordingProcessor processor = runScheduler(LatePolicy.DROP, Server.DEFAULT_MAX_WAIT_TIME);
+        List<Event> events = new CSVEventReader(CSV).readEvents();
+        assertEquals(sorted(timestamps(events)), timestamps(processor.processed));
+        assertTrue(processor.late.isEmpty());
+    }
+
+    @Test
+    public void testSchedulerSideOutputsLateEvents() throws InterruptedException {
+        // a lateness of 0.1 timestamp units, less than how far behind some events of the file arrive
+        RecordingProcessor processor = runScheduler(LatePolicy.SIDE_OUTPUT, 0.0001);
+        assertTrue(processor.late.size() > 0);
+        assertEquals(1000, processor.processed.size() + processor.late.size());
+        assertEquals(sorted(timestamps(processor.processed)), timestamps(processor.processed));
+    }
+
+    @Test
+    public void testSchedulerDropsLateEvents() throws InterruptedException {
+        RecordingProcessor processor = runScheduler(LatePolicy.DROP, 0.0001);
+        assertTrue(processor.processed.size() < 1000);
+        assertTrue(processor.late.isEmpty());
+        assertEquals(sorted(timestamps(processor.processed)), timestamps(processor.processed));
+    }
+
+    @Test
+    public void testSchedulerAppliesLateEvents() throws InterruptedException {
+        RecordingProcessor processor = runScheduler(LatePolicy.APPLY, 0.0001);
+        assertEquals(1000, processor.processed.size());
+        assertTrue(processor.late.isEmpty());
+    }
+
+    @Test
+    public void testLateEventsAreKeptApart() {
+        Server server = new Server(new Client(0, "test@test.com", "127.0.0.1", 1));
+        Event late = new SensorEvent(1, 0, 1, "TempSensor", 1);
+        server.processLateEvent(late);
+        assertTrue(server.getAllEntities().isEmpty());
+        assertEquals(List.of(late), server.readLateEvents());
+        assertTrue(server.readLateEvents().isEmpty());
+    }
+}
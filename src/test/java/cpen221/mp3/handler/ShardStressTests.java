@@ -0,0 +1,145 @@
+package cpen221.mp3.handler;
+
+import cpen221.mp3.client.Client;
+import cpen221.mp3.event.Event;
+import cpen221.mp3.event.SensorEvent;
+import cpen221.mp3.server.Server;
+import cpen221.mp3.server.TimeWindow;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ShardStressTests {
+    private static final int CLIENTS = 64;
+    private static final int EVENTS_PER_CLIENT = 2000;
+
+    /**
+     * Sends the events of every client from a number of producer threads through a scheduler
+     * with a number of shards, and checks that every event is processed exactly once.
+     * ShardScalingBenchmark measures how the throughput scales.
+     */
+    private static void run(int shards, int producers) throws InterruptedException {
+        ConcurrentHashMap<Integer, Server> serverMap = new ConcurrentHashMap<>();
+        for (int c = 0; c < CLIENTS; c++) {
+            Server server = new Server(new Client(c, "test@test.com", "127.0.0.1", 1));
+            // release every event as soon as it arrives
+            server.updateMaxWaitTime(0);
+            serverMap.put(c, server);
+        }
+        DeadlineScheduler scheduler = new DeadlineScheduler(shards, serverMap, new MessageProcessor(serverMap, 0));
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < EVENTS_PER_CLIENT; i++) {
+                    for (int c = producer; c < CLIENTS; c += producers) {
+                        Event e = new SensorEvent(i, c, i % 32, "TempSensor", i);
+                        scheduler.submit(e, "127.0.0.1");
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread t : threads) {
+            t.join();
+        }
+        scheduler.close(60000);
+
+        for (Server server : serverMap.values()) {
+            assertEquals(EVENTS_PER_CLIENT, server.eventsInTimeWindow(new TimeWindow(0, EVENTS_PER_CLIENT)).size());
+            assertEquals(32, server.getAllEntities().size());
+        }
+    }
+
+    @Test
+    public void testEveryEventProcessedOnceAcrossShards() throws InterruptedException {
+        run(1, 4);
+        run(4, 4);
+    }
+
+    /*
+     * A processor that records the events of every client in the order they are processed,
+     * and the threads that processed them
+     */
+    private static class RecordingProcessor extends MessageProcessor {
+        private final Map<Integer, List<Double>> processed = new ConcurrentHashMap<>();
+        private final Map<Integer, List<String>> threads = new ConcurrentHashMap<>();
+
+        RecordingProcessor(ConcurrentHashMap<Integer, Server> serverMap) {
+            super(serverMap, 0);
+        }
+
+        @Override
+        void processEvent(Server server, Event e) {
+            processed.computeIfAbsent(e.getClientId(), id -> Collections.synchronizedList(new ArrayList<>()))
+                    .add(e.getTimeStamp());
+            threads.computeIfAbsent(e.getClientId(), id -> Collections.synchronizedList(new ArrayList<>()))
+                    .add(Thread.currentThread().getName());
+        }
+    }
+
+    @Test
+    public void testHotClientMovesToDedicatedShard() throws InterruptedException {
+        ConcurrentHashMap<Integer, Server> serverMap = new ConcurrentHashMap<>();
+        RecordingProcessor processor = new RecordingProcessor(serverMap);
+        DeadlineScheduler scheduler = new DeadlineScheduler(1, serverMap, processor);
+        for (int i = 0; i < 1000; i++) {
+            scheduler.submit(new SensorEvent(i, 0, 1, "TempSensor", i), "127.0.0.1");
+            if (i % 10 == 0) {
+                scheduler.submit(new SensorEvent(i, 1, 1, "TempSensor", i), "127.0.0.1");
+            }
+        }
+        // not busy enough, then busy enough
+        assertEquals(List.of(), scheduler.rebalance(0.5, 2000, 1));
+        for (int i = 1000; i < 1500; i++) {
+            scheduler.submit(new SensorEvent(i, 0, 1, "TempSensor", i), "127.0.0.1");
+        }
+        scheduler.submit(new SensorEvent(1000, 1, 1, "TempSensor", 1000), "127.0.0.1");
+        assertEquals(List.of(0), scheduler.rebalance(0.5, 100, 1));
+        assertEquals(1, scheduler.dedicatedCount());
+
+        // the events held by the old shard are handed over and processed in order with the new ones
+        for (int i = 1500; i < 2000; i++) {
+            scheduler.submit(new SensorEvent(i, 0, 1, "TempSensor", i), "127.0.0.1");
+        }
+        scheduler.close(10000);
+        List<Double> expected = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            expected.add((double) i);
+        }
+        assertEquals(expected, processor.processed.get(0));
+        assertTrue(processor.threads.get(0).stream().allMatch("dispatcher-client-0"::equals));
+        assertEquals(101, processor.processed.get(1).size());
+        assertTrue(processor.threads.get(1).stream().allMatch("dispatcher-0"::equals));
+    }
+
+    @Test
+    public void testEventsRouteWhileClientMoves() throws InterruptedException {
+        ConcurrentHashMap<Integer, Server> serverMap = new ConcurrentHashMap<>();
+        RecordingProcessor processor = new RecordingProcessor(serverMap);
+        DeadlineScheduler scheduler = new DeadlineScheduler(2, serverMap, processor);
+        int n = 20000;
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < n; i++) {
+                scheduler.submit(new SensorEvent(i, 7, 1, "TempSensor", i), "127.0.0.1");
+            }
+        });
+        producer.start();
+        Thread.sleep(5);
+        scheduler.dedicate(7);
+        producer.join();
+        scheduler.close(10000);
+        List<Double> processed = processor.processed.get(7);
+        assertEquals(n, processed.size());
+        for (int i = 1; i < n; i++) {
+            assertTrue(processed.get(i - 1) <= processed.get(i));
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package cpen221.mp3.server;
+
+import cpen221.mp3.client.Request;
+import cpen221.mp3.client.RequestCommand;
+import cpen221.mp3.client.RequestType;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ActuatorDispatcherTests {
+    static String IP = "127.0.0.1";
+
+    private static Request command(RequestCommand kind, int n) {
+        return new Request(RequestType.CONTROL, kind, "0," + n);
+    }
+
+    private static CompletableFuture<Void> dispatch(ActuatorDispatcher dispatcher, int port, RequestCommand kind, int n) {
+        Request command = command(kind, n);
+        return dispatcher.dispatch(IP, port, command, command.toString());
+    }
+
+    /**
+     * @return an executor whose one thread is held until the returned latch is counted down
+     */
+    private static ExecutorService heldExecutor(CountDownLatch hold) {
+        ExecutorService senders = Executors.newSingleThreadExecutor();
+        senders.execute(() -> {
+            try {
+                hold.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        return senders;
+    }
+
+    /**
+     * Reads commands from a dispatcher, acking each of them
+     *
+     * @return the commands read, without their sequence numbers
+     */
+    private static List<String> readAndAck(BufferedReader in, PrintWriter out, int count) throws IOException {
+        List<String> commands = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String line = in.readLine();
+            commands.add(CommandChannel.commandOf(line));
+            out.println(CommandChannel.ack(CommandChannel.sequenceOf(line)));
+        }
+        out.flush();
+        return commands;
+    }
+
+    @Test
+    public void testCommandsShareOneConnection() throws Exception {
+        try (ServerSocket actuator = new ServerSocket(4620)) {
+            ActuatorDispatcher dispatcher = new ActuatorDispatcher();
+            List<CompletableFuture<Void>> sent = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                sent.add(dispatch(dispatcher, 4620, RequestCommand.CONTROL_TOGGLE_ACTUATOR_STATE, i));
+            }
+            try (Socket s = actuator.accept()) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+                PrintWriter out = new PrintWriter(s.getOutputStream());
+                List<String> commands = readAndAck(in, out, 5);
+                for (int i = 0; i < 5; i++) {
+                    assertTrue(commands.get(i).contains("RequestData=0," + i));
+                }
+                for (CompletableFuture<Void> future : sent) {
+                    future.get(5, TimeUnit.SECONDS);
+                }
+                actuator.setSoTimeout(200);
+                assertThrows(SocketTimeoutException.class, actuator::accept);
+            }
+            assertEquals(5, dispatcher.sentCount());
+            assertEquals(5, dispatcher.getLatency().count());
+            dispatcher.close();
+        }
+    }
+
+    @Test
+    public void testQueuedSetCommandsCoalesce() throws Exception {
+        try (ServerSocket actuator = new ServerSocket(4621)) {
+            CountDownLatch hold = new CountDownLatch(1);
+            ActuatorDispatcher dispatcher = new ActuatorDispatcher(heldExecutor(hold), 1000, 5000);
+            List<CompletableFuture<Void>> sent = new ArrayList<>();
+            sent.add(dispatch(dispatcher, 4621, RequestCommand.CONTROL_SET_ACTUATOR_STATE, 0));
+            sent.add(dispatch(dispatcher, 4621, RequestCommand.CONTROL_SET_ACTUATOR_STATE, 1));
+            sent.add(dispatch(dispatcher, 4621, RequestCommand.CONTROL_SET_ACTUATOR_STATE, 2));
+            sent.add(dispatch(dispatcher, 4621, RequestCommand.CONTROL_TOGGLE_ACTUATOR_STATE, 3));
+            sent.add(dispatch(dispatcher, 4621, RequestCommand.CONTROL_SET_ACTUATOR_STATE, 4));
+            hold.countDown();
+
+            try (Socket s = actuator.accept()) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+                PrintWriter out = new PrintWriter(s.getOutputStream());
+                List<String> commands = readAndAck(in, out, 3);
+                assertTrue(commands.get(0).contains("RequestData=0,0"));
+                assertTrue(commands.get(1).contains("RequestData=0,3"));
+                assertTrue(commands.get(2).contains("RequestData=0,4"));
+                for (CompletableFuture<Void> future : sent) {
+                    future.get(5, TimeUnit.SECONDS);
+                }
+            }
+            assertEquals(2, dispatcher.coalescedCount());
+            assertEquals(5, dispatcher.sentCount());
+            dispatcher.close();
+        }
+    }
+
+    @Test
+    public void testUnreachableActuatorFails() {
+        ActuatorDispatcher dispatcher = new ActuatorDispatcher();
+        CompletableFuture<Void> future = dispatch(dispatcher, 4622, RequestCommand.CONTROL_SET_ACTUATOR_STATE, 0);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof IOException);
+        assertEquals(1, dispatcher.failedCount());
+        dispatcher.close();
+    }
+
+    @Test
+    public void testCommandTimesOutInQueue() {
+        CountDownLatch hold = new CountDownLatch(1);
+        ActuatorDispatcher dispatcher = new ActuatorDispatcher(heldExecutor(hold), 1000, 50);
+        CompletableFuture<Void> future = dispatch(dispatcher, 4622, RequestCommand.CONTROL_SET_ACTUATOR_STATE, 0);
+        try {
+            Thread.sleep(200);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        hold.countDown();
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof TimeoutException);
+        dispatcher.close();
+    }
+
+    @Test
+    public void testCommandsArePipelined() throws Exception {
+        try (ServerSocket actuator = new ServerSocket(4623)) {
+            ActuatorDispatcher dispatcher = new ActuatorDispatcher();
+            List<CompletableFuture<Void>> sent = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                sent.add(dispatch(dispatcher, 4623, RequestCommand.CONTROL_TOGGLE_ACTUATOR_STATE, i));
+            }
+            try (Socket s = actuator.accept()) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+                PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+                // every command arrives before any of them is acked
+                long last = CommandChannel.UNSEQUENCED;
+                for (int i = 0; i < 100; i++) {
+                    String line = in.readLine();
+                    assertTrue(CommandChannel.sequenceOf(line) > last);
+                    last = CommandChannel.sequenceOf(line);
+                    assertTrue(CommandChannel.commandOf(line).contains("RequestData=0," + i));
+                }
+                assertFalse(sent.get(0).isDone());
+
+                // an ack covers every command before it
+                out.println(CommandChannel.ack(last));
+                for (CompletableFuture<Void> future : sent) {
+                    future.get(5, TimeUnit.SECONDS);
+                }
+            }
+            assertEquals(100, dispatcher.sentCount());
+            dispatcher.close();
+        }
+    }
+
+    @Test
+    public void testLostChannelFailsCommandsInFlight() throws Exception {
+        try (ServerSocket actuator = new ServerSocket(4624)) {
+            ActuatorDispatcher dispatcher = new ActuatorDispatcher();
+            CompletableFuture<Void> lost = dispatch(dispatcher, 4624, RequestCommand.CONTROL_TOGGLE_ACTUATOR_STATE, 0);
+            try (Socket s = actuator.accept()) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+                assertTrue(in.readLine().contains("RequestData=0,0"));
+            }
+            ExecutionException e = assertThrows(ExecutionException.class, () -> lost.get(5, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof IOException);
+
+            // the next command opens a new channel
+            CompletableFuture<Void> next = dispatch(dispatcher, 4624, RequestCommand.CONTROL_TOGGLE_ACTUATOR_STATE, 1);
+            try (Socket s = actuator.accept()) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+                PrintWriter out = new PrintWriter(s.getOutputStream());
+                assertTrue(readAndAck(in, out, 1).get(0).contains("RequestData=0,1"));
+                next.get(5, TimeUnit.SECONDS);
+            }
+            assertEquals(1, dispatcher.failedCount());
+            assertEquals(1, dispatcher.sentCount());
+            dispatcher.close();
+        }
+    }
+
+    @Test
+    public void testActuatorKilledMidBurst() throws Exception {
+        try (ServerSocket actuator = new ServerSocket(4629)) {
+            ActuatorDispatcher dispatcher = new ActuatorDispatcher();
+            int n = 200;
+            List<CompletableFuture<Void>> sent = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                sent.add(dispatch(dispatcher, 4629, RequestCommand.CONTROL_TOGGLE_ACTUATOR_STATE, i));
+            }
+            Set<String> acked = new HashSet<>();
+            // the first actuator acks some of the commands it reads, then dies
+            try (Socket s = actuator.accept()) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+                PrintWriter out = new PrintWriter(s.getOutputStream());
+                for (int i = 0; i < 50; i++) {
+                    String line = in.readLine();
+                    if (i < 20) {
+                        acked.add(dataOf(line));
+                        out.println(CommandChannel.ack(CommandChannel.sequenceOf(line)));
+                    }
+                }
+                out.flush();
+                Thread.sleep(100);
+            }
+            // its replacement acks everything it reads
+            actuator.setSoTimeout(2000);
+            try (Socket s = actuator.accept()) {
+                s.setSoTimeout(500);
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+                PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+                try {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        acked.add(dataOf(line));
+                        out.println(CommandChannel.ack(CommandChannel.sequenceOf(line)));
+                    }
+                } catch (SocketTimeoutException ignored) {
+                }
+            } catch (SocketTimeoutException ignored) {
+                // every command was lost with the first actuator
+            }
+
+            // no command is reported sent unless an actuator acked it
+            int succeeded = 0;
+            for (int i = 0; i < n; i++) {
+                try {
+                    sent.get(i).get(5, TimeUnit.SECONDS);
+                    assertTrue(acked.contains("0," + i), "command " + i + " completed without an ack");
+                    succeeded++;
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IOException);
+                }
+            }
+            assertTrue(succeeded >= 20);
+            assertEquals(n, dispatcher.sentCount() + dispatcher.failedCount());
+            dispatcher.close();
+        }
+    }
+
+    private static String dataOf(String line) {
+        String command = CommandChannel.commandOf(line);
+        return command.substring(command.indexOf("RequestData=") + "RequestData=".length(), command.indexOf("}."));
+    }
+
+    @Test
+    public void testUnackedCommandTimesOut() throws Exception {
+        try (ServerSocket actuator = new ServerSocket(4625)) {
+            ActuatorDispatcher dispatcher = new ActuatorDispatcher(1, 1000, 200);
+            CompletableFuture<Void> future = dispatch(dispatcher, 4625, RequestCommand.CONTROL_SET_ACTUATOR_STATE, 0);
+            Socket silent = actuator.accept();
+            try {
+                ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+                assertTrue(e.getCause() instanceof IOException);
+            } finally {
+                silent.close();
+            }
+            dispatcher.close();
+        }
+    }
+
+    @Test
+    public void testLatencyPercentiles() {
+        LatencyStats stats = new LatencyStats();
+        for (int i = 1; i <= 100; i++) {
+            stats.record(i * 1000L);
+        }
+        assertEquals(100, stats.count());
+        assertEquals(50500, stats.meanNanos(), 1e-9);
+        assertEquals(100000, stats.maxNanos());
+        long p50 = stats.percentileNanos(50);
+        assertTrue(p50 >= 50000 && p50 <= 100000);
+        assertEquals(100000, stats.percentileNanos(100));
+    }
+}
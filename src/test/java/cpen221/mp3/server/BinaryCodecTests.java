@@ -0,0 +1,81 @@
+package cpen221.mp3.server;
+
+import cpen221.mp3.event.ActuatorEvent;
+import cpen221.mp3.event.Event;
+import cpen221.mp3.event.SensorEvent;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BinaryCodecTests {
+
+    @Test
+    public void testRoundTrip() {
+        List<Event> events = List.of(
+                new SensorEvent(0.00011, 0, 1, "TempSensor", 1.0),
+                new SensorEvent(1700000000000.0, 7, 2, "CO2Sensor", 451.25),
+                new ActuatorEvent(3.5, 0, 3, "Switch", true),
+                new SensorEvent(4, 1, 4, "HumiditySensor", -2.5));
+        ByteBuffer buffer = ByteBuffer.allocate(4 * BinaryCodec.MAX_FRAME_LENGTH);
+        for (Event e : events) {
+            BinaryCodec.encodeEvent(e, buffer);
+        }
+        buffer.flip();
+
+        for (Event expected : events) {
+            assertTrue(BinaryCodec.hasFrame(buffer));
+            Event actual = BinaryCodec.decodeFrame(buffer);
+            assertEquals(expected.toString(), actual.toString());
+            assertEquals(expected.getClass(), actual.getClass());
+        }
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void testPartialFrame() {
+        ByteBuffer buffer = ByteBuffer.allocate(BinaryCodec.MAX_FRAME_LENGTH);
+        BinaryCodec.encodeEvent(new SensorEvent(1, 0, 1, "PressureSensor", 1020), buffer);
+        int length = buffer.position();
+        buffer.flip();
+
+        for (int i = 0; i < length; i++) {
+            assertFalse(BinaryCodec.hasFrame(buffer.duplicate().limit(i)));
+        }
+        assertTrue(BinaryCodec.hasFrame(buffer));
+    }
+
+    @Test
+    public void testUnknownFrameKindIsSkipped() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.putInt(3).put((byte) 9).putShort((short) 0);
+        BinaryCodec.encodeEvent(new ActuatorEvent(2, 0, 5, "Switch", false), buffer);
+        buffer.flip();
+
+        assertNull(BinaryCodec.decodeFrame(buffer));
+        assertEquals(5, BinaryCodec.decodeFrame(buffer).getEntityId());
+    }
+
+    @Test
+    public void testInvalidFrameLength() {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.putInt(BinaryCodec.MAX_FRAME_LENGTH + 1).flip();
+        assertThrows(IllegalArgumentException.class, () -> BinaryCodec.hasFrame(buffer));
+        buffer.putInt(0, -1);
+        assertThrows(IllegalArgumentException.class, () -> BinaryCodec.hasFrame(buffer));
+    }
+
+    @Test
+    public void testNegotiate() {
+        assertEquals(BinaryCodec.VERSION, BinaryCodec.negotiate(BinaryCodec.VERSION));
+        assertEquals(BinaryCodec.VERSION, BinaryCodec.negotiate((byte) 100));
+        assertEquals(BinaryCodec.TEXT_FALLBACK, BinaryCodec.negotiate((byte) 0));
+        assertEquals(BinaryCodec.TEXT_FALLBACK, BinaryCodec.negotiate((byte) -3));
+    }
+}
@@ -0,0 +1,85 @@
+package cpen221.mp3.server;
+
+import cpen221.mp3.client.Client;
+import cpen221.mp3.event.SensorEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConcurrencyTests {
+
+    @Test
+    public void testFilterSetWhileEventsArriveLogsEveryEvent() throws InterruptedException {
+        for (int round = 0; round < 20; round++) {
+            Server server = new Server(new Client(0, "test@test.com", "127.0.0.1", 4578));
+            int n = 5000;
+            CountDownLatch started = new CountDownLatch(1);
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < n; i++) {
+                    if (i == n / 10) {
+                        started.countDown();
+                    }
+                    server.processIncomingEvent(new SensorEvent(i, 0, i, "TempSensor", 1));
+                }
+            });
+            writer.start();
+            started.await();
+            server.logIf(new Filter("value", DoubleOperator.GREATER_THAN, 0));
+            writer.join();
+            // the events processed before the filter are found when it is set, and the rest as they arrive
+            assertEquals(n, server.readLogs().size());
+        }
+    }
+
+    @Test
+    public void testServersOfDifferentClientsDoNotInterfere() throws InterruptedException {
+        int clients = 8;
+        int n = 20000;
+        List<Server> servers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            Server server = new Server(new Client(c, "test@test.com", "127.0.0.1", 4578));
+            servers.add(server);
+            int clientId = c;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < n; i++) {
+                    server.processIncomingEvent(new SensorEvent(i, clientId, i % 16, "TempSensor", i));
+                }
+            }));
+        }
+        // a reader querying every server while they are written
+        Thread reader = new Thread(() -> {
+            for (int i = 0; i < 200; i++) {
+                for (Server server : servers) {
+                    List<?> latest = server.lastNEvents(10);
+                    assertTrue(latest.size() <= 10);
+                    server.mostActiveEntity();
+                }
+            }
+        });
+        // an assertion failing on the reader thread fails the test once the reader is joined
+        AtomicReference<Throwable> readerFailure = new AtomicReference<>();
+        reader.setUncaughtExceptionHandler((t, e) -> readerFailure.set(e));
+        threads.forEach(Thread::start);
+        reader.start();
+        for (Thread t : threads) {
+            t.join();
+        }
+        reader.join();
+        if (readerFailure.get() != null) {
+            throw new AssertionError("reader failed", readerFailure.get());
+        }
+        for (int c = 0; c < clients; c++) {
+            Server server = servers.get(c);
+            assertEquals(n, server.eventsInTimeWindow(new TimeWindow(0, n)).size());
+            assertEquals(16, server.getAllEntities().size());
+            assertEquals(n - 1, server.lastNEvents(1).get(0).getTimeStamp());
+        }
+    }
+}
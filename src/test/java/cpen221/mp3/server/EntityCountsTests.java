@@ -0,0 +1,110 @@
+package cpen221.mp3.server;
+
+import cpen221.mp3.client.Client;
+import cpen221.mp3.event.SensorEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EntityCountsTests {
+
+    @Test
+    public void testLeaderPrefersLargerIdOnTies() {
+        EntityCounts counts = new EntityCounts();
+        assertEquals(0, counts.leader());
+        counts.increment(3);
+        assertEquals(3, counts.leader());
+        counts.increment(7);
+        assertEquals(7, counts.leader());
+        counts.increment(3);
+        assertEquals(3, counts.leader());
+        counts.increment(1);
+        counts.increment(1);
+        assertEquals(3, counts.leader());
+        counts.increment(1);
+        assertEquals(1, counts.leader());
+    }
+
+    @Test
+    public void testTopMatchesFullSort() {
+        EntityCounts counts = new EntityCounts();
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(221);
+        for (int i = 0; i < 50000; i++) {
+            int id = (int) Math.abs(random.nextGaussian() * 300) - 100;
+            counts.increment(id);
+            expected.merge(id, 1, Integer::sum);
+        }
+        List<Integer> ranked = new ArrayList<>(expected.keySet());
+        ranked.sort(Comparator.comparing((Integer id) -> expected.get(id)).thenComparing(id -> id).reversed());
+
+        assertEquals(ranked.subList(0, 20), counts.top(20));
+        assertEquals(ranked, counts.top(expected.size() + 10));
+        assertEquals(ranked.get(0), counts.leader());
+        assertEquals(List.of(), counts.top(0));
+    }
+
+    @Test
+    public void testSketchFindsHeavyHitters() {
+        EntityCounts counts = new EntityCounts();
+        counts.increment(-5);
+        counts.useSketch(64);
+        Random random = new Random(221);
+        for (int i = 0; i < 200000; i++) {
+            // ten heavy entities among a long tail of a hundred thousand
+            int id = random.nextInt(4) == 0 ? random.nextInt(100000) + 1000 : random.nextInt(10);
+            counts.increment(id);
+        }
+
+        List<Integer> top = counts.top(10);
+        assertEquals(10, top.size());
+        for (int id = 0; id < 10; id++) {
+            assertTrue(top.contains(id));
+        }
+    }
+
+    @Test
+    public void testServerMostActiveEntities() {
+        Server server = new Server(new Client(0, "test@test.com", "127.0.0.1", 4578));
+        for (int i = 0; i < 30; i++) {
+            server.processIncomingEvent(new SensorEvent(i, 0, i % 3 == 0 ? 4 : i % 2, "TempSensor", i));
+        }
+        // entity 4 has 10 events, entities 0 and 1 have 10 each too
+        assertEquals(4, server.mostActiveEntity());
+        assertEquals(List.of(4, 1, 0), server.mostActiveEntities(5));
+    }
+
+    @Test
+    public void testIntIntMapMatchesHashMap() {
+        IntIntMap map = new IntIntMap();
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(221);
+        for (int i = 0; i < 100000; i++) {
+            int key = random.nextInt(2000) - 1000;
+            switch (random.nextInt(3)) {
+                case 0 -> {
+                    map.put(key, i);
+                    expected.put(key, i);
+                }
+                case 1 -> assertEquals(expected.merge(key, 1, Integer::sum).intValue(), map.increment(key));
+                default -> {
+                    map.remove(key);
+                    expected.remove(key);
+                }
+            }
+            assertEquals(expected.getOrDefault(key, IntIntMap.ABSENT).intValue(), map.get(key));
+        }
+        assertEquals(expected.size(), map.size());
+        Map<Integer, Integer> actual = new HashMap<>();
+        map.forEach(actual::put);
+        assertEquals(expected, actual);
+    }
+}
@@ -0,0 +1,130 @@
+package cpen221.mp3.server;
+
+import cpen221.mp3.client.Client;
+import cpen221.mp3.event.ActuatorEvent;
+import cpen221.mp3.event.Event;
+import cpen221.mp3.event.SensorEvent;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EventLogTests {
+    private final Client client = new Client(0, "test@test.com", "127.0.0.1", 4578);
+
+    private static List<String> strings(List<Event> events) {
+        return events.stream().map(Event::toString).toList();
+    }
+
+    private static long segmentCount(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void testServerRecoversFromLog(@TempDir Path directory) throws IOException {
+        Server server = new Server(client, EventStorage.HEAP, EventLog.open(directory, 1));
+        server.processIncomingEvent(new SensorEvent(1, 0, 1, "TempSensor", 20));
+        server.processIncomingEvent(new ActuatorEvent(2, 0, 2, "Switch", true));
+        server.logIf(new Filter("value", DoubleOperator.GREATER_THAN, 25));
+        server.processIncomingEvent(new SensorEvent(3, 0, 1, "TempSensor", 30));
+        assertEquals(List.of(1), server.readLogs());
+        server.processIncomingEvent(new SensorEvent(4, 0, 3, "CO2Sensor", 400));
+        List<String> before = strings(server.eventsInTimeWindow(new TimeWindow(0, 10)));
+        server.closeEventLog();
+
+        Server recovered = new Server(client, EventStorage.HEAP, EventLog.open(directory, 1));
+        assertEquals(before, strings(recovered.eventsInTimeWindow(new TimeWindow(0, 10))));
+        assertEquals(server.getAllEntities(), recovered.getAllEntities());
+        assertEquals(server.mostActiveEntity(), recovered.mostActiveEntity());
+        // the log read before the restart stays read, and the filter is still active
+        assertEquals(List.of(3), recovered.readLogs());
+        recovered.processIncomingEvent(new SensorEvent(5, 0, 1, "TempSensor", 50));
+        assertEquals(List.of(1), recovered.readLogs());
+        recovered.closeEventLog();
+    }
+
+    @Test
+    public void testLogRollsOverSegments(@TempDir Path directory) throws IOException {
+        EventLog log = EventLog.open(directory, 100, 1024);
+        List<Event> appended = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Event e = new SensorEvent(i, 0, i % 7, "TempSensor", i * 0.5);
+            appended.add(e);
+            log.appendEvent(e);
+        }
+        log.close();
+        assertTrue(segmentCount(directory) > 1);
+
+        EventLog reopened = EventLog.open(directory, 100, 1024);
+        List<Event> replayed = new ArrayList<>();
+        assertEquals(200, reopened.replay(replayTo(replayed)));
+        assertEquals(strings(appended), strings(replayed));
+
+        // appending after reopening continues the log
+        Event next = new SensorEvent(200, 0, 1, "TempSensor", 1);
+        reopened.appendEvent(next);
+        replayed.clear();
+        assertEquals(201, reopened.replay(replayTo(replayed)));
+        assertEquals(next.toString(), replayed.get(200).toString());
+        reopened.close();
+    }
+
+    @Test
+    public void testTornRecordIsDropped(@TempDir Path directory) throws IOException {
+        EventLog log = EventLog.open(directory, 1, 4096);
+        log.appendEvent(new SensorEvent(1, 0, 1, "TempSensor", 1));
+        log.appendEvent(new SensorEvent(2, 0, 1, "TempSensor", 2));
+        log.close();
+
+        // corrupt the last byte of the second record, as a crash in the middle of a write would
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int first = 8 + channel.map(FileChannel.MapMode.READ_ONLY, 0, 4).getInt(0);
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, first, 4);
+            int last = first + 8 + header.getInt(0) - 1;
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) 0x7F}), last);
+        }
+
+        EventLog reopened = EventLog.open(directory, 1, 4096);
+        List<Event> replayed = new ArrayList<>();
+        assertEquals(1, reopened.replay(replayTo(replayed)));
+        reopened.appendEvent(new SensorEvent(3, 0, 1, "TempSensor", 3));
+        replayed.clear();
+        assertEquals(2, reopened.replay(replayTo(replayed)));
+        assertEquals(3, replayed.get(1).getTimeStamp());
+        reopened.close();
+    }
+
+    private static EventLog.Replay replayTo(List<Event> events) {
+        return new EventLog.Replay() {
+            @Override
+            public void event(Event event) {
+                events.add(event);
+            }
+
+            @Override
+            public void notifyIf(double logTimeStamp, String filter) {
+            }
+
+            @Override
+            public void readLogs() {
+            }
+        };
+    }
+}
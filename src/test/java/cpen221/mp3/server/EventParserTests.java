@@ -0,0 +1,92 @@
+package cpen221.mp3.server;
+
+import cpen221.mp3.event.ActuatorEvent;
+import cpen221.mp3.event.Event;
+import cpen221.mp3.event.SensorEvent;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EventParserTests {
+
+    @Test
+    public void testDoublesMatchParseDouble() {
+        Random random = new Random(221);
+        double[] special = {0.0, -0.0, 1.0, 0.00011, 1e-7, 1e21, 1.7976931348623157E308, Double.MIN_VALUE,
+                123456789012345.0, 9007199254740993.0, Double.NaN, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, System.currentTimeMillis()};
+        for (double value : special) {
+            assertParsesExactly(value);
+        }
+        for (int i = 0; i < 100000; i++) {
+            assertParsesExactly(20 + random.nextDouble() * 4);
+            assertParsesExactly(Math.round(random.nextDouble() * 1e6) / 100.0);
+            assertParsesExactly(Double.longBitsToDouble(random.nextLong()));
+        }
+    }
+
+    private static void assertParsesExactly(double value) {
+        Event e = new SensorEvent(value, -1, Integer.MIN_VALUE, "TempSensor", -value);
+        Event parsed = EventParser.parse(e.toString());
+        assertEquals(Double.doubleToLongBits(value), Double.doubleToLongBits(parsed.getTimeStamp()));
+        assertEquals(Double.doubleToLongBits(-value), Double.doubleToLongBits(parsed.getValueDouble()));
+        assertEquals(Integer.MIN_VALUE, parsed.getEntityId());
+        assertEquals(-1, parsed.getClientId());
+    }
+
+    @Test
+    public void testKnownTypesAreShared() {
+        for (String type : new String[]{"TempSensor", "PressureSensor", "CO2Sensor"}) {
+            String serialized = new SensorEvent(1, 0, 1, new String(type.toCharArray()), 2).toString();
+            assertSame(type, EventParser.parse(serialized).getEntityType());
+        }
+        String serialized = new ActuatorEvent(1, 0, 1, new String("Switch".toCharArray()), true).toString();
+        assertSame("Switch", EventParser.parse(serialized).getEntityType());
+        assertEquals("HumiditySensor",
+                EventParser.parse(new SensorEvent(1, 0, 1, "HumiditySensor", 2).toString()).getEntityType());
+    }
+
+    @Test
+    public void testActuatorValues() {
+        assertTrue(EventParser.parse(new ActuatorEvent(1, 2, 3, "Switch", true).toString()).getValueBoolean());
+        assertFalse(EventParser.parse(new ActuatorEvent(1, 2, 3, "Switch", false).toString()).getValueBoolean());
+        assertTrue(EventParser.parse(
+                "ActuatorEvent{TimeStamp=1.0,ClientId=2,EntityId=3,EntityType=Switch,Value=TRUE}").getValueBoolean());
+    }
+
+    @Test
+    public void testRangesAndBytes() {
+        Event e = new SensorEvent(100.3, 20, 30, "CO2Sensor", 14.67);
+        String line = "xx" + e + "yy";
+        assertEquals(e.toString(), EventParser.parse(line, 2, line.length() - 2).toString());
+
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        assertTrue(EventParser.isEvent(bytes, 2, bytes.length - 2));
+        assertFalse(EventParser.isEvent(bytes, 0, bytes.length));
+        assertEquals(e.toString(), EventParser.parse(bytes, 2, bytes.length - 2).toString());
+
+        Event unicode = new SensorEvent(1, 0, 1, "Temp\u00e9rature", 2);
+        byte[] unicodeBytes = unicode.toString().getBytes(StandardCharsets.UTF_8);
+        assertEquals("Temp\u00e9rature", EventParser.parse(unicodeBytes, 0, unicodeBytes.length).getEntityType());
+    }
+
+    @Test
+    public void testMalformed() {
+        assertThrows(IllegalArgumentException.class, () -> EventParser.parse("Request{TimeStamp=1.0}"));
+        assertThrows(IllegalArgumentException.class,
+                () -> EventParser.parse("SensorEvent{TimeStamp=1.0,ClientId=2,EntityId=3"));
+        assertThrows(IllegalArgumentException.class,
+                () -> EventParser.parse("SensorEvent{TimeStamp=1.0,ClientId=2x,EntityId=3,EntityType=A,Value=1.0}"));
+        assertThrows(IllegalArgumentException.class,
+                () -> EventParser.parse("SensorEvent{TimeStamp=1.0,ClientId=2147483648,EntityId=3,EntityType=A,Value=1.0}"));
+        assertThrows(IllegalArgumentException.class,
+                () -> EventParser.parse("SensorEvent{TimeStamp=one,ClientId=2,EntityId=3,EntityType=A,Value=1.0}"));
+    }
+}
@@ -0,0 +1,185 @@
+package cpen221.mp3.server;
+
+import cpen221.mp3.event.ActuatorEvent;
+import cpen221.mp3.event.Event;
+import cpen221.mp3.event.SensorEvent;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EventStoreTests {
+
+    // columnar and off-heap stores rebuild events, so events are compared by their contents
+    private static void assertSameEvents(List<Event> expected, List<Event> actual) {
+        assertEquals(expected.stream().map(Event::toString).toList(), actual.stream().map(Event::toString).toList());
+    }
+
+    @ParameterizedTest
+    @EnumSource(EventStorage.class)
+    public void testWindowIsInclusiveAndOrdered(EventStorage storage) {
+        EventStore store = EventStore.of(storage);
+        Event e1 = new SensorEvent(1, 0, 1, "TempSensor", 1);
+        Event e2 = new SensorEvent(2, 0, 1, "TempSensor", 2);
+        Event e3 = new SensorEvent(2, 0, 7, "TempSensor", 3);
+        Event e4 = new ActuatorEvent(3, 0, 2, "Switch", true);
+        Event e5 = new SensorEvent(4, 0, 1, "TempSensor", 5);
+        for (Event e : List.of(e5, e2, e4, e1, e3)) {
+            store.add(e);
+        }
+
+        // the larger entity ID comes first among events with the same timestamp
+        assertSameEvents(List.of(e3, e2, e4), store.window(2, 3));
+        assertSameEvents(List.of(e1, e3, e2, e4, e5), store.all());
+        assertEquals(List.of(), store.window(3.5, 3.9));
+        assertEquals(List.of(), store.window(4, 1));
+        assertEquals(5, store.size());
+    }
+
+    @ParameterizedTest
+    @EnumSource(EventStorage.class)
+    public void testEqualKeysAreKept(EventStorage storage) {
+        EventStore store = EventStore.of(storage);
+        Event first = new SensorEvent(1, 0, 1, "TempSensor", 1);
+        Event second = new SensorEvent(1, 0, 1, "TempSensor", 2);
+        EventKey k1 = store.add(first);
+        EventKey k2 = store.add(second);
+
+        assertTrue(k1.compareTo(k2) < 0);
+        assertSameEvents(List.of(first, second), store.window(1, 1));
+    }
+
+    @ParameterizedTest
+    @EnumSource(EventStorage.class)
+    public void testLastAndLatest(EventStorage storage) {
+        EventStore store = EventStore.of(storage);
+        assertNull(store.latest());
+        assertEquals(List.of(), store.last(3));
+
+        Random random = new Random(221);
+        List<Event> added = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Event e = new SensorEvent(random.nextInt(100), 0, random.nextInt(10), "TempSensor", i);
+            added.add(e);
+            store.add(e);
+        }
+        List<Event> sorted = new ArrayList<>(store.all());
+        assertEquals(1000, sorted.size());
+        Comparator<Event> order = Comparator.comparingDouble(Event::getTimeStamp)
+                .thenComparing(Event::getEntityId, Comparator.reverseOrder());
+        for (int i = 1; i < sorted.size(); i++) {
+            assertTrue(order.compare(sorted.get(i - 1), sorted.get(i)) <= 0);
+        }
+
+        assertSameEvents(sorted.subList(990, 1000), store.last(10));
+        assertSameEvents(sorted, store.last(5000));
+        assertEquals(sorted.get(999).toString(), store.latest().toString());
+    }
+
+    @ParameterizedTest
+    @EnumSource(EventStorage.class)
+    public void testQueriesDuringWrites(EventStorage storage) throws InterruptedException {
+        EventStore store = EventStore.of(storage);
+        AtomicBoolean ordered = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 20000; i++) {
+                store.add(new SensorEvent(i % 500, 0, i, "TempSensor", i));
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            List<Event> window = store.window(100, 200);
+            for (int i = 1; i < window.size(); i++) {
+                if (window.get(i - 1).getTimeStamp() > window.get(i).getTimeStamp()) {
+                    ordered.set(false);
+                }
+            }
+        }
+        writer.join();
+        assertTrue(ordered.get());
+        assertEquals(20000, store.size());
+        assertFalse(store.window(100, 200).isEmpty());
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = EventStorage.class, names = {"COLUMNAR", "OFF_HEAP"})
+    public void testMatchesHeap(EventStorage storage) {
+        EventStore heap = EventStore.of(EventStorage.HEAP);
+        EventStore other = EventStore.of(storage);
+        Random random = new Random(221);
+        String[] types = {"TempSensor", "PressureSensor", "CO2Sensor"};
+        // enough events to fill more than one off-heap slab
+        int count = OffHeapEventStore.SLAB_RECORDS + 20000;
+        for (int i = 0; i < count; i++) {
+            // mostly in order, with some late events
+            double timestamp = i - (random.nextInt(10) == 0 ? random.nextInt(200) : 0);
+            int entity = random.nextInt(40);
+            Event e = entity % 4 == 0
+                    ? new ActuatorEvent(timestamp, entity % 3, entity, "Switch", random.nextBoolean())
+                    : new SensorEvent(timestamp, entity % 3, entity, types[entity % 3], random.nextGaussian());
+            assertEquals(heap.add(e), other.add(e));
+        }
+
+        assertEquals(heap.size(), other.size());
+        assertSameEvents(heap.all(), other.all());
+        assertSameEvents(heap.window(5000.5, 7000), other.window(5000.5, 7000));
+        assertSameEvents(heap.window(32700, 32900), other.window(32700, 32900));
+        assertSameEvents(heap.last(333), other.last(333));
+        assertEquals(heap.latest().toString(), other.latest().toString());
+        assertEquals(heap.countByEntity(), other.countByEntity());
+        List<EventKey> heapKeys = new ArrayList<>();
+        List<EventKey> otherKeys = new ArrayList<>();
+        heap.forEachInWindow(100, 200, (key, e) -> heapKeys.add(key));
+        other.forEachInWindow(100, 200, (key, e) -> otherKeys.add(key));
+        assertEquals(heapKeys, otherKeys);
+    }
+
+    @ParameterizedTest
+    @EnumSource(EventStorage.class)
+    public void testCountByEntity(EventStorage storage) {
+        EventStore store = EventStore.of(storage);
+        assertEquals(Map.of(), store.countByEntity());
+        store.add(new SensorEvent(1, 0, 1, "TempSensor", 1));
+        store.add(new SensorEvent(2, 0, 1, "PressureSensor", 2));
+        store.add(new ActuatorEvent(3, 0, 1, "Switch", true));
+        store.add(new SensorEvent(4, 0, 2, "TempSensor", 4));
+
+        assertEquals(Map.of(1, 3, 2, 1), store.countByEntity());
+    }
+
+    @ParameterizedTest
+    @EnumSource(EventStorage.class)
+    public void testRemoveAllAndOldest(EventStorage storage) {
+        EventStore store = EventStore.of(storage);
+        List<EventKey> keys = new ArrayList<>();
+        int count = OffHeapEventStore.SLAB_RECORDS + 1000;
+        for (int i = 0; i < count; i++) {
+            keys.add(store.add(new SensorEvent(i, 0, i % 5, "TempSensor", i)));
+        }
+        List<EventKey> oldest = new ArrayList<>();
+        store.forEachOldest(3, (key, e) -> oldest.add(key));
+        assertEquals(keys.subList(0, 3), oldest);
+
+        // remove every event of the first slab and one more
+        assertEquals(OffHeapEventStore.SLAB_RECORDS + 1, store.removeAll(keys.subList(0, OffHeapEventStore.SLAB_RECORDS + 1)));
+        assertEquals(0, store.removeAll(keys.subList(0, 10)));
+        assertEquals(999, store.size());
+        assertEquals(999, store.all().size());
+        assertEquals(OffHeapEventStore.SLAB_RECORDS + 1.0, store.all().get(0).getTimeStamp());
+        oldest.clear();
+        store.forEachOldest(1, (key, e) -> oldest.add(key));
+        assertEquals(List.of(keys.get(OffHeapEventStore.SLAB_RECORDS + 1)), oldest);
+        assertEquals(count - 1.0, store.latest().getTimeStamp());
+        assertEquals(999, store.countByEntity().values().stream().mapToInt(Integer::intValue).sum());
+    }
+}
@@ -130,5 +130,37 @@ public class FilterTests {
         filteredEvents.add(eventList.get(2));
         assertEquals(filteredEvents, complexFilter.sift(eventsList));
     }
-}
 
+    @Test
+    public void testNestedComplexFilter() {
+        List<Filter> inner = new ArrayList<>();
+        inner.add(new Filter("value", GREATER_THAN_OR_EQUALS, 20));
+        inner.add(new Filter("value", LESS_THAN, 22));
+        List<Filter> outer = new ArrayList<>();
+        outer.add(new Filter(inner));
+        outer.add(new Filter("timestamp", DoubleOperator.LESS_THAN_OR_EQUALS, 5));
+        outer.add(new Filter(new ArrayList<>()));
+        Filter nested = new Filter(outer);
+
+        assertTrue(nested.satisfies(new SensorEvent(5, 0, 1, "TempSensor", 21)));
+        assertFalse(nested.satisfies(new SensorEvent(6, 0, 1, "TempSensor", 21)));
+        assertFalse(nested.satisfies(new SensorEvent(1, 0, 1, "TempSensor", 22)));
+        assertFalse(nested.satisfies(new ActuatorEvent(1, 0, 2, "Switch", true)));
+        assertTrue(new Filter(new ArrayList<>()).satisfies(new ActuatorEvent(1, 0, 2, "Switch", true)));
+    }
+
+    @Test
+    public void testPredicateMatchesSatisfies() {
+        List<Filter> filters = new ArrayList<>();
+        filters.add(new Filter("timestamp", DoubleOperator.GREATER_THAN, 0.2));
+        filters.add(new Filter(BooleanOperator.NOT_EQUALS, true));
+        Filter[] all = {new Filter(filters), new Filter("value", DoubleOperator.EQUALS, -1),
+                new Filter(EQUALS, false)};
+        for (Filter filter : all) {
+            for (Event e : eventList) {
+                assertEquals(filter.satisfies(e), filter.asPredicate().test(e));
+            }
+            assertEquals(eventList.stream().filter(filter::satisfies).toList(), filter.sift(eventList));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package cpen221.mp3.server;
+
+import cpen221.mp3.client.Request;
+import cpen221.mp3.client.RequestCommand;
+import cpen221.mp3.client.RequestType;
+import cpen221.mp3.event.ActuatorEvent;
+import cpen221.mp3.event.SensorEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MessageTests {
+
+    @Test
+    public void testReleaseOrderUsesDeadlineOnly() {
+        // the later event timestamp is released first because its deadline is earlier
+        Message early = new Message(new SensorEvent(500, 0, 1, "TempSensor", 1.0), 100);
+        Message late = new Message(new ActuatorEvent(1, 1, 2, "Switch", true), 200);
+        Message request = new Message(new Request(RequestType.CONFIG,
+                RequestCommand.CONFIG_UPDATE_MAX_WAIT_TIME, "0,3"), 150);
+
+        assertTrue(Message.RELEASE_ORDER.compare(early, late) < 0);
+        assertTrue(Message.RELEASE_ORDER.compare(late, early) > 0);
+        assertTrue(Message.RELEASE_ORDER.compare(request, late) < 0);
+        assertEquals(0, Message.RELEASE_ORDER.compare(early, early));
+    }
+
+    @Test
+    public void testReleaseOrderIsStableOverTime() throws InterruptedException {
+        Message m1 = new Message(new SensorEvent(2, 0, 1, "TempSensor", 1.0), 10);
+        Message m2 = new Message(new SensorEvent(1, 9, 1, "TempSensor", 1.0), 20);
+        int before = Message.RELEASE_ORDER.compare(m1, m2);
+        Thread.sleep(50);
+        assertEquals(before, Message.RELEASE_ORDER.compare(m1, m2));
+        assertEquals(10, m1.getReleaseDeadline());
+    }
+
+    @Test
+    public void testHeapReleasesInDeadlineOrder() {
+        Random random = new Random(221);
+        PriorityQueue<Message> heap = new PriorityQueue<>(Message.RELEASE_ORDER);
+        for (int i = 0; i < 10000; i++) {
+            heap.add(new Message(new SensorEvent(i, i % 7, i, "TempSensor", i), random.nextLong()));
+        }
+
+        List<Long> released = new ArrayList<>();
+        while (!heap.isEmpty()) {
+            released.add(heap.poll().getReleaseDeadline());
+        }
+        List<Long> sorted = new ArrayList<>(released);
+        sorted.sort(Long::compare);
+        assertEquals(sorted, released);
+    }
+}
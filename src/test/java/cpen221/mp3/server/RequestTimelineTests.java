@@ -0,0 +1,129 @@
+package cpen221.mp3.server;
+
+import cpen221.mp3.client.Client;
+import cpen221.mp3.client.Request;
+import cpen221.mp3.client.RequestCommand;
+import cpen221.mp3.client.RequestType;
+import cpen221.mp3.event.ActuatorEvent;
+import cpen221.mp3.event.SensorEvent;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RequestTimelineTests {
+    private final Client client = new Client(0, "test@test.com", "127.0.0.1", 4578);
+
+    private static Request request(RequestCommand command, String data, double timeStamp) {
+        RequestType type = command.name().startsWith("CONFIG") ? RequestType.CONFIG
+                : command.name().startsWith("CONTROL") ? RequestType.CONTROL : RequestType.ANALYSIS;
+        Request r = new Request(type, command, data);
+        r.setTimeStamp(timeStamp);
+        return r;
+    }
+
+    @Test
+    public void testEarlierMaxWaitTimeIsSuperseded() throws IOException, ClassNotFoundException {
+        Server server = new Server(client);
+        server.processIncomingRequest(request(RequestCommand.CONFIG_UPDATE_MAX_WAIT_TIME, "0,3", 10));
+        server.processIncomingRequest(request(RequestCommand.CONFIG_UPDATE_MAX_WAIT_TIME, "0,7", 5));
+        assertEquals(3, server.getMaxWaitTime());
+        server.processIncomingRequest(request(RequestCommand.CONFIG_UPDATE_MAX_WAIT_TIME, "0,1", 11));
+        assertEquals(1, server.getMaxWaitTime());
+    }
+
+    @Test
+    public void testEarlierFilterDoesNotReplaceLaterOne() throws IOException, ClassNotFoundException {
+        Server server = new Server(client);
+        Filter above = new Filter("value", DoubleOperator.GREATER_THAN, 10);
+        Filter below = new Filter("value", DoubleOperator.LESS_THAN, 10);
+        server.processIncomingRequest(request(RequestCommand.CONTROL_NOTIFY_IF, "0," + above, 10));
+        server.processIncomingRequest(request(RequestCommand.ANALYSIS_GET_ALL_ENTITIES, "0,", 12));
+        // arrives late; re-running everything after it would reset the filter to the later one's
+        // after briefly replacing it, and run the query again
+        server.processIncomingRequest(request(RequestCommand.CONTROL_NOTIFY_IF, "0," + below, 5));
+
+        server.processIncomingEvent(new SensorEvent(20, 0, 1, "TempSensor", 15));
+        server.processIncomingEvent(new SensorEvent(21, 0, 2, "TempSensor", 5));
+        assertEquals(List.of(1), server.readLogs());
+
+        RequestTimeline timeline = server.getRequestTimeline();
+        assertEquals(3, timeline.arrivals());
+        assertEquals(2, timeline.applied());
+        assertEquals(3, timeline.avoidedReexecutions());
+    }
+
+    @Test
+    public void testEqualRequestsAreBothApplied() {
+        RequestTimeline timeline = new RequestTimeline();
+        Request r = request(RequestCommand.ANALYSIS_GET_ALL_LOGS, "0,", 1);
+        assertEquals(RequestTimeline.Decision.APPLY, timeline.insert(r));
+        assertEquals(RequestTimeline.Decision.APPLY, timeline.insert(request(RequestCommand.ANALYSIS_GET_ALL_LOGS, "0,", 1)));
+        assertEquals(2, timeline.arrivals());
+        assertEquals(2, timeline.applied());
+    }
+
+    @Test
+    public void testSameMillisecondTogglesBothApply() throws Exception {
+        try (ServerSocket actuator = new ServerSocket(4628)) {
+            Server server = new Server(client);
+            ActuatorDispatcher dispatcher = new ActuatorDispatcher();
+            server.setActuatorDispatcher(dispatcher);
+            server.processIncomingEvent(new ActuatorEvent(1, 0, 4628, "Switch", false));
+
+            Filter f = new Filter(BooleanOperator.EQUALS, false);
+            server.processIncomingRequest(request(RequestCommand.CONTROL_TOGGLE_ACTUATOR_STATE, "0,4628," + f + ",true", 10));
+            server.processIncomingRequest(request(RequestCommand.CONTROL_TOGGLE_ACTUATOR_STATE, "0,4628," + f + ",true", 10));
+
+            try (Socket s = actuator.accept()) {
+                s.setSoTimeout(5000);
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+                for (int i = 0; i < 2; i++) {
+                    String line = in.readLine();
+                    assertTrue(CommandChannel.commandOf(line).contains("CONTROL_TOGGLE_ACTUATOR_STATE"));
+                }
+            }
+            assertEquals(2, server.getRequestTimeline().applied());
+            dispatcher.close();
+        }
+    }
+
+    @Test
+    public void testLatestStateOutlivesOtherRequests() {
+        RequestTimeline timeline = new RequestTimeline();
+        for (int i = 0; i < 100; i++) {
+            timeline.insert(request(RequestCommand.ANALYSIS_GET_ALL_ENTITIES, "0,", i));
+        }
+        assertEquals(RequestTimeline.Decision.APPLY,
+                timeline.insert(request(RequestCommand.CONFIG_UPDATE_MAX_WAIT_TIME, "0,2", 200)));
+        for (int i = 0; i < 100; i++) {
+            timeline.insert(request(RequestCommand.ANALYSIS_GET_ALL_ENTITIES, "0,", 300 + i));
+        }
+        assertEquals(RequestTimeline.Decision.SUPERSEDED,
+                timeline.insert(request(RequestCommand.CONFIG_UPDATE_MAX_WAIT_TIME, "0,4", 150)));
+    }
+
+    @Test
+    public void testReexecutionsAvoidedOnShuffledRequests() {
+        RequestTimeline timeline = new RequestTimeline();
+        // every fourth request arrives behind the three after it
+        int n = 1000;
+        for (int i = 0; i < n; i += 4) {
+            for (int j = 1; j < 4; j++) {
+                timeline.insert(request(RequestCommand.ANALYSIS_GET_LATEST_EVENTS, "0,5", i + j));
+            }
+            timeline.insert(request(RequestCommand.ANALYSIS_GET_LATEST_EVENTS, "0,5", i));
+        }
+        assertEquals(n, timeline.applied());
+        long avoided = timeline.avoidedReexecutions();
+        System.out.println("Re-executions avoided: " + avoided + " for " + n + " requests");
+        assertTrue(avoided >= (n / 4) * 4);
+    }
+}
@@ -0,0 +1,90 @@
+package cpen221.mp3.server;
+
+import cpen221.mp3.client.Client;
+import cpen221.mp3.event.ActuatorEvent;
+import cpen221.mp3.event.Event;
+import cpen221.mp3.event.SensorEvent;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RetentionTests {
+    private final Client client = new Client(0, "test@test.com", "127.0.0.1", 4578);
+
+    @ParameterizedTest
+    @EnumSource(EventStorage.class)
+    public void testCountRetentionRollsUp(EventStorage storage) {
+        Server server = new Server(client, storage);
+        server.setRetention(RetentionPolicy.forCount(10, 50));
+        for (int i = 0; i < 100; i++) {
+            server.processIncomingEvent(new SensorEvent(i, 0, 1, "TempSensor", i));
+        }
+
+        assertEquals(90, server.applyRetention(1000));
+        assertEquals(0, server.applyRetention(1000));
+        List<Event> raw = server.eventsInTimeWindow(new TimeWindow(0, 100));
+        assertEquals(10, raw.size());
+        assertEquals(90, raw.get(0).getTimeStamp());
+
+        List<Rollup> rollups = server.rollupsInTimeWindow(new TimeWindow(0, 100));
+        assertEquals(2, rollups.size());
+        Rollup first = rollups.get(0);
+        assertEquals(0, first.getStartTime());
+        assertEquals(50, first.getEndTime());
+        assertEquals(50, first.getCount());
+        assertEquals(0, first.getMin());
+        assertEquals(49, first.getMax());
+        assertEquals(24.5, first.getMean());
+        assertEquals(40, rollups.get(1).getCount());
+        assertEquals(List.of(rollups.get(1)), server.rollupsInTimeWindow(new TimeWindow(60, 70)));
+    }
+
+    @Test
+    public void testAgeRetentionPerType() {
+        Server server = new Server(client);
+        for (int i = 0; i < 100; i++) {
+            server.processIncomingEvent(new SensorEvent(i, 0, 1, "TempSensor", i));
+            server.processIncomingEvent(new ActuatorEvent(i, 0, 2, "Switch", i % 2 == 0));
+        }
+        // set after the events arrived, so the events already stored are tracked too
+        server.setRetention("Switch", RetentionPolicy.forAge(9, 100));
+
+        assertEquals(90, server.applyRetention(1000));
+        List<Event> raw = server.eventsInTimeWindow(new TimeWindow(0, 99));
+        assertEquals(110, raw.size());
+        assertEquals(100, raw.stream().filter(e -> e.getEntityId() == 1).count());
+        Rollup switches = server.rollupsInTimeWindow(new TimeWindow(0, 99)).get(0);
+        assertEquals(90, switches.getCount());
+        assertEquals(0.5, switches.getMean());
+        assertEquals("Switch", switches.getEntityType());
+    }
+
+    @Test
+    public void testRetentionIsIncremental() {
+        Server server = new Server(client);
+        server.setRetention(RetentionPolicy.forCount(0, 10));
+        for (int i = 0; i < 20; i++) {
+            server.processIncomingEvent(new SensorEvent(i, 0, i < 15 ? 1 : 2, "TempSensor", i));
+        }
+
+        assertEquals(5, server.applyRetention(5));
+        assertEquals(15, server.lastNEvents(100).size());
+        assertEquals(15, server.applyRetention(100));
+        assertTrue(server.lastNEvents(100).isEmpty());
+        // rolled up events still count towards the most active entity
+        assertEquals(1, server.mostActiveEntity());
+    }
+
+    @Test
+    public void testInvalidPolicy() {
+        assertThrows(IllegalArgumentException.class, () -> new RetentionPolicy(0, 10, 10));
+        assertThrows(IllegalArgumentException.class, () -> new RetentionPolicy(10, -1, 10));
+        assertThrows(IllegalArgumentException.class, () -> RetentionPolicy.forCount(10, Double.POSITIVE_INFINITY));
+    }
+}
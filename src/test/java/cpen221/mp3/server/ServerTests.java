@@ -131,6 +131,48 @@ public class ServerTests {
         assertEquals(a, server.lastNEvents(1));
     }
 
+    @Test
+    public void ANALYSIS_GET_LATEST_EVENTS_POLLED() {
+        Server server = new Server(new Client(0, "test@test.com", IP, SERVER_PORT));
+        List<Event> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Event e = new SensorEvent(i, 0, i % 4, "TempSensor", i);
+            expected.add(e);
+            server.processIncomingEvent(e);
+        }
+        assertEquals(expected.subList(90, 100), server.lastNEvents(10));
+        assertEquals(expected.subList(90, 100), server.lastNEvents(10));
+        assertEquals(expected.subList(95, 100), server.lastNEvents(5));
+
+        // a late event only shows up if it is among the latest
+        Event late = new SensorEvent(95.5, 0, 9, "TempSensor", 0);
+        server.processIncomingEvent(new SensorEvent(3.5, 0, 9, "TempSensor", 0));
+        server.processIncomingEvent(late);
+        List<Event> withLate = new ArrayList<>(expected.subList(91, 96));
+        withLate.add(late);
+        withLate.addAll(expected.subList(96, 100));
+        assertEquals(withLate, server.lastNEvents(10));
+        assertEquals(102, server.lastNEvents(LatestEvents.MAX_CAPACITY + 1).size());
+        assertEquals(102, server.lastNEvents(200).size());
+    }
+
+    @Test
+    public void ANALYSIS_GET_LATEST_EVENTS_AFTER_RETENTION() {
+        Server server = new Server(new Client(0, "test@test.com", IP, SERVER_PORT));
+        for (int i = 0; i < 20; i++) {
+            server.processIncomingEvent(new SensorEvent(i, 0, 1, "TempSensor", i));
+            server.processIncomingEvent(new SensorEvent(i + 0.5, 0, 2, "PressureSensor", i));
+        }
+        assertEquals(10, server.lastNEvents(10).size());
+
+        server.setRetention("PressureSensor", RetentionPolicy.forCount(2, 10));
+        server.applyRetention(100);
+        List<Event> latest = server.lastNEvents(10);
+        assertEquals(10, latest.size());
+        assertEquals(2, latest.stream().filter(e -> e.getEntityId() == 2).count());
+        assertEquals(19.5, latest.get(9).getTimeStamp());
+    }
+
     @Test
     public void ANALYSIS_GET_MOST_ACTIVE_ENTITY() {
         Client client = new Client(0, "test@test.com", IP, SERVER_PORT);
@@ -141,5 +183,47 @@ public class ServerTests {
         server.processIncomingEvent(event2);
         assertEquals(2, server.mostActiveEntity());
     }
-}
 
+    @Test
+    public void CONTROL_NOTIFY_IF_STREAMING() throws IOException, ClassNotFoundException {
+        Server server = new Server(new Client(0, "test@test.com", IP, SERVER_PORT));
+        // received before the filter, but after its timestamp
+        server.processIncomingEvent(new SensorEvent(12, 0, 3, "TempSensor", 5.0));
+        server.processIncomingEvent(new SensorEvent(5, 0, 4, "TempSensor", 5.0));
+
+        Filter filter = new Filter("value", DoubleOperator.GREATER_THAN_OR_EQUALS, 1.0);
+        Request r = new Request(RequestType.CONTROL, RequestCommand.CONTROL_NOTIFY_IF, "0," + filter);
+        r.setTimeStamp(10);
+        server.processIncomingRequest(r);
+
+        server.processIncomingEvent(new SensorEvent(11, 0, 1, "TempSensor", 1.0));
+        server.processIncomingEvent(new SensorEvent(11, 0, 2, "TempSensor", 0.5));
+        server.processIncomingEvent(new SensorEvent(11, 0, 5, "TempSensor", 2.0));
+        assertEquals(List.of(5, 1, 3), server.readLogs());
+
+        // read logs are not logged again
+        server.processIncomingEvent(new SensorEvent(13, 0, 6, "TempSensor", 3.0));
+        assertEquals(List.of(6), server.readLogs());
+        assertEquals(List.of(), server.readLogs());
+    }
+
+    @Test
+    public void CONTROL_NOTIFY_IF_MANY_EVENTS() throws IOException, ClassNotFoundException {
+        Server server = new Server(new Client(0, "test@test.com", IP, SERVER_PORT));
+        Filter filter = new Filter(BooleanOperator.EQUALS, false);
+        Request r = new Request(RequestType.CONTROL, RequestCommand.CONTROL_NOTIFY_IF, "0," + filter);
+        r.setTimeStamp(0);
+        server.processIncomingRequest(r);
+
+        // quadratic logging would take minutes here
+        int n = 50000;
+        for (int i = n; i > 0; i--) {
+            server.processIncomingEvent(new SensorEvent(i, 0, i, "TempSensor", 20.0));
+        }
+        List<Integer> logs = server.readLogs();
+        assertEquals(n, logs.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(i + 1, logs.get(i));
+        }
+    }
+}
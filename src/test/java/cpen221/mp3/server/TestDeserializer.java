@@ -5,10 +5,12 @@ import cpen221.mp3.client.RequestCommand;
 import cpen221.mp3.client.RequestType;
 import cpen221.mp3.event.ActuatorEvent;
 import cpen221.mp3.event.Event;
+import cpen221.mp3.event.EventBatch;
 import cpen221.mp3.event.SensorEvent;
 import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -22,6 +24,22 @@ public class TestDeserializer {
         assertEquals(Deserializer.deserializeEvent(e2.toString()).toString(), e2.toString());
     }
 
+    @Test
+    public void testEventBatch() {
+        List<Event> events = new ArrayList<>();
+        events.add(new SensorEvent(100.3, 20, 30, "TempSensor", 14.67));
+        events.add(new ActuatorEvent(100.4, 20, 31, "Switch", true));
+        events.add(new SensorEvent(100.5, 20, 32, "CO2Sensor", 412.5));
+        String frame = new EventBatch(events).toString();
+
+        List<Event> result = Deserializer.deserializeEventBatch(frame);
+        assertEquals(events.size(), result.size());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(events.get(i).toString(), result.get(i).toString());
+        }
+        assertEquals(0, Deserializer.deserializeEventBatch(new EventBatch(new ArrayList<>()).toString()).size());
+    }
+
     @Test
     public void testRequest() {
         Request r = new Request(RequestType.CONFIG, RequestCommand.CONFIG_UPDATE_MAX_WAIT_TIME, "10");